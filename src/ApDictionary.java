@@ -0,0 +1,74 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A global dictionary that interns Access Point (AP) MAC addresses into dense integer ids.
+ * Every MAC address is assigned an id exactly once, so fingerprints can store their APs as
+ * sorted int arrays and be compared with a merge-join instead of string lookups.
+ * Ids start at 0 and are never reused; the dictionary is safe for concurrent use.
+ */
+public final class ApDictionary {
+    private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private static volatile String[] macs = new String[256];
+    private static int size;
+
+    private ApDictionary() {
+    }
+
+    /**
+     * Returns the id of a MAC address, assigning a new id if the address has not been seen before.
+     *
+     * @param mac The MAC address of the WiFi signal.
+     * @return The interned id of the MAC address.
+     */
+    public static int intern(String mac) {
+        Integer id = ids.get(mac);
+        if (id != null)
+            return id;
+
+        synchronized (ApDictionary.class) {
+            id = ids.get(mac);
+            if (id != null)
+                return id;
+
+            String[] table = macs;
+            if (size == table.length) {
+                table = Arrays.copyOf(table, size * 2);
+            }
+            table[size] = mac;
+            macs = table;
+            ids.put(mac, size);
+            return size++;
+        }
+    }
+
+    /**
+     * Returns the id of a MAC address without assigning a new one.
+     *
+     * @param mac The MAC address of the WiFi signal.
+     * @return The interned id of the MAC address, or -1 if the address has never been interned.
+     */
+    public static int lookup(String mac) {
+        Integer id = ids.get(mac);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Returns the MAC address that was interned under the given id.
+     *
+     * @param id The interned id.
+     * @return The MAC address of the WiFi signal.
+     */
+    public static String mac(int id) {
+        return macs[id];
+    }
+
+    /**
+     * Returns the number of MAC addresses interned so far, which is also one more than the largest id.
+     *
+     * @return The number of interned MAC addresses.
+     */
+    public static int size() {
+        return ids.size();
+    }
+}
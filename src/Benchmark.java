@@ -0,0 +1,123 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * A small benchmark runner for the experiments' own main methods. The localization hot path is benchmarked with JMH,
+ * in forked JVMs, by the benchmarks under src/jmh/java.
+ * Every benchmark is run for a number of warm-up rounds, and for at least half a second, so the JIT compiler has
+ * settled, and then for a number of measured rounds. For the measured rounds it reports the average time per operation with its standard deviation,
+ * the bytes allocated per operation by the benchmark thread, and the garbage collections that happened meanwhile.
+ */
+public class Benchmark {
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static final long MIN_WARMUP_NANOS = 500_000_000L;
+
+    /**
+     * Results are written here so the JIT compiler cannot remove the benchmarked work.
+     */
+    public static volatile long sink;
+
+    private final int warmupRounds;
+    private final int measuredRounds;
+
+    /**
+     * Creates a benchmark runner.
+     *
+     * @param warmupRounds The number of rounds to run before measuring.
+     * @param measuredRounds The number of measured rounds.
+     */
+    public Benchmark(int warmupRounds, int measuredRounds) {
+        this.warmupRounds = warmupRounds;
+        this.measuredRounds = measuredRounds;
+    }
+
+    /**
+     * The outcome of a single benchmark.
+     */
+    public static class Result {
+        public final String name;
+        public final double nanosPerOperation;
+        public final double nanosStandardDeviation;
+        public final double bytesPerOperation;
+        public final long gcCount;
+        public final long gcMillis;
+
+        Result(String name, double nanosPerOperation, double nanosStandardDeviation, double bytesPerOperation, long gcCount, long gcMillis) {
+            this.name = name;
+            this.nanosPerOperation = nanosPerOperation;
+            this.nanosStandardDeviation = nanosStandardDeviation;
+            this.bytesPerOperation = bytesPerOperation;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+        }
+
+        /**
+         * Returns the number of operations per second.
+         *
+         * @return The throughput of the benchmark.
+         */
+        public double operationsPerSecond() {
+            return 1e9 / nanosPerOperation;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-48s %14.1f ns/op  +- %6.1f%%  %14.1f B/op  gc %4d (%d ms)",
+                    name, nanosPerOperation, 100 * nanosStandardDeviation / nanosPerOperation, bytesPerOperation, gcCount, gcMillis);
+        }
+    }
+
+    /**
+     * Runs a benchmark. Each round calls the given round once, and the round is expected to perform
+     * the given number of operations, so results are reported per operation.
+     *
+     * @param name The name of the benchmark.
+     * @param operationsPerRound The number of operations performed by one round.
+     * @param round The code of one round.
+     * @return The measured result.
+     */
+    public Result run(String name, long operationsPerRound, Runnable round) {
+        // Short rounds are repeated until the warm-up has run for long enough to be compiled
+        long warmupStart = System.nanoTime();
+        for (int i = 0; i < warmupRounds || System.nanoTime() - warmupStart < MIN_WARMUP_NANOS; i++) {
+            round.run();
+        }
+
+        long gcCount = -gcCount();
+        long gcMillis = -gcMillis();
+        long bytes = -threads.getCurrentThreadAllocatedBytes();
+        double sum = 0, sumSq = 0;
+        for (int i = 0; i < measuredRounds; i++) {
+            long start = System.nanoTime();
+            round.run();
+            double nanosPerOperation = (double) (System.nanoTime() - start) / operationsPerRound;
+            sum += nanosPerOperation;
+            sumSq += nanosPerOperation * nanosPerOperation;
+        }
+        bytes += threads.getCurrentThreadAllocatedBytes();
+        gcCount += gcCount();
+        gcMillis += gcMillis();
+
+        double mean = sum / measuredRounds;
+        double deviation = Math.sqrt(Math.max(0, sumSq / measuredRounds - mean * mean));
+        return new Result(name, mean, deviation, (double) bytes / (operationsPerRound * measuredRounds), gcCount, gcMillis);
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+}
@@ -0,0 +1,480 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A radio map stored in a compact binary file and read through a memory mapping.
+ * Opening a map only checks the header, decodes the AP dictionary and verifies the checksum of both, so even a map of
+ * millions of fingerprints opens in milliseconds; coordinates, strong AP counts and signals are read straight from the
+ * mapped file, so {@link Locator#getLocation(BinaryRadioMap, Fingerprint)} scores the whole map without creating
+ * Fingerprint objects, and only decodes the best score bucket of a query.
+ *
+ * <p>File layout (big-endian):
+ * <pre>
+ * header      int magic, int version, int fingerprintCount, int apCount, int entryCount, int minRssToCount,
+ *             int CRC-32 of the header before it and of the dictionary
+ * dictionary  apCount x (unsigned short length, UTF-8 MAC address), padded to 8 bytes
+ * x           fingerprintCount x double
+ * y           fingerprintCount x double
+ * strong      fingerprintCount x int, the number of APs above minRssToCount
+ * offsets     (fingerprintCount + 1) x int, the first entry of every fingerprint
+ * entries     entryCount x int, (apId &lt;&lt; 8 | rss &amp; 0xFF), sorted by apId within each fingerprint
+ * </pre>
+ * AP ids are local to the file and ordered like the MAC addresses in the dictionary.
+ * A single mapping is limited to 2 GB, which is about 500 million signal entries.
+ *
+ * <p>The offsets of a fingerprint are checked when its entries are read, and the AP ids when it is decoded, so a
+ * corrupt offset or entry fails the query with an {@link UncheckedIOException} instead of reading the entries of
+ * other fingerprints; {@link #validate()} checks the whole file up front.
+ */
+public class BinaryRadioMap implements CandidateSource {
+    private static final int MAGIC = 0x5A524D31; // "ZRM1"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 28;
+    private static final int CHECKSUM_OFFSET = 24;
+    private static final int MAX_AP_COUNT = 1 << 24;
+
+    private final ByteBuffer buffer;
+    private final int fingerprintCount;
+    private final int entryCount;
+    private final String[] macs;
+    private final Map<String, Integer> apIds;
+    private final int xOffset;
+    private final int yOffset;
+    private final int strongOffset;
+    private final int offsetsOffset;
+    private final int entriesOffset;
+
+    private BinaryRadioMap(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+
+        // Check the whole header before sizing anything from it, so a corrupt file fails with an IOException
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+            throw new IOException("Not a binary radio map");
+        if (buffer.getInt(4) != VERSION)
+            throw new IOException("Unsupported binary radio map version " + buffer.getInt(4));
+
+        fingerprintCount = buffer.getInt(8);
+        int apCount = buffer.getInt(12);
+        entryCount = buffer.getInt(16);
+        if (fingerprintCount < 0 || apCount < 0 || apCount > MAX_AP_COUNT || entryCount < 0)
+            throw new IOException("Corrupt binary radio map header");
+        long minimumEnd = HEADER_SIZE + 2L * apCount + 24L * fingerprintCount + 4 + 4L * entryCount;
+        if (minimumEnd > buffer.capacity())
+            throw new IOException("Truncated binary radio map");
+
+        macs = new String[apCount];
+        apIds = new HashMap<>(apCount * 2);
+        int position = HEADER_SIZE;
+        byte[] bytes = new byte[64];
+        for (int id = 0; id < apCount; id++) {
+            if (position + 2 > buffer.capacity())
+                throw new IOException("Truncated binary radio map");
+            int length = buffer.getShort(position) & 0xFFFF;
+            if (position + 2L + length > buffer.capacity())
+                throw new IOException("Truncated binary radio map");
+            if (bytes.length < length)
+                bytes = new byte[length];
+            buffer.get(position + 2, bytes, 0, length);
+            macs[id] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+            apIds.put(macs[id], id);
+            position += 2 + length;
+        }
+
+        CRC32 checksum = new CRC32();
+        checksum.update(buffer.slice(0, CHECKSUM_OFFSET));
+        checksum.update(buffer.slice(HEADER_SIZE, position - HEADER_SIZE));
+        if ((int) checksum.getValue() != buffer.getInt(CHECKSUM_OFFSET))
+            throw new IOException("Corrupt binary radio map header or dictionary");
+        // The strong AP counts are only valid for the threshold they were counted with
+        if (buffer.getInt(20) != Locator.MIN_RSS_TO_COUNT)
+            throw new IOException("Binary radio map was written for a strong AP threshold of " + buffer.getInt(20)
+                    + " dBm, not " + Locator.MIN_RSS_TO_COUNT + "; convert it again");
+
+        long end = align(position) + 24L * fingerprintCount + 4 + 4L * entryCount;
+        if (end > buffer.capacity())
+            throw new IOException("Truncated binary radio map");
+
+        xOffset = align(position);
+        yOffset = xOffset + 8 * fingerprintCount;
+        strongOffset = yOffset + 8 * fingerprintCount;
+        offsetsOffset = strongOffset + 4 * fingerprintCount;
+        entriesOffset = offsetsOffset + 4 * (fingerprintCount + 1);
+        if (entryStart(0) != 0)
+            throw new IOException("Corrupt binary radio map offsets");
+    }
+
+    /**
+     * Opens a binary radio map by memory-mapping the file.
+     *
+     * @param path The path to the binary radio map.
+     * @return The opened radio map.
+     * @throws IOException If the file cannot be mapped or is not a binary radio map.
+     */
+    public static BinaryRadioMap open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Binary radio map is larger than 2 GB: " + path);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new BinaryRadioMap(buffer);
+        }
+    }
+
+    /**
+     * Checks every offset, signal entry and strong AP count of the map, which reads the whole file.
+     * Opening a map only checks its header and dictionary, so run this after copying or converting a map.
+     *
+     * @throws IOException If the map is corrupt.
+     */
+    public void validate() throws IOException {
+        int apCount = macs.length;
+        int start = entryStart(0);
+        for (int f = 0; f < fingerprintCount; f++) {
+            int next = entryStart(f + 1);
+            if (next < start || next > entryCount)
+                throw new IOException("Corrupt binary radio map offsets at fingerprint " + f);
+            int strongCount = 0;
+            for (int e = start, previousId = -1; e < next; e++) {
+                int entry = entry(e);
+                int localId = entry >>> 8;
+                if (localId <= previousId || localId >= apCount)
+                    throw new IOException("Corrupt binary radio map entries at fingerprint " + f);
+                previousId = localId;
+                if ((byte) entry > Locator.MIN_RSS_TO_COUNT)
+                    strongCount++;
+            }
+            if (strongCount != strongCount(f))
+                throw new IOException("Corrupt binary radio map strong AP count at fingerprint " + f);
+            start = next;
+        }
+    }
+
+    /**
+     * Writes fingerprints to a binary radio map file.
+     *
+     * @param fingerprints The fingerprints to write, in the order they should be stored.
+     * @param path The path of the binary radio map to create or replace.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void write(List<Fingerprint> fingerprints, Path path) throws IOException {
+        // Local AP ids follow the order of the global ids, so each fingerprint's entries stay sorted
+        int[] globalIds = fingerprints.stream().flatMapToInt(f -> Arrays.stream(f.apIds())).distinct().sorted().toArray();
+        if (globalIds.length > MAX_AP_COUNT)
+            throw new IOException("Too many APs for a binary radio map: " + globalIds.length);
+
+        long entryCount = 0;
+        for (Fingerprint fingerprint : fingerprints) {
+            entryCount += fingerprint.apIds().length;
+        }
+        if (entryCount > Integer.MAX_VALUE)
+            throw new IOException("Too many signal entries for a binary radio map: " + entryCount);
+
+        // Everything the checksum covers is known up front, so the header can be written first
+        byte[][] dictionary = new byte[globalIds.length][];
+        int position = HEADER_SIZE;
+        for (int i = 0; i < globalIds.length; i++) {
+            dictionary[i] = ApDictionary.mac(globalIds[i]).getBytes(StandardCharsets.UTF_8);
+            position += 2 + dictionary[i].length;
+        }
+        if (align(position) + 24L * fingerprints.size() + 4 + 4 * entryCount > Integer.MAX_VALUE)
+            throw new IOException("Binary radio map would be larger than 2 GB");
+
+        ByteBuffer header = ByteBuffer.allocate(CHECKSUM_OFFSET)
+                .putInt(MAGIC).putInt(VERSION).putInt(fingerprints.size()).putInt(globalIds.length)
+                .putInt((int) entryCount).putInt(Locator.MIN_RSS_TO_COUNT);
+        CRC32 checksum = new CRC32();
+        checksum.update(header.array());
+        for (byte[] mac : dictionary) {
+            checksum.update(mac.length >>> 8);
+            checksum.update(mac.length);
+            checksum.update(mac);
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))) {
+            out.write(header.array());
+            out.writeInt((int) checksum.getValue());
+
+            for (byte[] mac : dictionary) {
+                out.writeShort(mac.length);
+                out.write(mac);
+            }
+            for (; position < align(position); position++) {
+                out.write(0);
+            }
+
+            for (Fingerprint fingerprint : fingerprints) {
+                out.writeDouble(fingerprint.center.x);
+            }
+            for (Fingerprint fingerprint : fingerprints) {
+                out.writeDouble(fingerprint.center.y);
+            }
+            for (Fingerprint fingerprint : fingerprints) {
+                int strongCount = 0;
+                for (byte rss : fingerprint.rss()) {
+                    if (rss > Locator.MIN_RSS_TO_COUNT)
+                        strongCount++;
+                }
+                out.writeInt(strongCount);
+            }
+
+            int offset = 0;
+            out.writeInt(offset);
+            for (Fingerprint fingerprint : fingerprints) {
+                offset += fingerprint.apIds().length;
+                out.writeInt(offset);
+            }
+
+            for (Fingerprint fingerprint : fingerprints) {
+                int[] ids = fingerprint.apIds();
+                byte[] rss = fingerprint.rss();
+                for (int i = 0; i < ids.length; i++) {
+                    out.writeInt(Arrays.binarySearch(globalIds, ids[i]) << 8 | rss[i] & 0xFF);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of fingerprints in the map.
+     *
+     * @return The number of fingerprints.
+     */
+    public int size() {
+        return fingerprintCount;
+    }
+
+    /**
+     * Returns the number of distinct APs in the map.
+     *
+     * @return The number of APs.
+     */
+    public int apCount() {
+        return macs.length;
+    }
+
+    /**
+     * Returns the x coordinate of a fingerprint's center.
+     *
+     * @param index The position of the fingerprint.
+     * @return The x coordinate.
+     */
+    public double x(int index) {
+        return buffer.getDouble(xOffset + 8 * index);
+    }
+
+    /**
+     * Returns the y coordinate of a fingerprint's center.
+     *
+     * @param index The position of the fingerprint.
+     * @return The y coordinate.
+     */
+    public double y(int index) {
+        return buffer.getDouble(yOffset + 8 * index);
+    }
+
+    /**
+     * Returns the local id of a MAC address, or -1 if no fingerprint in the map contains it.
+     */
+    int apId(String mac) {
+        Integer id = apIds.get(mac);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Returns the position of the first signal entry of a fingerprint; the entries of fingerprint i
+     * are entryStart(i) inclusive to entryEnd(i, entryStart(i)) exclusive.
+     */
+    int entryStart(int index) {
+        return buffer.getInt(offsetsOffset + 4 * index);
+    }
+
+    /**
+     * Returns the position after the last signal entry of a fingerprint, checked against its start.
+     *
+     * @throws UncheckedIOException If the offsets of the fingerprint are corrupt.
+     */
+    int entryEnd(int index, int start) {
+        int end = entryStart(index + 1);
+        if (end < start || end > entryCount)
+            throw new UncheckedIOException(new IOException("Corrupt binary radio map offsets at fingerprint " + index));
+        return end;
+    }
+
+    /**
+     * Returns a packed signal entry, holding the local AP id in the upper 24 bits and the RSS in the low byte.
+     */
+    int entry(int position) {
+        return buffer.getInt(entriesOffset + 4 * position);
+    }
+
+    /**
+     * Returns the number of APs of a fingerprint whose RSS is above the strong AP threshold of the Locator,
+     * counted when the map was written.
+     */
+    int strongCount(int index) {
+        return buffer.getInt(strongOffset + 4 * index);
+    }
+
+    /**
+     * Returns the fingerprint at the given position, decoded from the mapped file. Every call creates a new
+     * Fingerprint, so the Locator only decodes the best fingerprints of a query.
+     *
+     * @param index The position of the fingerprint.
+     * @return The fingerprint.
+     * @throws UncheckedIOException If the offsets or entries of the fingerprint are corrupt.
+     */
+    @Override
+    public Fingerprint get(int index) {
+        Fingerprint fingerprint = new Fingerprint();
+        for (int e = entryStart(index), end = entryEnd(index, e); e < end; e++) {
+            int entry = entry(e);
+            if (entry >>> 8 >= macs.length)
+                throw new UncheckedIOException(new IOException("Corrupt binary radio map entry at fingerprint " + index));
+            fingerprint.instance.macsAndValues.add(new MacAndValue(macs[entry >>> 8], (byte) entry));
+        }
+        fingerprint.center.x = x(index);
+        fingerprint.center.y = y(index);
+        return fingerprint;
+    }
+
+    /**
+     * Returns the ascending positions of the fingerprints with the best score above the minimum score, scoring the
+     * packed entries of every fingerprint against the query translated to the local AP ids of the map.
+     *
+     * @param fingerprint The fingerprint used as a reference for scoring.
+     * @param excludedIndex The position of the fingerprint to leave out, or -1 to use the whole radio map.
+     * @return The positions of the best fingerprints.
+     * @throws UncheckedIOException If the offsets of the map are corrupt.
+     */
+    @Override
+    public int[] bestPositions(Fingerprint fingerprint, int excludedIndex) {
+        // Translate the query into the map's local AP ids; APs unknown to the map can never be common
+        int[] apIds = fingerprint.apIds();
+        Fingerprint.StrongAps strongAps = Locator.strongAps(fingerprint);
+        int[] localIds = new int[apIds.length];
+        boolean[] localStrong = new boolean[apIds.length];
+        int localCount = 0;
+        int fingerprintApCount = 0;
+        for (int apId : apIds) {
+            boolean strong = strongAps.contains(apId);
+            if (strong)
+                fingerprintApCount++;
+
+            int localId = apId(ApDictionary.mac(apId));
+            if (localId >= 0) {
+                localIds[localCount] = localId;
+                localStrong[localCount] = strong;
+                localCount++;
+            }
+        }
+        sortByApId(localIds, localStrong, localCount);
+
+        // Score every fingerprint in the map and keep the best bucket, in map order
+        int bestScore = Locator.NEIGHBOUR_MIN_SCORE;
+        int[] best = new int[16];
+        int bestCount = 0;
+        for (int f = 0, end = entryStart(0); f < fingerprintCount; f++) {
+            int start = end;
+            end = entryEnd(f, start);
+            if (f == excludedIndex)
+                continue;
+
+            int minRSS = Locator.MIN_RSS_TO_COUNT;
+            int strongCount = strongCount(f);
+            if (strongCount < 3) {
+                minRSS = Integer.MIN_VALUE;
+                strongCount = end - start;
+            }
+
+            int intersection = 0;
+            for (int e = start, q = 0; e < end && q < localCount; ) {
+                int entry = entry(e);
+                int localId = entry >>> 8;
+                if (localId == localIds[q]) {
+                    if (localStrong[q] && (byte) entry > minRSS)
+                        intersection++;
+                    e++;
+                    q++;
+                } else if (localId < localIds[q]) {
+                    e++;
+                } else {
+                    q++;
+                }
+            }
+
+            int score = intersection * 2 - (fingerprintApCount - intersection) - (strongCount - intersection);
+            if (score > bestScore) {
+                bestScore = score;
+                bestCount = 0;
+            }
+            if (score == bestScore) {
+                if (bestCount == best.length)
+                    best = Arrays.copyOf(best, bestCount * 2);
+                best[bestCount++] = f;
+            }
+        }
+        return Arrays.copyOf(best, bestCount);
+    }
+
+    /**
+     * Sorts the first count elements of two parallel arrays by AP id, using insertion sort since scans are short.
+     */
+    private static void sortByApId(int[] apIds, boolean[] strong, int count) {
+        for (int i = 1; i < count; i++) {
+            int apId = apIds[i];
+            boolean isStrong = strong[i];
+            int j = i - 1;
+            for (; j >= 0 && apIds[j] > apId; j--) {
+                apIds[j + 1] = apIds[j];
+                strong[j + 1] = strong[j];
+            }
+            apIds[j + 1] = apId;
+            strong[j + 1] = isStrong;
+        }
+    }
+
+    private static int align(int position) {
+        return (position + 7) & ~7;
+    }
+
+    /**
+     * Converts JSON radio maps to binary radio maps.
+     * With no arguments the bundled radio_map.json, new_radio_map.json and training.json are converted
+     * to .bin files next to them; otherwise the arguments are pairs of input JSON and output binary paths.
+     *
+     * @param args Pairs of input and output paths, or nothing to convert the bundled maps.
+     * @throws IOException If a map cannot be read or written.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0)
+            args = new String[]{"radio_map.json", "radio_map.bin", "new_radio_map.json", "new_radio_map.bin", "training.json", "training.bin"};
+        if (args.length % 2 != 0)
+            throw new IllegalArgumentException("Expected pairs of input and output paths");
+
+        for (int i = 0; i < args.length; i += 2) {
+            List<Fingerprint> fingerprints = RadioMapLoader.load(Paths.get(args[i]));
+            write(fingerprints, Paths.get(args[i + 1]));
+            open(Paths.get(args[i + 1])).validate();
+
+            long start = System.nanoTime();
+            BinaryRadioMap map = open(Paths.get(args[i + 1]));
+            long elapsed = System.nanoTime() - start;
+            System.out.println(args[i] + " -> " + args[i + 1] + ": " + map.size() + " fingerprints, " + map.apCount() + " APs, "
+                    + Files.size(Paths.get(args[i + 1])) + " bytes, opened in " + String.format("%.3f", elapsed / 1e6) + " ms");
+        }
+    }
+}
@@ -0,0 +1,25 @@
+/**
+ * A search structure over a radio map that the {@link Locator} can locate a fingerprint with: it finds the
+ * fingerprints with the best score for a query, and returns the fingerprint at a position. The Locator weights the
+ * best fingerprints of every source in the same way, so a new structure only has to implement its search.
+ */
+interface CandidateSource {
+
+    /**
+     * Returns the ascending positions of the fingerprints with the best score above the minimum score, among the
+     * fingerprints the structure searches for the given fingerprint.
+     *
+     * @param fingerprint The fingerprint used as a reference for scoring.
+     * @param excludedIndex The position of the fingerprint to leave out, or -1 to use the whole radio map.
+     * @return The positions of the best fingerprints.
+     */
+    int[] bestPositions(Fingerprint fingerprint, int excludedIndex);
+
+    /**
+     * Returns the fingerprint at the given position.
+     *
+     * @param index The position of the fingerprint.
+     * @return The fingerprint.
+     */
+    Fingerprint get(int index);
+}
@@ -0,0 +1,216 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A radio map stored as a dense fingerprint-by-AP matrix of signal strengths, for calculating the distances from
+ * one fingerprint to many others.
+ *
+ * <p>Every cell holds the signal plus {@link Locator#RSS_OFFSET}, and 0 where the fingerprint does not hear the AP.
+ * The squared distance of {@link Locator#dissimilarity} then becomes the plain sum of squared differences over all
+ * columns: two signals give their difference, a signal heard by one side only gives the signal plus the offset, and
+ * an AP heard by neither side gives 0. The {@link DistanceKernel} has no branches and runs over contiguous int
+ * arrays: by default the Vector API kernel when the JVM runs with {@code --add-modules jdk.incubator.vector}, and
+ * otherwise the scalar loop, which the JIT compiles to SIMD instructions where it can. The results are identical to
+ * {@link Locator#distanceSq}, since both add up the same integer terms.
+ *
+ * <p>A row costs the same whatever the number of APs its fingerprint hears, so the dense matrix only pays off when
+ * the radio map hears a limited number of APs in total; see {@link #isDenseEnough(List)}.
+ */
+public class DenseRadioMap {
+    private static final DistanceKernel DEFAULT_KERNEL = DistanceKernel.best();
+
+    private final List<Fingerprint> fingerprints;
+    private final int[] columnOf;
+    private final int columns;
+    private final int[] values;
+    private final DistanceKernel kernel;
+
+    /**
+     * Builds the dense matrix of a radio map, measured with the fastest kernel available.
+     *
+     * @param fingerprints The fingerprints of the radio map, in the order results should be reported.
+     */
+    public DenseRadioMap(List<Fingerprint> fingerprints) {
+        this(fingerprints, DEFAULT_KERNEL);
+    }
+
+    /**
+     * Builds the dense matrix of a radio map.
+     *
+     * @param fingerprints The fingerprints of the radio map, in the order results should be reported.
+     * @param kernel The kernel that calculates the distance between two rows.
+     */
+    public DenseRadioMap(List<Fingerprint> fingerprints, DistanceKernel kernel) {
+        this.kernel = kernel;
+        this.fingerprints = Collections.unmodifiableList(new ArrayList<>(fingerprints));
+
+        // Only the APs heard somewhere in the map get a column
+        int[] columnOf = new int[ApDictionary.size()];
+        int columns = 0;
+        for (Fingerprint fingerprint : this.fingerprints) {
+            for (int apId : fingerprint.apIds()) {
+                if (apId >= columnOf.length)
+                    columnOf = Arrays.copyOf(columnOf, Math.max(apId + 1, columnOf.length * 2));
+                if (columnOf[apId] == 0)
+                    columnOf[apId] = ++columns;
+            }
+        }
+        for (int apId = 0; apId < columnOf.length; apId++) {
+            columnOf[apId]--;
+        }
+        this.columnOf = columnOf;
+        this.columns = columns;
+
+        values = new int[Math.multiplyExact(this.fingerprints.size(), columns)];
+        for (int f = 0; f < this.fingerprints.size(); f++) {
+            int[] apIds = this.fingerprints.get(f).apIds();
+            byte[] rss = this.fingerprints.get(f).rss();
+            for (int i = 0; i < apIds.length; i++) {
+                values[f * columns + columnOf[apIds[i]]] = rss[i] + Locator.RSS_OFFSET;
+            }
+        }
+    }
+
+    /**
+     * Tells whether the dense kernel is expected to be faster than merging the sorted APs of every pair, which is
+     * the case when the map hears at most 16 times as many APs as an average fingerprint, and the matrix stays
+     * below 64M cells.
+     *
+     * @param fingerprints The fingerprints of the radio map.
+     * @return true if a DenseRadioMap should be used for many distance calculations.
+     */
+    public static boolean isDenseEnough(List<Fingerprint> fingerprints) {
+        if (fingerprints.isEmpty())
+            return false;
+        BitSet aps = new BitSet();
+        long entries = 0;
+        for (Fingerprint fingerprint : fingerprints) {
+            for (int apId : fingerprint.apIds()) {
+                aps.set(apId);
+            }
+            entries += fingerprint.apIds().length;
+        }
+        long columns = aps.cardinality();
+        return columns * fingerprints.size() <= 16 * entries && columns * fingerprints.size() <= 1 << 26;
+    }
+
+    /**
+     * Returns the number of fingerprints.
+     *
+     * @return The number of fingerprints.
+     */
+    public int size() {
+        return fingerprints.size();
+    }
+
+    /**
+     * Returns the number of APs heard in the radio map, which is the length of every row.
+     *
+     * @return The number of columns.
+     */
+    public int columns() {
+        return columns;
+    }
+
+    /**
+     * Returns the fingerprints, in their original order.
+     *
+     * @return An unmodifiable list of the fingerprints.
+     */
+    public List<Fingerprint> fingerprints() {
+        return fingerprints;
+    }
+
+    /**
+     * Returns the fingerprint at the given position.
+     *
+     * @param index The position of the fingerprint.
+     * @return The fingerprint.
+     */
+    public Fingerprint get(int index) {
+        return fingerprints.get(index);
+    }
+
+    /**
+     * Calculates the squared distances from a fingerprint to a range of the fingerprints of the map.
+     *
+     * @param fingerprint The fingerprint to measure from; it need not be part of the map.
+     * @param from The position of the first fingerprint, inclusive.
+     * @param to The position of the last fingerprint, exclusive.
+     * @param distancesSq Receives the distance to the fingerprint at position p at index p - from.
+     */
+    public void distancesSq(Fingerprint fingerprint, int from, int to, int[] distancesSq) {
+        int[] query = new int[columns];
+        int unknownDistanceSq = expand(fingerprint, query);
+        for (int f = from; f < to; f++) {
+            distancesSq[f - from] = unknownDistanceSq + rowDistanceSq(query, f);
+        }
+    }
+
+    /**
+     * Calculates the squared distances from a fingerprint to selected fingerprints of the map.
+     *
+     * @param fingerprint The fingerprint to measure from; it need not be part of the map.
+     * @param positions The positions of the fingerprints to measure to.
+     * @param count The number of positions to use.
+     * @param distancesSq Receives the distance to the fingerprint at positions[i] at index i.
+     */
+    public void distancesSq(Fingerprint fingerprint, int[] positions, int count, int[] distancesSq) {
+        int[] query = new int[columns];
+        int unknownDistanceSq = expand(fingerprint, query);
+        for (int i = 0; i < count; i++) {
+            distancesSq[i] = unknownDistanceSq + rowDistanceSq(query, positions[i]);
+        }
+    }
+
+    /**
+     * Calculates the dissimilarity between a fingerprint and a fingerprint of the map,
+     * identical to {@link Locator#dissimilarity}.
+     *
+     * @param fingerprint The fingerprint to measure from.
+     * @param position The position of the fingerprint of the map.
+     * @return The dissimilarity.
+     */
+    public float dissimilarity(Fingerprint fingerprint, int position) {
+        int[] distanceSq = new int[1];
+        distancesSq(fingerprint, position, position + 1, distanceSq);
+        return toDissimilarity(distanceSq[0]);
+    }
+
+    /**
+     * Converts a squared distance to a dissimilarity exactly like {@link Locator#dissimilarity}.
+     *
+     * @param distanceSq The squared distance.
+     * @return The dissimilarity.
+     */
+    public static float toDissimilarity(int distanceSq) {
+        return Locator.dissimilarity(distanceSq);
+    }
+
+    /**
+     * Writes the row of a fingerprint into query, and returns the squared distance contributed by its APs that
+     * have no column, which every fingerprint of the map lacks.
+     */
+    private int expand(Fingerprint fingerprint, int[] query) {
+        int[] apIds = fingerprint.apIds();
+        byte[] rss = fingerprint.rss();
+        int unknownDistanceSq = 0;
+        for (int i = 0; i < apIds.length; i++) {
+            int value = rss[i] + Locator.RSS_OFFSET;
+            int column = apIds[i] < columnOf.length ? columnOf[apIds[i]] : -1;
+            if (column < 0) {
+                unknownDistanceSq += value * value;
+            } else {
+                query[column] = value;
+            }
+        }
+        return unknownDistanceSq;
+    }
+
+    private int rowDistanceSq(int[] query, int row) {
+        return kernel.distanceSq(values, row * columns, query);
+    }
+}
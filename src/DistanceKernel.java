@@ -0,0 +1,58 @@
+/**
+ * The inner loop of {@link DenseRadioMap}: the sum of squared differences between a query row and a row of the
+ * matrix. Every kernel adds up the same int terms, so all of them give identical results, overflow included.
+ */
+public interface DistanceKernel {
+
+    /**
+     * Calculates the sum of squared differences between query and values[offset] to values[offset + query.length].
+     *
+     * @param values The matrix of signals.
+     * @param offset The position of the first cell of the row in values.
+     * @param query The row to measure from.
+     * @return The squared distance.
+     */
+    int distanceSq(int[] values, int offset, int[] query);
+
+    /**
+     * Returns the plain loop, which the JIT compiler vectorizes by itself where it can.
+     *
+     * @return The scalar kernel.
+     */
+    static DistanceKernel scalar() {
+        return (values, offset, query) -> {
+            int distanceSq = 0;
+            for (int column = 0; column < query.length; column++) {
+                int difference = values[offset + column] - query[column];
+                distanceSq += difference * difference;
+            }
+            return distanceSq;
+        };
+    }
+
+    /**
+     * Returns the kernel written with the Vector API, if the jdk.incubator.vector module was added to the JVM
+     * with {@code --add-modules jdk.incubator.vector}.
+     *
+     * @return The vector kernel, or null if the module is not available.
+     */
+    static DistanceKernel vector() {
+        if (!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent())
+            return null;
+        try {
+            return (DistanceKernel) Class.forName("VectorDistanceKernel").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the vector kernel where it is available, and the scalar kernel otherwise.
+     *
+     * @return The fastest available kernel.
+     */
+    static DistanceKernel best() {
+        DistanceKernel vector = vector();
+        return vector != null ? vector : scalar();
+    }
+}
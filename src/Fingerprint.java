@@ -1,4 +1,5 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -14,6 +15,9 @@ public class Fingerprint {
     public List<Integer> color4f = new ArrayList<>();
     public boolean isRemoved;
 
+    private Compact compact;
+    private StrongAps strongAps;
+
     /**
      * Retrieves a list of MAC addresses present in the fingerprint.
      *
@@ -34,11 +38,9 @@ public class Fingerprint {
      * @return The signal strength of the WiFi signal, or Integer.MAX_VALUE if the MAC address is not found.
      */
     public int get(String mac) {
-        for (MacAndValue macAndValue : instance.macsAndValues) {
-            if (mac.equals(macAndValue.mac))
-                return macAndValue.signal;
-        }
-        return Integer.MAX_VALUE;
+        Compact c = compact();
+        int index = Arrays.binarySearch(c.apIds, ApDictionary.lookup(mac));
+        return index >= 0 ? c.rss[index] : Integer.MAX_VALUE;
     }
 
     /**
@@ -48,11 +50,204 @@ public class Fingerprint {
      * @return true if the fingerprint contains the MAC address, false otherwise.
      */
     public boolean containsKey(String mac) {
-        for (MacAndValue macAndValue : instance.macsAndValues) {
-            if (macAndValue.mac.equals(mac))
-                return true;
+        return Arrays.binarySearch(compact().apIds, ApDictionary.lookup(mac)) >= 0;
+    }
+
+    /**
+     * Returns the interned ids of the APs in this fingerprint, sorted in ascending order.
+     * The array is shared with the fingerprint and must not be modified.
+     *
+     * @return The sorted AP ids.
+     * @see ApDictionary
+     */
+    public int[] apIds() {
+        return compact().apIds;
+    }
+
+    /**
+     * Returns the signal strengths of the APs in this fingerprint, aligned with {@link #apIds()}.
+     * The array is shared with the fingerprint and must not be modified.
+     *
+     * @return The signal strengths, where rss[i] belongs to apIds()[i].
+     */
+    public byte[] rss() {
+        return compact().rss;
+    }
+
+    /**
+     * Returns the compact sparse-vector form of this fingerprint, rebuilding it if the
+     * list of MAC addresses and values has changed since it was last built.
+     * If a MAC address appears more than once, its first value is used, as in {@link #get(String)}.
+     * Changing the signal of an existing MacAndValue in place is not detected; replace the entry instead.
+     */
+    Compact compact() {
+        List<MacAndValue> source = instance.macsAndValues;
+        int version = WifiFingerprint.version(source);
+        Compact c = compact;
+        if (c == null || c.source != source || c.version != version) {
+            c = new Compact(source, version);
+            compact = c;
+        }
+        return c;
+    }
+
+    /**
+     * Returns the set of strong APs of this fingerprint.
+     * An AP is strong if its signal is above minRSS; if fewer than 3 APs are strong, all APs are used instead.
+     * The set is built once, normally when the radio map is loaded, and cached until the fingerprint's signals or
+     * the threshold change.
+     *
+     * @param minRSS The minimum RSSI value for an AP to be considered strong.
+     * @return The strong APs.
+     */
+    StrongAps strongAps(int minRSS) {
+        Compact c = compact();
+        StrongAps s = strongAps;
+        if (s == null || s.compact != c || s.minRSS != minRSS) {
+            s = new StrongAps(c, minRSS);
+            strongAps = s;
+        }
+        return s;
+    }
+
+    /**
+     * An immutable snapshot of the fingerprint's signals as sorted AP ids and aligned signal strengths.
+     * All fields are final so a snapshot can be safely shared between threads once built.
+     */
+    static final class Compact {
+        final List<MacAndValue> source;
+        final int version;
+        final int[] apIds;
+        final byte[] rss;
+
+        Compact(List<MacAndValue> source, int version) {
+            this.source = source;
+            this.version = version;
+
+            // Sort by AP id, keeping the original position so the first occurrence of a MAC wins
+            long[] keys = new long[source.size()];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = (long) ApDictionary.intern(source.get(i).mac) << 32 | i;
+            }
+            Arrays.sort(keys);
+
+            int[] ids = new int[keys.length];
+            byte[] values = new byte[keys.length];
+            int count = 0;
+            for (long key : keys) {
+                int id = (int) (key >>> 32);
+                if (count > 0 && ids[count - 1] == id)
+                    continue;
+
+                // Signals are range checked when a MacAndValue is created, and cannot change afterwards
+                ids[count] = id;
+                values[count] = (byte) source.get((int) key).signal;
+                count++;
+            }
+
+            this.apIds = count == ids.length ? ids : Arrays.copyOf(ids, count);
+            this.rss = count == values.length ? values : Arrays.copyOf(values, count);
+        }
+    }
+
+    /**
+     * An immutable set of the strong APs of a compact fingerprint for a given RSSI threshold.
+     * The APs are kept as sorted ids, so the set grows with the fingerprint and not with the number of APs ever
+     * interned. When the ids are close together, as they are for APs loaded from the same radio map, the set also
+     * keeps a bitset over the range of words they span, which scores faster than merging ids.
+     */
+    static final class StrongAps {
+        static final StrongAps NONE = new StrongAps(null, 0);
+
+        final Compact compact;
+        final int minRSS;
+        final int[] ids;
+        final long[] bits;
+        final int firstWord;
+
+        StrongAps(Compact compact, int minRSS) {
+            this.compact = compact;
+            this.minRSS = minRSS;
+
+            int[] apIds = compact == null ? new int[0] : compact.apIds;
+            int[] strong = new int[apIds.length];
+            int strongCount = 0;
+            for (int i = 0; i < apIds.length; i++) {
+                if (compact.rss[i] > minRSS)
+                    strong[strongCount++] = apIds[i];
+            }
+            this.ids = strongCount < 3 ? apIds : Arrays.copyOf(strong, strongCount);
+
+            // The bitset is kept only if it is no longer than the ids
+            int words = ids.length == 0 ? 0 : (ids[ids.length - 1] >>> 6) - (ids[0] >>> 6) + 1;
+            this.firstWord = ids.length == 0 ? 0 : ids[0] >>> 6;
+            this.bits = words == 0 || words > ids.length ? null : new long[words];
+            if (bits != null) {
+                for (int id : ids) {
+                    bits[(id >>> 6) - firstWord] |= 1L << id;
+                }
+            }
+        }
+
+        /**
+         * Returns the number of strong APs.
+         */
+        int count() {
+            return ids.length;
+        }
+
+        /**
+         * Returns true if the AP with the given id is strong.
+         */
+        boolean contains(int apId) {
+            if (bits == null)
+                return Arrays.binarySearch(ids, apId) >= 0;
+            int word = (apId >>> 6) - firstWord;
+            return word >= 0 && word < bits.length && (bits[word] & 1L << apId) != 0;
+        }
+
+        /**
+         * Returns the number of APs that are strong in both sets.
+         */
+        static int common(StrongAps a, StrongAps b) {
+            long[] aBits = a.bits, bBits = b.bits;
+            if (aBits == null || bBits == null)
+                return commonSparse(a, b);
+
+            int aFirst = a.firstWord, bFirst = b.firstWord;
+            int to = Math.min(aFirst + aBits.length, bFirst + bBits.length);
+            int common = 0;
+            for (int word = Math.max(aFirst, bFirst); word < to; word++) {
+                common += Long.bitCount(aBits[word - aFirst] & bBits[word - bFirst]);
+            }
+            return common;
+        }
+
+        private static int commonSparse(StrongAps a, StrongAps b) {
+            if (a.bits != null || b.bits != null) {
+                StrongAps dense = a.bits != null ? a : b;
+                int common = 0;
+                for (int id : dense == a ? b.ids : a.ids) {
+                    if (dense.contains(id))
+                        common++;
+                }
+                return common;
+            }
+
+            int common = 0;
+            for (int i = 0, j = 0; i < a.ids.length && j < b.ids.length; ) {
+                if (a.ids[i] == b.ids[j]) {
+                    common++;
+                    i++;
+                    j++;
+                } else if (a.ids[i] < b.ids[j]) {
+                    i++;
+                } else {
+                    j++;
+                }
+            }
+            return common;
         }
-        return false;
     }
 }
 
@@ -61,23 +256,66 @@ public class Fingerprint {
  * Each signal is represented by a MAC address and its signal strength.
  */
 class WifiFingerprint {
-    public List<MacAndValue> macsAndValues = new ArrayList<>();
+    public List<MacAndValue> macsAndValues = new MacAndValueList();
+
+    /**
+     * Returns a number that changes whenever the given list is modified.
+     * Lists other than the default {@link MacAndValueList} are tracked by their size only.
+     *
+     * @param list The list of MAC addresses and values.
+     * @return The current modification version of the list.
+     */
+    static int version(List<MacAndValue> list) {
+        return list instanceof MacAndValueList ? ((MacAndValueList) list).version() : list.size();
+    }
+}
+
+/**
+ * A list of WiFi signals that counts its own modifications, so cached views of a fingerprint
+ * can tell when they are out of date.
+ */
+class MacAndValueList extends ArrayList<MacAndValue> {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public MacAndValue set(int index, MacAndValue element) {
+        modCount++;
+        return super.set(index, element);
+    }
+
+    int version() {
+        return modCount;
+    }
 }
 
 /**
  * Represents a WiFi signal with a MAC address and its signal strength.
+ * It is immutable, so the compact view of a fingerprint only has to watch its list for changes.
  */
 class MacAndValue {
-    public String mac;
-    public int signal;
+    /**
+     * The weakest signal strength a fingerprint can store.
+     */
+    public static final int MIN_SIGNAL = Byte.MIN_VALUE;
+
+    /**
+     * The strongest signal strength a fingerprint can store.
+     */
+    public static final int MAX_SIGNAL = Byte.MAX_VALUE;
+
+    public final String mac;
+    public final int signal;
 
     /**
      * Constructs a new MacAndValue object with the specified MAC address and signal strength.
      *
      * @param mac The MAC address of the WiFi signal.
-     * @param signal The signal strength of the WiFi signal.
+     * @param signal The signal strength of the WiFi signal, from {@link #MIN_SIGNAL} to {@link #MAX_SIGNAL}.
+     * @throws IllegalArgumentException If the signal strength is out of range.
      */
     public MacAndValue(String mac, int signal) {
+        if (signal < MIN_SIGNAL || signal > MAX_SIGNAL)
+            throw new IllegalArgumentException("Signal strength out of range for " + mac + ": " + signal);
         this.mac = mac;
         this.signal = signal;
     }
@@ -0,0 +1,158 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative long values, such as latencies in nanoseconds.
+ * Values are counted in log-linear buckets in the style of HdrHistogram: values below 128 are exact, and larger
+ * values are grouped into 64 buckets per power of two, so every recorded value is known to within about 1.6%.
+ * Recording is a single atomic increment, so many threads can record into the same histogram without locking.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+    private static final int BUCKET_COUNT = LINEAR_LIMIT + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     *
+     * @param value The value to record.
+     */
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        counts.incrementAndGet(bucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        if (value > max.get())
+            max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Returns the number of recorded values.
+     *
+     * @return The number of recorded values.
+     */
+    public long count() {
+        return count.get();
+    }
+
+    /**
+     * Returns the exact mean of the recorded values.
+     *
+     * @return The mean, or 0 if nothing was recorded.
+     */
+    public double mean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * Returns the exact largest recorded value.
+     *
+     * @return The maximum, or 0 if nothing was recorded.
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * Returns the value below or at which the given percentage of the recorded values fall.
+     * The result is the upper bound of the bucket holding that value, capped at the maximum.
+     *
+     * @param percentile The percentile, from 0 to 100.
+     * @return The value at the percentile, or 0 if nothing was recorded.
+     */
+    public long percentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return Math.min(highestValue(i), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * Clears all recorded values. Values recorded while resetting may be partly lost.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * Returns a one-line summary with the count, mean, common percentiles and maximum, with values divided by a unit.
+     *
+     * @param unit The divisor of every value, e.g. 1000 to show nanoseconds as microseconds.
+     * @return The summary.
+     */
+    public String summary(double unit) {
+        return String.format("count=%d mean=%.2f p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f max=%.2f",
+                count(), mean() / unit, percentile(50) / unit, percentile(90) / unit,
+                percentile(99) / unit, percentile(99.9) / unit, max() / unit);
+    }
+
+    /**
+     * Returns the distribution as text, one line per power of two that holds values, with the share of values in it.
+     *
+     * @param unit The divisor of every value, e.g. 1000 to show nanoseconds as microseconds.
+     * @return The distribution, one line per range.
+     */
+    public String distribution(double unit) {
+        long total = count();
+        StringBuilder text = new StringBuilder();
+        long rangeCount = 0;
+        long rangeStart = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            rangeCount += counts.get(i);
+            boolean endOfRange = i == BUCKET_COUNT - 1 || Long.numberOfLeadingZeros(lowestValue(i + 1)) != Long.numberOfLeadingZeros(lowestValue(i));
+            if (endOfRange) {
+                if (rangeCount > 0) {
+                    int bar = (int) Math.round(40.0 * rangeCount / total);
+                    text.append(String.format("%12.2f - %12.2f %8d %6.2f%% %s%n", rangeStart / unit, highestValue(i) / unit,
+                            rangeCount, 100.0 * rangeCount / total, "#".repeat(bar)));
+                }
+                rangeCount = 0;
+                if (i + 1 < BUCKET_COUNT)
+                    rangeStart = lowestValue(i + 1);
+            }
+        }
+        return text.toString();
+    }
+
+    private static int bucket(long value) {
+        if (value < LINEAR_LIMIT)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    private static long lowestValue(int bucket) {
+        if (bucket < LINEAR_LIMIT)
+            return bucket;
+        int shift = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+        return (long) ((bucket - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS) << shift;
+    }
+
+    private static long highestValue(int bucket) {
+        return bucket == BUCKET_COUNT - 1 ? Long.MAX_VALUE : lowestValue(bucket + 1) - 1;
+    }
+}
@@ -0,0 +1,182 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Evaluates the Locator on a radio map with leave-one-out: every fingerprint in turn is located using all the other
+ * fingerprints, and the distance between its known center and the calculated location is its error.
+ * The radio map is loaded and indexed once, and each fingerprint is left out through the index instead of
+ * copying the list, so the fingerprints can be evaluated in parallel.
+ */
+public class LeaveOneOutEvaluator {
+    private final RadioMapIndex index;
+    private final Locator locator;
+
+    /**
+     * Creates an evaluator for a radio map.
+     *
+     * @param radioMap The fingerprints of the radio map.
+     */
+    public LeaveOneOutEvaluator(List<Fingerprint> radioMap) {
+        this(radioMap, new Locator());
+    }
+
+    /**
+     * Creates an evaluator for a radio map that uses a configured Locator, e.g. with a maximum number of neighbours.
+     *
+     * @param radioMap The fingerprints of the radio map.
+     * @param locator The Locator to evaluate.
+     */
+    public LeaveOneOutEvaluator(List<Fingerprint> radioMap, Locator locator) {
+        this.index = new RadioMapIndex(radioMap);
+        this.locator = locator;
+    }
+
+    /**
+     * The outcome of a leave-one-out run.
+     */
+    public static class Report {
+        /** The error of every fingerprint in radio map order, or NaN if no location could be calculated. */
+        public final double[] errors;
+        /** The time taken to locate each fingerprint, in nanoseconds. */
+        public final LatencyHistogram latencies;
+        /** The wall-clock time of the whole run, in nanoseconds. */
+        public final long elapsedNanos;
+
+        private final double[] sortedErrors;
+
+        Report(double[] errors, LatencyHistogram latencies, long elapsedNanos) {
+            this.errors = errors;
+            this.latencies = latencies;
+            this.elapsedNanos = elapsedNanos;
+            this.sortedErrors = Arrays.stream(errors).filter(error -> !Double.isNaN(error)).sorted().toArray();
+        }
+
+        /**
+         * Returns the number of fingerprints for which no location could be calculated.
+         *
+         * @return The number of failed fingerprints.
+         */
+        public int failures() {
+            return errors.length - sortedErrors.length;
+        }
+
+        /**
+         * Returns the mean error of the located fingerprints.
+         *
+         * @return The mean error, or NaN if no fingerprint was located.
+         */
+        public double meanError() {
+            return Arrays.stream(sortedErrors).average().orElse(Double.NaN);
+        }
+
+        /**
+         * Returns the error below or at which the given percentage of the located fingerprints fall.
+         *
+         * @param percentile The percentile, from 0 to 100.
+         * @return The error at the percentile, or NaN if no fingerprint was located.
+         */
+        public double errorPercentile(double percentile) {
+            if (sortedErrors.length == 0)
+                return Double.NaN;
+            int rank = (int) Math.ceil(percentile / 100 * sortedErrors.length);
+            return sortedErrors[Math.max(0, rank - 1)];
+        }
+
+        /**
+         * Returns the number of fingerprints located per second.
+         *
+         * @return The throughput of the run.
+         */
+        public double throughput() {
+            return errors.length / (elapsedNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Fingerprints: %d (%d without location)%n", errors.length, failures())
+                    + String.format("Error:       mean=%.3f p50=%.3f p90=%.3f p99=%.3f max=%.3f%n", meanError(),
+                    errorPercentile(50), errorPercentile(90), errorPercentile(99), errorPercentile(100))
+                    + String.format("Throughput:  %.0f locations/s in %.1f ms%n", throughput(), elapsedNanos / 1e6)
+                    + "Latency us:  " + latencies.summary(1000) + System.lineSeparator()
+                    + latencies.distribution(1000);
+        }
+    }
+
+    /**
+     * Runs leave-one-out over every fingerprint of the radio map.
+     *
+     * @param parallelism The number of threads to use; 1 runs on the calling thread, and others share the pool of
+     *                    the Locator's batch calls with the same parallelism.
+     * @return The report of the run.
+     */
+    public Report evaluate(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+
+        double[] errors = new double[index.size()];
+        LatencyHistogram latencies = new LatencyHistogram();
+
+        long start = System.nanoTime();
+        if (parallelism == 1) {
+            for (int i = 0; i < errors.length; i++) {
+                errors[i] = evaluate(i, latencies);
+            }
+        } else {
+            Locator.batchPool(parallelism).submit(() -> IntStream.range(0, errors.length).parallel()
+                    .forEach(i -> errors[i] = evaluate(i, latencies))).join();
+        }
+        return new Report(errors, latencies, System.nanoTime() - start);
+    }
+
+    /**
+     * Locates the fingerprint at the given position without it and returns the distance to its known center.
+     */
+    private double evaluate(int fingerprintIndex, LatencyHistogram latencies) {
+        Fingerprint fingerprint = index.get(fingerprintIndex);
+
+        long start = System.nanoTime();
+        PointF point = locator.getLocation(index, fingerprint, fingerprintIndex, LocatorContext.current(), new PointF());
+        latencies.record(System.nanoTime() - start);
+
+        return Main.calculateDistance(point.getX(), point.getY(), fingerprint.center.x, fingerprint.center.y);
+    }
+
+    /**
+     * Prints a leave-one-out report for a radio map, followed by the accuracy of the bounded K nearest neighbour mode
+     * for several values of K, to help choose K.
+     *
+     * @param args The radio map JSON file (radio_map.json by default) and the parallelism (all processors by default).
+     * @throws IOException If the radio map cannot be loaded.
+     */
+    public static void main(String[] args) throws IOException {
+        String jsonFilePath = args.length > 0 ? args[0] : "radio_map.json";
+        int parallelism = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        long start = System.nanoTime();
+        List<Fingerprint> radioMap = RadioMapLoader.load(Paths.get(jsonFilePath));
+        LeaveOneOutEvaluator evaluator = new LeaveOneOutEvaluator(radioMap);
+        System.out.printf("Loaded and indexed %s in %.1f ms%n", jsonFilePath, (System.nanoTime() - start) / 1e6);
+
+        Report all = evaluator.evaluate(parallelism);
+        System.out.print(all);
+
+        System.out.printf("%n%8s %10s %10s %10s %10s %10s %12s%n", "K", "mean", "p50", "p90", "p99", "changed", "latency us");
+        for (int k : new int[]{0, 1, 2, 3, 4, 5, 8, 12, 16}) {
+            Locator locator = new Locator();
+            locator.setMaxNeighbours(k);
+            Report report = new LeaveOneOutEvaluator(radioMap, locator).evaluate(parallelism);
+
+            // The number of fingerprints whose location differs from the whole-bucket weighting
+            int changed = 0;
+            for (int i = 0; i < report.errors.length; i++) {
+                if (Double.compare(report.errors[i], all.errors[i]) != 0)
+                    changed++;
+            }
+            System.out.printf("%8s %10.3f %10.3f %10.3f %10.3f %10d %12.2f%n", k == 0 ? "bucket" : String.valueOf(k), report.meanError(),
+                    report.errorPercentile(50), report.errorPercentile(90), report.errorPercentile(99), changed, report.latencies.mean() / 1000);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A closed-loop load test for the {@link LocalizationServer}: a number of clients each send a scan, wait for the
+ * location and send the next one, for a fixed duration. The scans are the fingerprints of a radio map file.
+ * Reports the sustained throughput and the latency distribution seen by the clients.
+ *
+ * <p>Each client keeps one HTTP/1.1 connection open and writes its requests directly to the socket. A general
+ * HTTP client costs several times more CPU per request than the server itself, and on a small machine running
+ * both it would measure mostly the client.
+ */
+public class LoadTestClient {
+
+    /**
+     * Runs a load test against a server, or against an embedded server if no URL is given.
+     *
+     * @param args The scans JSON file (training.json by default), the number of concurrent clients (16 by default),
+     *             the duration in seconds (10 by default), and the URL of the /locate endpoint. Without a URL, a server
+     *             for radio_map.json is started in this process.
+     * @throws Exception If the scans cannot be loaded or the server cannot be started.
+     */
+    public static void main(String[] args) throws Exception {
+        LocalizationServer.enableNoDelay();
+        String scansFilePath = args.length > 0 ? args[0] : "training.json";
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        LocalizationServer embedded = null;
+        URI uri;
+        if (args.length > 3) {
+            uri = URI.create(args[3]);
+        } else {
+            embedded = new LocalizationServer(RadioMapLoader.load(Paths.get("radio_map.json")), new Locator(),
+                    new InetSocketAddress("localhost", 0), 200, 64);
+            embedded.start();
+            uri = URI.create("http://localhost:" + embedded.getAddress().getPort() + "/locate");
+        }
+
+        List<String> bodies = new ArrayList<>();
+        for (Fingerprint fingerprint : RadioMapLoader.load(Paths.get(scansFilePath))) {
+            bodies.add(toJson(fingerprint));
+        }
+
+        LatencyHistogram latencies = new LatencyHistogram();
+        AtomicLong errors = new AtomicLong();
+
+        // Warm up the server and the client before measuring
+        run(uri, bodies, clients, TimeUnit.SECONDS.toNanos(Math.max(1, seconds / 5)), new LatencyHistogram(), new AtomicLong());
+        if (embedded != null) {
+            embedded.latencies().reset();
+            embedded.batchSizes().reset();
+        }
+
+        long start = System.nanoTime();
+        run(uri, bodies, clients, TimeUnit.SECONDS.toNanos(seconds), latencies, errors);
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("%d clients against %s for %.1f s%n", clients, uri, elapsed / 1e9);
+        System.out.printf("Requests:   %d (%d errors), %.0f requests/s%n", latencies.count(), errors.get(), latencies.count() / (elapsed / 1e9));
+        System.out.println("Latency us: " + latencies.summary(1000));
+        System.out.print(latencies.distribution(1000));
+        if (embedded != null) {
+            System.out.println("Server us:  " + embedded.latencies().summary(1000));
+            System.out.println("Batch size: " + embedded.batchSizes().summary(1));
+            embedded.stop();
+        }
+    }
+
+    private static void run(URI uri, List<String> bodies, int clients, long durationNanos,
+                            LatencyHistogram latencies, AtomicLong errors) throws InterruptedException {
+        long deadline = System.nanoTime() + durationNanos;
+        ExecutorService executor = LocalizationServer.newThreadPerTaskExecutor();
+        for (int c = 0; c < clients; c++) {
+            int first = c;
+            executor.execute(() -> {
+                int i = first;
+                while (System.nanoTime() < deadline) {
+                    try (Socket socket = new Socket(uri.getHost(), uri.getPort() < 0 ? 80 : uri.getPort())) {
+                        socket.setTcpNoDelay(true);
+                        OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+                        InputStream in = new BufferedInputStream(socket.getInputStream());
+                        for (; System.nanoTime() < deadline; i += clients) {
+                            byte[] body = bodies.get(i % bodies.size()).getBytes(StandardCharsets.UTF_8);
+                            long start = System.nanoTime();
+                            out.write(("POST " + uri.getRawPath() + " HTTP/1.1\r\nHost: " + uri.getHost()
+                                    + "\r\nContent-Type: application/json\r\nContent-Length: " + body.length + "\r\n\r\n")
+                                    .getBytes(StandardCharsets.US_ASCII));
+                            out.write(body);
+                            out.flush();
+                            if (readResponse(in) == 200) {
+                                latencies.record(System.nanoTime() - start);
+                            } else {
+                                errors.incrementAndGet();
+                            }
+                        }
+                    } catch (IOException e) {
+                        // Count the failure and reconnect
+                        errors.incrementAndGet();
+                        i += clients;
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(durationNanos + TimeUnit.SECONDS.toNanos(30), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Reads an HTTP/1.1 response with a Content-Length and returns its status code.
+     */
+    private static int readResponse(InputStream in) throws IOException {
+        String statusLine = readLine(in);
+        int status = Integer.parseInt(statusLine.split(" ")[1]);
+        int contentLength = 0;
+        for (String header = readLine(in); !header.isEmpty(); header = readLine(in)) {
+            int colon = header.indexOf(':');
+            if (colon > 0 && header.substring(0, colon).trim().equalsIgnoreCase("Content-Length"))
+                contentLength = Integer.parseInt(header.substring(colon + 1).trim());
+        }
+        if (in.readNBytes(contentLength).length != contentLength)
+            throw new EOFException("Connection closed in the middle of a response");
+        return status;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int c = in.read(); c != '\n'; c = in.read()) {
+            if (c == -1)
+                throw new EOFException("Connection closed");
+            if (c != '\r')
+                line.append((char) c);
+        }
+        return line.toString();
+    }
+
+    /**
+     * Writes the signals of a fingerprint as a scan in the mWiFiFingerprint shape.
+     */
+    static String toJson(Fingerprint fingerprint) {
+        StringBuilder json = new StringBuilder("{\"mWiFiFingerprint\": {");
+        List<MacAndValue> macsAndValues = fingerprint.instance.macsAndValues;
+        for (int i = 0; i < macsAndValues.size(); i++) {
+            if (i > 0)
+                json.append(", ");
+            json.append('"').append(macsAndValues.get(i).mac.replace("\\", "\\\\").replace("\"", "\\\""))
+                    .append("\": ").append(macsAndValues.get(i).signal);
+        }
+        return json.append("}}").toString();
+    }
+}
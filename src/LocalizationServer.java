@@ -0,0 +1,496 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * A long-running HTTP localization service built on the Locator and the JDK's built-in HTTP server.
+ * The radio map is indexed once per version: given a {@link RadioMapReloader}, the server picks up a new version of
+ * the radio map file without stopping. Every request is handled on its own virtual thread when the JDK has
+ * them, and on a cached thread pool otherwise.
+ *
+ * <p>Requests are not located on their handler threads. They are queued for a single batcher thread, which collects
+ * the requests arriving within a short window and locates them together with
+ * {@link Locator#getLocations(RadioMapIndex, List, ForkJoinPool)}, so under load the index is shared by whole
+ * batches spread over all processors instead of by threads competing for them. With a {@link LocationCache}, a
+ * scan whose location is cached for the current snapshot is answered on its handler thread without being queued.
+ * If a batch fails, its scans are located again one at a time, so a scan the Locator cannot handle only fails its own
+ * request.
+ *
+ * <p>Scans are limited to {@link #MAX_SCAN_BYTES}, at most {@link #queueCapacity(int)} scans wait for the batcher, and
+ * a scan that is not located within the request timeout is answered with 503, like a scan that finds the queue full.
+ *
+ * <p>The JDK's HTTP server only disables Nagle's algorithm when the JVM is launched with
+ * {@code -Dsun.net.httpserver.nodelay=true}; without it, small responses wait for the client's delayed ACK, about
+ * 40 ms, before they are sent. {@link #main} sets the property itself; servers embedded elsewhere should be launched
+ * with the flag.
+ *
+ * <p>Endpoints:
+ * <ul>
+ *     <li>POST /locate with a scan, e.g. {"mWiFiFingerprint": {"20:bb:c0:1d:c3:40": -83, ...}}, returns
+ *     {"x": 12.5, "y": 30.1}, or {"x": null, "y": null} if the scan has no neighbour in the radio map.</li>
+ *     <li>GET /stats returns the request latency and batch size distributions as text, followed by the cache's
+ *     counters and the Locator's metrics if there are any.</li>
+ * </ul>
+ */
+public class LocalizationServer {
+    /**
+     * The largest request body accepted, in bytes; a scan of a few hundred APs takes a few KB.
+     */
+    static final int MAX_SCAN_BYTES = 64 * 1024;
+
+    private final Supplier<RadioMapSnapshot> radioMap;
+    private final Locator locator;
+    private final long batchWindowNanos;
+    private final int maxBatchSize;
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final ForkJoinPool pool;
+    private final Thread batcher;
+    private final BlockingQueue<Request> queue;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final LatencyHistogram batchSizes = new LatencyHistogram();
+    private volatile LocationCache cache;
+    private volatile long requestTimeoutNanos = TimeUnit.SECONDS.toNanos(5);
+    private volatile boolean stopped;
+
+    /**
+     * A scan waiting for the batcher, and the location it will be completed with.
+     */
+    private static class Request {
+        final Fingerprint fingerprint;
+        final CompletableFuture<PointF> location = new CompletableFuture<>();
+
+        Request(Fingerprint fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    /**
+     * Creates a server for a radio map. The server does not accept requests until it is started.
+     *
+     * @param radioMap The fingerprints of the radio map.
+     * @param locator The Locator used to calculate locations.
+     * @param address The address to listen on; port 0 picks a free port.
+     * @param batchWindowMicros How long the batcher waits for more requests after the first one, in microseconds.
+     * @param maxBatchSize The maximum number of requests located together.
+     * @throws IOException If the address cannot be bound.
+     */
+    public LocalizationServer(List<Fingerprint> radioMap, Locator locator, InetSocketAddress address,
+                              long batchWindowMicros, int maxBatchSize) throws IOException {
+        this(fixed(new RadioMapSnapshot(radioMap, 1, null)), locator, address, batchWindowMicros, maxBatchSize);
+    }
+
+    /**
+     * Creates a server that always locates against the current snapshot of a reloader, so a new version of the
+     * radio map is picked up by the next batch without stopping the server.
+     *
+     * @param reloader The reloader of the radio map; it is not started or closed by the server.
+     * @param locator The Locator used to calculate locations.
+     * @param address The address to listen on; port 0 picks a free port.
+     * @param batchWindowMicros How long the batcher waits for more requests after the first one, in microseconds.
+     * @param maxBatchSize The maximum number of requests located together.
+     * @throws IOException If the address cannot be bound.
+     */
+    public LocalizationServer(RadioMapReloader reloader, Locator locator, InetSocketAddress address,
+                              long batchWindowMicros, int maxBatchSize) throws IOException {
+        this(reloader::current, locator, address, batchWindowMicros, maxBatchSize);
+    }
+
+    private LocalizationServer(Supplier<RadioMapSnapshot> radioMap, Locator locator, InetSocketAddress address,
+                               long batchWindowMicros, int maxBatchSize) throws IOException {
+        if (batchWindowMicros < 0)
+            throw new IllegalArgumentException("Batch window must not be negative: " + batchWindowMicros);
+        if (maxBatchSize < 1)
+            throw new IllegalArgumentException("Maximum batch size must be positive: " + maxBatchSize);
+
+        this.radioMap = radioMap;
+        this.locator = locator;
+        this.batchWindowNanos = TimeUnit.MICROSECONDS.toNanos(batchWindowMicros);
+        this.maxBatchSize = maxBatchSize;
+        this.queue = new LinkedBlockingQueue<>(queueCapacity(maxBatchSize));
+        this.handlers = newThreadPerTaskExecutor();
+        this.pool = Runtime.getRuntime().availableProcessors() > 1 ? new ForkJoinPool() : null;
+        this.batcher = new Thread(this::runBatcher, "localization-batcher");
+        this.batcher.setDaemon(true);
+
+        this.server = HttpServer.create(address, 1024);
+        this.server.setExecutor(handlers);
+        this.server.createContext("/locate", this::handleLocate);
+        this.server.createContext("/stats", this::handleStats);
+    }
+
+    private static Supplier<RadioMapSnapshot> fixed(RadioMapSnapshot snapshot) {
+        return () -> snapshot;
+    }
+
+    /**
+     * Returns the number of scans that may wait for the batcher: enough for 16 full batches, and at least 1024.
+     */
+    static int queueCapacity(int maxBatchSize) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(1024L, 16L * maxBatchSize));
+    }
+
+    /**
+     * Sets how long a request waits for its location before it is answered with 503.
+     *
+     * @param timeout The timeout; 5 seconds by default.
+     * @param unit The unit of the timeout.
+     */
+    public void setRequestTimeout(long timeout, TimeUnit unit) {
+        if (timeout <= 0)
+            throw new IllegalArgumentException("Request timeout must be positive: " + timeout);
+        this.requestTimeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Caches the located scans, so repeated scans are answered without locating them again.
+     *
+     * @param cache The cache, or null to locate every scan.
+     */
+    public void setLocationCache(LocationCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Returns the cache of located scans.
+     *
+     * @return The cache, or null if every scan is located.
+     */
+    public LocationCache getLocationCache() {
+        return cache;
+    }
+
+    /**
+     * Returns an executor that starts a virtual thread per task when the JDK supports them (Java 21 and later),
+     * and a cached pool of platform threads otherwise.
+     */
+    static ExecutorService newThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Starts accepting requests.
+     */
+    public void start() {
+        batcher.start();
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests and releases all threads. Requests still waiting are failed, and scans that arrive
+     * on handlers still running are refused with 503.
+     */
+    public void stop() {
+        // Refuse new scans before draining the queue, so none is queued after the drain and waits for its timeout
+        stopped = true;
+        server.stop(0);
+        batcher.interrupt();
+        handlers.shutdownNow();
+        if (pool != null)
+            pool.shutdown();
+        for (Request request; (request = queue.poll()) != null; ) {
+            request.location.completeExceptionally(new IllegalStateException("Server stopped"));
+        }
+    }
+
+    /**
+     * Returns the address the server listens on, e.g. to find the port picked for port 0.
+     *
+     * @return The bound address.
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Returns the time from receiving each scan to having its location, in nanoseconds.
+     *
+     * @return The latency histogram of the located scans.
+     */
+    public LatencyHistogram latencies() {
+        return latencies;
+    }
+
+    /**
+     * Returns the number of scans located together in each batch.
+     *
+     * @return The batch size histogram.
+     */
+    public LatencyHistogram batchSizes() {
+        return batchSizes;
+    }
+
+    private void runBatcher() {
+        List<Request> batch = new ArrayList<>(maxBatchSize);
+        List<Fingerprint> fingerprints = new ArrayList<>(maxBatchSize);
+        try {
+            while (true) {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + batchWindowNanos;
+                while (batch.size() < maxBatchSize) {
+                    long wait = deadline - System.nanoTime();
+                    Request request = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (request == null)
+                        break;
+                    batch.add(request);
+                }
+
+                // Requests that timed out meanwhile have already been answered
+                batch.removeIf(request -> request.location.isDone());
+                for (Request request : batch) {
+                    fingerprints.add(request.fingerprint);
+                }
+                if (!batch.isEmpty()) {
+                    locate(batch, fingerprints);
+                    batchSizes.record(batch.size());
+                }
+                batch.clear();
+                fingerprints.clear();
+            }
+        } catch (InterruptedException e) {
+            for (Request request : batch) {
+                request.location.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Locates a batch against one snapshot, even if a newer one is published meanwhile. If the batch fails, its
+     * requests are located one at a time, so only the requests that fail on their own are failed.
+     */
+    private void locate(List<Request> batch, List<Fingerprint> fingerprints) {
+        RadioMapSnapshot snapshot;
+        List<PointF> locations;
+        try {
+            snapshot = radioMap.get();
+            locations = locator.getLocations(snapshot.index(), fingerprints, pool);
+        } catch (RuntimeException e) {
+            if (batch.size() == 1) {
+                batch.get(0).location.completeExceptionally(e);
+                return;
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                locate(batch.subList(i, i + 1), fingerprints.subList(i, i + 1));
+            }
+            return;
+        }
+
+        LocationCache cache = this.cache;
+        for (int i = 0; i < batch.size(); i++) {
+            try {
+                if (cache != null)
+                    cache.put(snapshot, fingerprints.get(i), locations.get(i));
+            } finally {
+                batch.get(i).location.complete(locations.get(i));
+            }
+        }
+    }
+
+    private void handleLocate(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                send(exchange, 405, "text/plain", "Use POST");
+                return;
+            }
+
+            long start = System.nanoTime();
+            Fingerprint scan;
+            try (Reader reader = new InputStreamReader(new LimitedInputStream(exchange.getRequestBody(), MAX_SCAN_BYTES),
+                    StandardCharsets.UTF_8)) {
+                scan = RadioMapLoader.loadScan(reader, false);
+            } catch (ScanTooLargeException e) {
+                send(exchange, 413, "text/plain", e.getMessage());
+                return;
+            } catch (IOException | IllegalArgumentException e) {
+                send(exchange, 400, "text/plain", "Invalid scan: " + e.getMessage());
+                return;
+            }
+
+            PointF location;
+            Request request = null;
+            try {
+                LocationCache cache = this.cache;
+                location = cache == null ? null : cache.get(radioMap.get(), scan);
+                if (location == null) {
+                    if (stopped) {
+                        send(exchange, 503, "text/plain", "Server stopping");
+                        return;
+                    }
+                    request = new Request(scan);
+                    if (!queue.offer(request)) {
+                        exchange.getResponseHeaders().set("Retry-After", "1");
+                        send(exchange, 503, "text/plain", "Too many scans waiting");
+                        return;
+                    }
+                    // stop() may have drained the queue between the check and the offer
+                    if (stopped && queue.remove(request)) {
+                        send(exchange, 503, "text/plain", "Server stopping");
+                        return;
+                    }
+                    location = request.location.get(requestTimeoutNanos, TimeUnit.NANOSECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                send(exchange, 503, "text/plain", "Server stopping");
+                return;
+            } catch (TimeoutException e) {
+                // Completing the request first makes the batcher skip it if it is still queued
+                request.location.cancel(false);
+                send(exchange, 503, "text/plain", "Localization timed out");
+                return;
+            } catch (ExecutionException e) {
+                if (stopped)
+                    send(exchange, 503, "text/plain", "Server stopping");
+                else
+                    send(exchange, 500, "text/plain", "Localization failed: " + e.getCause());
+                return;
+            } catch (RuntimeException e) {
+                send(exchange, 500, "text/plain", "Localization failed: " + e);
+                return;
+            }
+            latencies.record(System.nanoTime() - start);
+
+            send(exchange, 200, "application/json", String.format(Locale.ROOT, "{\"x\": %s, \"y\": %s}",
+                    toJson(location.getX()), toJson(location.getY())));
+        }
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            send(exchange, 200, "text/plain", "Latency us: " + latencies.summary(1000) + System.lineSeparator()
+                    + latencies.distribution(1000)
+                    + "Batch size: " + batchSizes.summary(1) + System.lineSeparator()
+                    + (cache == null ? "" : "Cache: " + cache.summary() + System.lineSeparator())
+                    + (locator.getMetrics() == null ? "" : locator.getMetrics().dump()));
+        }
+    }
+
+    /**
+     * Thrown when a request body is larger than a scan may be.
+     */
+    private static class ScanTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ScanTooLargeException(int limit) {
+            super("Scans are limited to " + limit + " bytes");
+        }
+    }
+
+    /**
+     * An input stream that fails with a ScanTooLargeException once more than a limit of bytes has been read, whatever
+     * the Content-Length of the request claims.
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+        private final int limit;
+        private long count;
+
+        LimitedInputStream(InputStream in, int limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                counted(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0)
+                counted(read);
+            return read;
+        }
+
+        private void counted(int read) throws ScanTooLargeException {
+            count += read;
+            if (count > limit)
+                throw new ScanTooLargeException(limit);
+        }
+    }
+
+    private static String toJson(double value) {
+        return Double.isNaN(value) || Double.isInfinite(value) ? "null" : Double.toString(value);
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Sets {@code sun.net.httpserver.nodelay} unless it was given on the command line. It only takes effect if no
+     * HttpServer was created before, so call it first thing in a main method.
+     */
+    static void enableNoDelay() {
+        if (System.getProperty("sun.net.httpserver.nodelay") == null)
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    /**
+     * Runs the localization service until the process is stopped, reloading the radio map whenever its file changes.
+     *
+     * @param args The radio map JSON file (radio_map.json by default), the port (8080 by default),
+     *             the batch window in microseconds (200 by default), the maximum batch size (64 by default), and
+     *             the signal bucket width of a {@link LocationCache} of 10000 scans in dB (0, no cache, by default).
+     * @throws IOException If the radio map cannot be loaded or the port cannot be bound.
+     */
+    public static void main(String[] args) throws IOException {
+        enableNoDelay();
+        String jsonFilePath = args.length > 0 ? args[0] : "radio_map.json";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+        long batchWindowMicros = args.length > 2 ? Long.parseLong(args[2]) : 200;
+        int maxBatchSize = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+        int cacheQuantizationDb = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+
+        RadioMapReloader reloader = new RadioMapReloader(Paths.get(jsonFilePath), 500);
+        reloader.addListener(snapshot -> System.out.printf("Reloaded version %d with %d fingerprints%n",
+                snapshot.version(), snapshot.size()));
+        reloader.start();
+        LocalizationServer server = new LocalizationServer(reloader, new Locator(), new InetSocketAddress(port),
+                batchWindowMicros, maxBatchSize);
+        if (cacheQuantizationDb > 0)
+            server.setLocationCache(new LocationCache(10_000, 10, TimeUnit.MINUTES, cacheQuantizationDb));
+        server.start();
+        System.out.printf("Locating against %d fingerprints of %s on http://localhost:%d/locate%n",
+                reloader.current().size(), jsonFilePath, server.getAddress().getPort());
+    }
+}
@@ -0,0 +1,408 @@
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * A bounded, concurrent cache of locations in front of the {@link Locator}, for devices that send nearly the same
+ * scan over and over, such as stationary devices and kiosks.
+ *
+ * <p>Scans are keyed by their signature: their APs in ascending AP id order, so the order of the MAC addresses does
+ * not matter, each with its signal rounded down to a bucket of a configurable number of dB. Scans that fall into the
+ * same buckets share a location, so buckets wider than 1 dB trade accuracy for hits: the location of the first of
+ * them is returned for all of them.
+ *
+ * <p>The cache is split into segments by signature hash, each a small LRU map behind its own lock, so concurrent
+ * lookups rarely wait for each other; the least recently used entry of a full segment is evicted, which
+ * approximates LRU over the whole cache. Entries also expire a fixed time after they were added. Every entry
+ * belongs to the {@link RadioMapSnapshot} it was calculated on, and is only returned for that snapshot: as soon as
+ * another snapshot of the same or a newer version is seen, the whole cache is cleared, so a reloaded radio map never
+ * serves stale locations.
+ */
+public class LocationCache {
+    private final int quantizationDb;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+    private final Segment[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private volatile RadioMapSnapshot snapshot;
+
+    /**
+     * The key of a scan: its AP ids and quantized signals in ascending AP id order.
+     */
+    static final class Signature {
+        private final int[] codes;
+        private final int hash;
+
+        Signature(Fingerprint fingerprint, int quantizationDb) {
+            int[] apIds = fingerprint.apIds();
+            byte[] rss = fingerprint.rss();
+            codes = new int[apIds.length * 2];
+            for (int i = 0; i < apIds.length; i++) {
+                codes[2 * i] = apIds[i];
+                codes[2 * i + 1] = Math.floorDiv(rss[i], quantizationDb);
+            }
+            // Spread the hash, since its low bits choose the segment and the map's bucket
+            int h = Arrays.hashCode(codes) * 0x9E3779B9;
+            hash = h ^ h >>> 16;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Signature && ((Signature) o).hash == hash && Arrays.equals(((Signature) o).codes, codes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+        final RadioMapSnapshot snapshot;
+        final double x, y;
+        final long expiresAtNanos;
+
+        Entry(RadioMapSnapshot snapshot, PointF location, long expiresAtNanos) {
+            this.snapshot = snapshot;
+            this.x = location.getX();
+            this.y = location.getY();
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+
+    /**
+     * One LRU map of the cache. It is only accessed while holding the segment's lock.
+     */
+    private final class Segment {
+        final Map<Signature, Entry> entries;
+
+        Segment(int capacity) {
+            entries = new LinkedHashMap<Signature, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Signature, Entry> eldest) {
+                    if (size() <= capacity)
+                        return false;
+                    evictions.increment();
+                    return true;
+                }
+            };
+        }
+    }
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param maxEntries The maximum number of cached locations.
+     * @param ttl How long a location stays cached after it was added, or 0 to keep it until it is evicted.
+     * @param unit The unit of ttl.
+     * @param quantizationDb The width of the signal buckets of the signatures in dB; 1 only shares locations between
+     *                       identical scans.
+     */
+    public LocationCache(int maxEntries, long ttl, TimeUnit unit, int quantizationDb) {
+        this(maxEntries, ttl, unit, quantizationDb, System::nanoTime);
+    }
+
+    LocationCache(int maxEntries, long ttl, TimeUnit unit, int quantizationDb, LongSupplier clock) {
+        if (maxEntries < 1)
+            throw new IllegalArgumentException("Maximum number of entries must be positive: " + maxEntries);
+        if (ttl < 0)
+            throw new IllegalArgumentException("Time to live must not be negative: " + ttl);
+        if (quantizationDb < 1)
+            throw new IllegalArgumentException("Quantization must be at least 1 dB: " + quantizationDb);
+        this.quantizationDb = quantizationDb;
+        this.ttlNanos = ttl == 0 ? Long.MAX_VALUE : unit.toNanos(ttl);
+        this.clock = clock;
+
+        // A power of two of about four segments per processor, with the entries spread evenly over them
+        int segmentCount = Integer.highestOneBit(Math.min(maxEntries, 4 * Runtime.getRuntime().availableProcessors()));
+        this.segments = new Segment[segmentCount];
+        for (int s = 0; s < segmentCount; s++) {
+            segments[s] = new Segment(maxEntries / segmentCount + (s < maxEntries % segmentCount ? 1 : 0));
+        }
+    }
+
+    /**
+     * Returns the location of a scan from the cache, or calculates and caches it. Concurrent misses of the same
+     * signature are all calculated; the last one is kept.
+     *
+     * @param locator The Locator used to calculate the location on a miss.
+     * @param snapshot The radio map to locate against.
+     * @param fingerprint The scan.
+     * @return The location, which the caller may change.
+     */
+    public PointF getLocation(Locator locator, RadioMapSnapshot snapshot, Fingerprint fingerprint) {
+        Signature signature = new Signature(fingerprint, quantizationDb);
+        PointF location = get(snapshot, signature);
+        if (location == null) {
+            location = snapshot.getLocation(locator, fingerprint);
+            put(snapshot, signature, location);
+        }
+        return location;
+    }
+
+    /**
+     * Returns the cached location of a scan.
+     *
+     * @param snapshot The radio map the location must have been calculated on.
+     * @param fingerprint The scan.
+     * @return A copy of the location, or null on a miss.
+     */
+    public PointF get(RadioMapSnapshot snapshot, Fingerprint fingerprint) {
+        return get(snapshot, new Signature(fingerprint, quantizationDb));
+    }
+
+    /**
+     * Caches the location of a scan. A location calculated on a snapshot of an older version than the current one is
+     * dropped.
+     *
+     * @param snapshot The radio map the location was calculated on.
+     * @param fingerprint The scan.
+     * @param location The location; it is copied.
+     */
+    public void put(RadioMapSnapshot snapshot, Fingerprint fingerprint, PointF location) {
+        put(snapshot, new Signature(fingerprint, quantizationDb), location);
+    }
+
+    private PointF get(RadioMapSnapshot snapshot, Signature signature) {
+        observe(snapshot);
+        Segment segment = segmentOf(signature);
+        Entry entry;
+        synchronized (segment) {
+            entry = segment.entries.get(signature);
+            if (entry != null && clock.getAsLong() - entry.expiresAtNanos >= 0) {
+                segment.entries.remove(signature);
+                expirations.increment();
+                entry = null;
+            }
+        }
+        if (entry == null || entry.snapshot != snapshot) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        PointF location = new PointF();
+        location.set(entry.x, entry.y);
+        return location;
+    }
+
+    private void put(RadioMapSnapshot snapshot, Signature signature, PointF location) {
+        if (!observe(snapshot))
+            return;
+        long now = clock.getAsLong();
+        Entry entry = new Entry(snapshot, location, ttlNanos == Long.MAX_VALUE ? Long.MAX_VALUE : now + ttlNanos);
+        Segment segment = segmentOf(signature);
+        synchronized (segment) {
+            segment.entries.put(signature, entry);
+        }
+    }
+
+    /**
+     * Clears the cache when a snapshot other than the last one is seen, and tells whether the snapshot is current.
+     * Snapshots are told apart by identity, since two snapshots loaded independently can have the same version;
+     * only a snapshot older than the current one is ignored, so a location calculated just before a reload does not
+     * clear the locations of the new radio map.
+     */
+    private boolean observe(RadioMapSnapshot snapshot) {
+        RadioMapSnapshot current = this.snapshot;
+        if (snapshot == current)
+            return true;
+        synchronized (this) {
+            current = this.snapshot;
+            if (snapshot == current)
+                return true;
+            if (current != null && snapshot.version() < current.version())
+                return false;
+            this.snapshot = snapshot;
+            if (current != null)
+                invalidate();
+            return true;
+        }
+    }
+
+    private Segment segmentOf(Signature signature) {
+        return segments[signature.hashCode() & segments.length - 1];
+    }
+
+    /**
+     * Removes all cached locations.
+     */
+    public void invalidate() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.entries.clear();
+            }
+        }
+        invalidations.increment();
+    }
+
+    /**
+     * Returns the number of cached locations, including expired ones that were not looked up since.
+     *
+     * @return The number of entries.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.entries.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of lookups that found a location.
+     *
+     * @return The number of hits.
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups that found no location, including expired ones and ones of another snapshot.
+     *
+     * @return The number of misses.
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of locations removed because their segment was full.
+     *
+     * @return The number of evictions.
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the number of locations removed because they had expired.
+     *
+     * @return The number of expirations.
+     */
+    public long expirations() {
+        return expirations.sum();
+    }
+
+    /**
+     * Returns the number of times the cache was cleared, because of a new snapshot or a call to {@link #invalidate()}.
+     *
+     * @return The number of invalidations.
+     */
+    public long invalidations() {
+        return invalidations.sum();
+    }
+
+    /**
+     * Returns a one-line summary of the counters.
+     *
+     * @return The summary.
+     */
+    public String summary() {
+        long hits = hits(), misses = misses();
+        return String.format("entries=%d hits=%d misses=%d hitRate=%.1f%% evictions=%d expirations=%d invalidations=%d",
+                size(), hits, misses, hits + misses == 0 ? 0.0 : 100.0 * hits / (hits + misses), evictions(),
+                expirations(), invalidations());
+    }
+
+    /**
+     * Replays scans of stationary devices, which repeat their scan with some signal noise, mixed with scans of
+     * moving devices, which rarely repeat, all near fingerprints of the radio map, and compares the hit rate, latency and accuracy of the cache for several
+     * signal bucket widths with locating every scan. The replay is repeated for a noise of 0 dB, as with scans that
+     * the operating system throttles and returns again unchanged, and for a noise of 1 and 2 dB on every AP.
+     *
+     * @param args The radio map JSON file (radio_map.json by default), the number of replayed scans (200000 by
+     *             default), and the share of scans from stationary devices (0.9 by default).
+     * @throws Exception If the radio map cannot be loaded.
+     */
+    public static void main(String[] args) throws Exception {
+        RadioMapSnapshot snapshot = RadioMapSnapshot.load(Paths.get(args.length > 0 ? args[0] : "radio_map.json"), 1);
+        int scanCount = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        double stationaryShare = args.length > 2 ? Double.parseDouble(args[2]) : 0.9;
+        Locator locator = new Locator();
+
+        for (int noise = 0; noise <= 2; noise++) {
+            List<Fingerprint> scans = replay(snapshot.fingerprints(), scanCount, stationaryShare, noise, new Random(1));
+            PointF[] exact = new PointF[scans.size()];
+            LatencyHistogram latencies = new LatencyHistogram();
+            for (int round = 0; round < 2; round++) {
+                latencies.reset();
+                for (int s = 0; s < scans.size(); s++) {
+                    long start = System.nanoTime();
+                    exact[s] = snapshot.getLocation(locator, scans.get(s));
+                    latencies.record(System.nanoTime() - start);
+                }
+            }
+            System.out.printf("%n%d scans, %.0f%% from 50 stationary devices, noise +-%d dB%n", scans.size(),
+                    100 * stationaryShare, noise);
+            System.out.printf("%-12s %9s %9s %9s %12s%n", "", "hit rate", "mean us", "p99 us", "mean shift");
+            System.out.printf("%-12s %9s %9.2f %9.2f %12s%n", "no cache", "-", latencies.mean() / 1e3,
+                    latencies.percentile(99) / 1e3, "-");
+
+            for (int quantizationDb : new int[]{1, 2, 4, 8}) {
+                LocationCache cache = null;
+                double shift = 0;
+                int shifted = 0;
+                // The second round measures warmed-up code on an empty cache again
+                for (int round = 0; round < 2; round++) {
+                    cache = new LocationCache(10_000, 10, TimeUnit.MINUTES, quantizationDb);
+                    latencies.reset();
+                    shift = 0;
+                    shifted = 0;
+                    for (int s = 0; s < scans.size(); s++) {
+                        long start = System.nanoTime();
+                        PointF location = cache.getLocation(locator, snapshot, scans.get(s));
+                        latencies.record(System.nanoTime() - start);
+                        if (!Double.isNaN(location.getX()) && !Double.isNaN(exact[s].getX())) {
+                            shift += Main.calculateDistance(location.getX(), location.getY(), exact[s].getX(), exact[s].getY());
+                            shifted++;
+                        }
+                    }
+                }
+                System.out.printf("%-12s %8.1f%% %9.2f %9.2f %12.3f%n", quantizationDb + " dB", 100.0 * cache.hits()
+                        / scans.size(), latencies.mean() / 1e3, latencies.percentile(99) / 1e3, shift / shifted);
+            }
+        }
+    }
+
+    /**
+     * Generates scans of 50 stationary devices and of moving devices. Every device stands near a fingerprint of the
+     * radio map, hearing each of its APs with a fixed offset of up to 3 dB, and every scan adds a uniform noise.
+     */
+    private static List<Fingerprint> replay(List<Fingerprint> radioMap, int scanCount, double stationaryShare,
+                                            int noise, Random random) {
+        List<Fingerprint> devices = new ArrayList<>();
+        for (int d = 0; d < 50; d++) {
+            devices.add(nearby(radioMap.get(random.nextInt(radioMap.size())), 3, random));
+        }
+        List<Fingerprint> scans = new ArrayList<>(scanCount);
+        for (int s = 0; s < scanCount; s++) {
+            Fingerprint device = random.nextDouble() < stationaryShare ? devices.get(random.nextInt(devices.size()))
+                    : nearby(radioMap.get(random.nextInt(radioMap.size())), 3, random);
+            scans.add(nearby(device, noise, random));
+        }
+        return scans;
+    }
+
+    private static Fingerprint nearby(Fingerprint fingerprint, int maxOffset, Random random) {
+        Fingerprint scan = new Fingerprint();
+        for (MacAndValue macAndValue : fingerprint.instance.macsAndValues) {
+            int signal = macAndValue.signal + random.nextInt(2 * maxOffset + 1) - maxOffset;
+            scan.instance.macsAndValues.add(new MacAndValue(macAndValue.mac, signal));
+        }
+        return scan;
+    }
+}
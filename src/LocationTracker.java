@@ -0,0 +1,422 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks continuously moving devices. Every device keeps its last estimate and velocity in an alpha-beta filter,
+ * and a new scan is first located against only the fingerprints whose centers lie within a radius of the position
+ * predicted from them. The whole radio map is searched only for a device's first scan, and whenever the best score
+ * found nearby is poor compared to what the scan could score, e.g. after the device jumped or the prediction drifted.
+ *
+ * <p>The fingerprints are kept in a dense grid of square cells as large as the search radius, so a local search
+ * visits at most nine cells; very sparse maps get larger cells to keep the grid small. The tracker is safe for
+ * concurrent use; scans of the same device are processed one at a time.
+ */
+public class LocationTracker {
+    private final List<Fingerprint> radioMap;
+    private final RadioMapIndex index;
+    private final Locator locator;
+    private final double searchRadius;
+    private final double alpha;
+    private final double beta;
+    private final double fallbackScoreRatio;
+    private final double cellSize;
+    private final long originX, originY;
+    private final int columns, rows;
+    private final Cell[] cells;
+    private final ConcurrentHashMap<String, Track> tracks = new ConcurrentHashMap<>();
+    private final LongAdder localSearches = new LongAdder();
+    private final LongAdder fullSearches = new LongAdder();
+
+    /**
+     * The ascending positions of the fingerprints in one grid cell, with their centers stored alongside.
+     */
+    private static class Cell {
+        final int[] positions;
+        final double[] xs;
+        final double[] ys;
+
+        Cell(int[] positions, List<Fingerprint> radioMap) {
+            this.positions = positions;
+            this.xs = new double[positions.length];
+            this.ys = new double[positions.length];
+            for (int i = 0; i < positions.length; i++) {
+                xs[i] = radioMap.get(positions[i]).center.x;
+                ys[i] = radioMap.get(positions[i]).center.y;
+            }
+        }
+    }
+
+    /**
+     * The filter state of one device.
+     */
+    private static class Track {
+        double x, y, vx, vy;
+        long timestampMillis;
+        long lastSeenMillis;
+        boolean located;
+    }
+
+    /**
+     * Creates a tracker with a moderate filter: alpha 0.5, beta 0.1, and a full search whenever the local best
+     * score is below half of the best score the scan could reach.
+     *
+     * @param radioMap The fingerprints of the radio map.
+     * @param locator The Locator used to calculate the raw locations.
+     * @param searchRadius The radius around the predicted position searched first, in the units of the centers.
+     */
+    public LocationTracker(List<Fingerprint> radioMap, Locator locator, double searchRadius) {
+        this(radioMap, locator, searchRadius, 0.5, 0.1, 0.5);
+    }
+
+    /**
+     * Creates a tracker.
+     *
+     * @param radioMap The fingerprints of the radio map.
+     * @param locator The Locator used to calculate the raw locations.
+     * @param searchRadius The radius around the predicted position searched first, in the units of the centers.
+     * @param alpha The weight of a new raw location in the position estimate, from 0 (ignore) to 1 (no smoothing).
+     * @param beta The weight of a new raw location in the velocity estimate, from 0 (constant velocity) to 1.
+     * @param fallbackScoreRatio The whole radio map is searched when the best local score is below this fraction
+     *                           of the best score the scan could reach; 0 only falls back when nothing is found
+     *                           nearby, 1 almost always falls back.
+     */
+    public LocationTracker(List<Fingerprint> radioMap, Locator locator, double searchRadius,
+                           double alpha, double beta, double fallbackScoreRatio) {
+        if (!(searchRadius > 0))
+            throw new IllegalArgumentException("Search radius must be positive: " + searchRadius);
+        if (!(alpha > 0 && alpha <= 1) || !(beta >= 0 && beta <= 1))
+            throw new IllegalArgumentException("Filter gains must be in (0, 1] and [0, 1]: " + alpha + ", " + beta);
+
+        this.index = new RadioMapIndex(radioMap);
+        this.radioMap = index.fingerprints();
+        this.locator = locator;
+        this.searchRadius = searchRadius;
+        this.alpha = alpha;
+        this.beta = beta;
+        this.fallbackScoreRatio = fallbackScoreRatio;
+
+        // Grow the cells if the grid would have many more cells than fingerprints
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (Fingerprint fingerprint : this.radioMap) {
+            minX = Math.min(minX, fingerprint.center.x);
+            minY = Math.min(minY, fingerprint.center.y);
+            maxX = Math.max(maxX, fingerprint.center.x);
+            maxY = Math.max(maxY, fingerprint.center.y);
+        }
+        int maxCells = Math.max(1024, 4 * this.radioMap.size());
+        double area = this.radioMap.isEmpty() ? 0 : (maxX - minX + searchRadius) * (maxY - minY + searchRadius);
+        this.cellSize = Math.max(searchRadius, Math.sqrt(area / maxCells));
+        this.originX = this.radioMap.isEmpty() ? 0 : cellOf(minX);
+        this.originY = this.radioMap.isEmpty() ? 0 : cellOf(minY);
+        this.columns = this.radioMap.isEmpty() ? 0 : (int) (cellOf(maxX) - originX + 1);
+        this.rows = this.radioMap.isEmpty() ? 0 : (int) (cellOf(maxY) - originY + 1);
+
+        List<List<Integer>> members = new ArrayList<>(Collections.nCopies(columns * rows, null));
+        for (int i = 0; i < this.radioMap.size(); i++) {
+            Point center = this.radioMap.get(i).center;
+            int cell = (int) (cellOf(center.x) - originX) * rows + (int) (cellOf(center.y) - originY);
+            if (members.get(cell) == null)
+                members.set(cell, new ArrayList<>());
+            members.get(cell).add(i);
+        }
+        cells = new Cell[members.size()];
+        for (int cell = 0; cell < cells.length; cell++) {
+            if (members.get(cell) != null)
+                cells[cell] = new Cell(members.get(cell).stream().mapToInt(Integer::intValue).toArray(), this.radioMap);
+        }
+    }
+
+    /**
+     * Locates a new scan of a device and updates its track.
+     *
+     * @param deviceId The id of the device.
+     * @param scan The scan of the device.
+     * @param timestampMillis The time of the scan, in milliseconds; scans of a device must come in time order.
+     * @return The smoothed location of the device, or NaN coordinates if it has never been located.
+     */
+    public PointF update(String deviceId, Fingerprint scan, long timestampMillis) {
+        Track track = tracks.computeIfAbsent(deviceId, id -> new Track());
+        synchronized (track) {
+            double dt = track.located ? Math.max(0, timestampMillis - track.timestampMillis) / 1000.0 : 0;
+            double predictedX = track.x + track.vx * dt;
+            double predictedY = track.y + track.vy * dt;
+
+            PointF measured = track.located ? locateNear(scan, predictedX, predictedY) : null;
+            if (measured == null) {
+                fullSearches.increment();
+                measured = locator.getLocation(index, scan);
+            }
+
+            if (Double.isFinite(measured.getX()) && Double.isFinite(measured.getY())) {
+                if (!track.located) {
+                    track.x = measured.getX();
+                    track.y = measured.getY();
+                    track.located = true;
+                } else {
+                    double residualX = measured.getX() - predictedX;
+                    double residualY = measured.getY() - predictedY;
+                    track.x = predictedX + alpha * residualX;
+                    track.y = predictedY + alpha * residualY;
+                    if (dt > 0) {
+                        track.vx += beta * residualX / dt;
+                        track.vy += beta * residualY / dt;
+                    }
+                }
+                track.timestampMillis = timestampMillis;
+            }
+            track.lastSeenMillis = timestampMillis;
+
+            PointF location = new PointF();
+            location.set(track.located ? track.x : Double.NaN, track.located ? track.y : Double.NaN);
+            return location;
+        }
+    }
+
+    /**
+     * Locates a scan against the fingerprints around a position, or returns null if the best of them scores poorly.
+     */
+    private PointF locateNear(Fingerprint scan, double x, double y) {
+        int scanApCount = Locator.strongAps(scan).count();
+
+        // Keep the best score bucket exactly like Locator.getMarksWithSameAps2, in radio map order
+        int[] nearby = nearby(x, y);
+        int bestScore = Locator.NEIGHBOUR_MIN_SCORE;
+        int bestCount = 0;
+        for (int i : nearby) {
+            int score = Locator.score(scan, radioMap.get(i));
+            if (score > bestScore) {
+                bestScore = score;
+                bestCount = 0;
+            }
+            if (score == bestScore)
+                nearby[bestCount++] = i;
+        }
+
+        // A scan with n strong APs scores at most 2n, against a fingerprint with exactly the same strong APs
+        if (bestCount == 0 || bestScore < fallbackScoreRatio * 2 * scanApCount)
+            return null;
+
+        List<Fingerprint> best = new ArrayList<>(bestCount);
+        for (int c = 0; c < bestCount; c++) {
+            best.add(radioMap.get(nearby[c]));
+        }
+        localSearches.increment();
+        return locator.weightedLocation(scan, best);
+    }
+
+    /**
+     * Returns the ascending positions of the fingerprints whose centers lie within the search radius of a point.
+     */
+    private int[] nearby(double x, double y) {
+        int[] positions = new int[16];
+        int count = 0;
+        long minX = Math.max(originX, cellOf(x - searchRadius)), maxX = Math.min(originX + columns - 1, cellOf(x + searchRadius));
+        long minY = Math.max(originY, cellOf(y - searchRadius)), maxY = Math.min(originY + rows - 1, cellOf(y + searchRadius));
+        for (long cellX = minX; cellX <= maxX; cellX++) {
+            for (long cellY = minY; cellY <= maxY; cellY++) {
+                Cell cell = cells[(int) (cellX - originX) * rows + (int) (cellY - originY)];
+                if (cell == null)
+                    continue;
+                for (int c = 0; c < cell.positions.length; c++) {
+                    double dx = cell.xs[c] - x, dy = cell.ys[c] - y;
+                    if (dx * dx + dy * dy > searchRadius * searchRadius)
+                        continue;
+                    if (count == positions.length)
+                        positions = Arrays.copyOf(positions, count * 2);
+                    positions[count++] = cell.positions[c];
+                }
+            }
+        }
+        Arrays.sort(positions, 0, count);
+        return Arrays.copyOf(positions, count);
+    }
+
+    private long cellOf(double coordinate) {
+        return (long) Math.floor(coordinate / cellSize);
+    }
+
+    /**
+     * Returns the last smoothed location of a device.
+     *
+     * @param deviceId The id of the device.
+     * @return The location, or null if the device has never been located.
+     */
+    public PointF lastLocation(String deviceId) {
+        Track track = tracks.get(deviceId);
+        if (track == null)
+            return null;
+        synchronized (track) {
+            if (!track.located)
+                return null;
+            PointF location = new PointF();
+            location.set(track.x, track.y);
+            return location;
+        }
+    }
+
+    /**
+     * Forgets a device, so its next scan starts a new track with a full search.
+     *
+     * @param deviceId The id of the device.
+     */
+    public void forget(String deviceId) {
+        tracks.remove(deviceId);
+    }
+
+    /**
+     * Forgets all devices that have not sent a scan for a while.
+     *
+     * @param nowMillis The current time, in the same clock as the scan timestamps.
+     * @param maxIdleMillis The longest time a device may be silent and still be tracked.
+     * @return The number of devices forgotten.
+     */
+    public int evictIdle(long nowMillis, long maxIdleMillis) {
+        int evicted = 0;
+        for (Map.Entry<String, Track> entry : tracks.entrySet()) {
+            long lastSeen;
+            synchronized (entry.getValue()) {
+                lastSeen = entry.getValue().lastSeenMillis;
+            }
+            if (nowMillis - lastSeen > maxIdleMillis && tracks.remove(entry.getKey(), entry.getValue()))
+                evicted++;
+        }
+        return evicted;
+    }
+
+    /**
+     * Returns the number of devices being tracked.
+     *
+     * @return The number of devices.
+     */
+    public int deviceCount() {
+        return tracks.size();
+    }
+
+    /**
+     * Returns the number of scans located by a search around the predicted position.
+     *
+     * @return The number of local searches.
+     */
+    public long localSearches() {
+        return localSearches.sum();
+    }
+
+    /**
+     * Returns the number of scans located by a search of the whole radio map.
+     *
+     * @return The number of full searches.
+     */
+    public long fullSearches() {
+        return fullSearches.sum();
+    }
+
+    /**
+     * Simulates devices walking through a radio map and compares the tracker with stateless localization.
+     * Every step a device walks towards a waypoint at walking speed, and scans the fingerprint nearest to its true
+     * position with noise added to every signal.
+     *
+     * @param args The radio map JSON file (radio_map.json by default), the search radius (10 by default) and the
+     *             number of simulated steps (20000 by default).
+     * @throws IOException If the radio map cannot be loaded.
+     */
+    public static void main(String[] args) throws IOException {
+        String jsonFilePath = args.length > 0 ? args[0] : "radio_map.json";
+        double searchRadius = args.length > 1 ? Double.parseDouble(args[1]) : 10;
+        int steps = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+        List<Fingerprint> radioMap = RadioMapLoader.load(Paths.get(jsonFilePath));
+
+        // Simulate 10 devices scanning once per second at about 1.2 units per second
+        Random random = new Random(1);
+        int devices = 10;
+        String[] deviceIds = new String[steps];
+        double[] trueX = new double[steps], trueY = new double[steps];
+        List<Fingerprint> scans = new ArrayList<>(steps);
+        double[] x = new double[devices], y = new double[devices];
+        Point[] waypoints = new Point[devices];
+        for (int d = 0; d < devices; d++) {
+            Point start = radioMap.get(random.nextInt(radioMap.size())).center;
+            x[d] = start.x;
+            y[d] = start.y;
+        }
+        for (int step = 0; step < steps; step++) {
+            int d = step % devices;
+            if (waypoints[d] == null || Main.calculateDistance(x[d], y[d], waypoints[d].x, waypoints[d].y) < 1.2)
+                waypoints[d] = radioMap.get(random.nextInt(radioMap.size())).center;
+            double distance = Main.calculateDistance(x[d], y[d], waypoints[d].x, waypoints[d].y);
+            x[d] += 1.2 * (waypoints[d].x - x[d]) / distance;
+            y[d] += 1.2 * (waypoints[d].y - y[d]) / distance;
+
+            Fingerprint nearest = radioMap.get(0);
+            for (Fingerprint fingerprint : radioMap) {
+                if (Main.calculateDistance(x[d], y[d], fingerprint.center.x, fingerprint.center.y)
+                        < Main.calculateDistance(x[d], y[d], nearest.center.x, nearest.center.y))
+                    nearest = fingerprint;
+            }
+            Fingerprint scan = new Fingerprint();
+            for (MacAndValue macAndValue : nearest.instance.macsAndValues) {
+                int signal = (int) Math.round(macAndValue.signal + random.nextGaussian() * 3);
+                scan.instance.macsAndValues.add(new MacAndValue(macAndValue.mac, Math.max(-99, Math.min(-30, signal))));
+            }
+            deviceIds[step] = "device-" + d;
+            trueX[step] = x[d];
+            trueY[step] = y[d];
+            scans.add(scan);
+        }
+
+        Locator locator = new Locator();
+        RadioMapIndex index = new RadioMapIndex(radioMap);
+        LocationTracker tracker = new LocationTracker(radioMap, locator, searchRadius);
+        PointF[] stateless = new PointF[steps];
+        PointF[] tracked = new PointF[steps];
+
+        // Warm up both paths, then time them
+        LocationTracker warmUp = new LocationTracker(radioMap, locator, searchRadius);
+        for (int step = 0; step < steps; step++) {
+            locator.getLocation(index, scans.get(step));
+            warmUp.update(deviceIds[step], scans.get(step), step / devices * 1000L);
+        }
+        long start = System.nanoTime();
+        for (int step = 0; step < steps; step++) {
+            stateless[step] = locator.getLocation(index, scans.get(step));
+        }
+        long statelessNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int step = 0; step < steps; step++) {
+            tracked[step] = tracker.update(deviceIds[step], scans.get(step), step / devices * 1000L);
+        }
+        long trackedNanos = System.nanoTime() - start;
+
+        System.out.printf("%d scans of %d devices, search radius %.1f: %d local and %d full searches%n",
+                steps, devices, searchRadius, tracker.localSearches(), tracker.fullSearches());
+        System.out.printf("%-10s %12s %12s %12s%n", "", "us/scan", "mean error", "jitter");
+        for (PointF[] locations : new PointF[][]{stateless, tracked}) {
+            // Jitter is how much a device's estimated step differs from its true step
+            double error = 0, jitter = 0;
+            int errorCount = 0, jitterCount = 0;
+            for (int step = 0; step < steps; step++) {
+                if (Double.isNaN(locations[step].getX()))
+                    continue;
+                error += Main.calculateDistance(locations[step].getX(), locations[step].getY(), trueX[step], trueY[step]);
+                errorCount++;
+                int previous = step - devices;
+                if (previous >= 0 && !Double.isNaN(locations[previous].getX())) {
+                    jitter += Main.calculateDistance(locations[step].getX() - locations[previous].getX(),
+                            locations[step].getY() - locations[previous].getY(),
+                            trueX[step] - trueX[previous], trueY[step] - trueY[previous]);
+                    jitterCount++;
+                }
+            }
+            System.out.printf("%-10s %12.2f %12.3f %12.3f%n", locations == stateless ? "stateless" : "tracked",
+                    (locations == stateless ? statelessNanos : trackedNanos) / 1000.0 / steps, error / errorCount, jitter / jitterCount);
+        }
+    }
+}
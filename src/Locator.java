@@ -1,13 +1,85 @@
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
 /**
  * A class to locate a point based on a set of fingerprints.
  * The location is determined by calculating the dissimilarity between fingerprints and using a weighted average of coordinates.
  */
 public class Locator {
-    private static int MIN_RSS_TO_COUNT = -75;
-    private static int NEIGHBOUR_MIN_SCORE = -1;
-    private static int RSS_OFFSET = 100;
+    static final int MIN_RSS_TO_COUNT = -75;
+    static final int NEIGHBOUR_MIN_SCORE = -1;
+    static final int RSS_OFFSET = 100;
+
+    // The pools of the batch calls, one per parallelism; their worker threads are daemons and idle ones time out
+    private static final ConcurrentMap<Integer, ForkJoinPool> batchPools = new ConcurrentHashMap<>();
+
+    private int maxNeighbours;
+    private PairwiseMatrix pairwiseMatrix;
+    private LocatorMetrics metrics;
+
+    /**
+     * Limits the number of neighbours used for a location to the K most similar fingerprints of the best score bucket.
+     * By default every fingerprint in the best score bucket is used. With a limit, dissimilarities are calculated with
+     * early abandoning against the current K-th best neighbour, which bounds the work per query in dense maps.
+     *
+     * @param maxNeighbours The maximum number of neighbours K, or 0 to use the whole best score bucket.
+     */
+    public void setMaxNeighbours(int maxNeighbours) {
+        if (maxNeighbours < 0)
+            throw new IllegalArgumentException("Maximum number of neighbours must not be negative: " + maxNeighbours);
+        this.maxNeighbours = maxNeighbours;
+    }
+
+    /**
+     * Returns the maximum number of neighbours used for a location.
+     *
+     * @return The maximum number of neighbours K, or 0 if the whole best score bucket is used.
+     */
+    public int getMaxNeighbours() {
+        return maxNeighbours;
+    }
+
+    /**
+     * Uses a precomputed pairwise matrix for the dissimilarities and scores between fingerprints of a static radio map.
+     * The matrix is consulted whenever both fingerprints are members of its radio map, e.g. in leave-one-out runs;
+     * any other pair is calculated as usual, so the results are identical with or without the matrix.
+     *
+     * @param pairwiseMatrix The matrix of the radio map, or null to always calculate.
+     */
+    public void setPairwiseMatrix(PairwiseMatrix pairwiseMatrix) {
+        this.pairwiseMatrix = pairwiseMatrix;
+    }
+
+    /**
+     * Returns the precomputed pairwise matrix used by this Locator.
+     *
+     * @return The matrix, or null if none is used.
+     */
+    public PairwiseMatrix getPairwiseMatrix() {
+        return pairwiseMatrix;
+    }
+
+    /**
+     * Records the stages of every location calculated by this Locator into the given metrics.
+     *
+     * @param metrics The metrics to record into, or null to record nothing.
+     */
+    public void setMetrics(LocatorMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the metrics this Locator records into.
+     *
+     * @return The metrics, or null if nothing is recorded.
+     */
+    public LocatorMetrics getMetrics() {
+        return metrics;
+    }
 
     /**
      * Calculates the location of a given fingerprint based on the dissimilarity to other fingerprints in the dataset.
@@ -18,16 +90,325 @@ public class Locator {
      * @return A PointF object representing the calculated location.
      */
     public PointF getLocation(List<Fingerprint> fingerprintsDataSet, Fingerprint fingerprint){
-        PointF fingerprintLocation = new PointF();
+        LocatorMetrics metrics = this.metrics;
+        if (metrics != null)
+            return measured(metrics, fingerprint, () -> getMarksWithSameAps2(fingerprintsDataSet, fingerprint, pairwiseMatrix));
+        return weightedLocation(fingerprint, getMarksWithSameAps2(fingerprintsDataSet, fingerprint, pairwiseMatrix));
+    }
+
+    /**
+     * Calculates the location of a given fingerprint using an indexed radio map.
+     * The result is identical to {@link #getLocation(List, Fingerprint)} over the indexed fingerprints.
+     *
+     * @param index The indexed radio map to be used as a reference dataset.
+     * @param fingerprint The fingerprint for which the location is to be calculated.
+     * @return A PointF object representing the calculated location.
+     */
+    public PointF getLocation(RadioMapIndex index, Fingerprint fingerprint) {
+        return locate(index, fingerprint, -1);
+    }
+
+    /**
+     * Calculates the location of a given fingerprint using an indexed radio map, leaving one fingerprint out.
+     * The result is identical to {@link #getLocation(List, Fingerprint)} over the radio map without that fingerprint,
+     * which makes leave-one-out evaluation possible without copying the radio map.
+     *
+     * @param index The indexed radio map to be used as a reference dataset.
+     * @param fingerprint The fingerprint for which the location is to be calculated.
+     * @param excludedIndex The position of the fingerprint to leave out, or -1 to use the whole radio map.
+     * @return A PointF object representing the calculated location.
+     */
+    public PointF getLocation(RadioMapIndex index, Fingerprint fingerprint, int excludedIndex) {
+        return locate(index, fingerprint, excludedIndex);
+    }
+
+    /**
+     * Calculates the location of a given fingerprint using an indexed radio map without allocating: the scratch
+     * buffers come from the context and the result is written into the given point. Once the context has grown to
+     * the radio map and the fingerprint's sorted APs have been cached by an earlier call, a query allocates nothing.
+     * The result is identical to {@link #getLocation(RadioMapIndex, Fingerprint)}.
+     *
+     * @param index The indexed radio map to be used as a reference dataset.
+     * @param fingerprint The fingerprint for which the location is to be calculated.
+     * @param context The scratch buffers of the calling thread, e.g. {@link LocatorContext#current()}.
+     * @param location Receives the calculated location.
+     * @return The given location.
+     */
+    public PointF getLocation(RadioMapIndex index, Fingerprint fingerprint, LocatorContext context, PointF location) {
+        return getLocation(index, fingerprint, -1, context, location);
+    }
+
+    /**
+     * Calculates the location of a given fingerprint using an indexed radio map without allocating, leaving one
+     * fingerprint out.
+     *
+     * @param index The indexed radio map to be used as a reference dataset.
+     * @param fingerprint The fingerprint for which the location is to be calculated.
+     * @param excludedIndex The position of the fingerprint to leave out, or -1 to use the whole radio map.
+     * @param context The scratch buffers of the calling thread, e.g. {@link LocatorContext#current()}.
+     * @param location Receives the calculated location.
+     * @return The given location.
+     * @see #getLocation(RadioMapIndex, Fingerprint, LocatorContext, PointF)
+     */
+    public PointF getLocation(RadioMapIndex index, Fingerprint fingerprint, int excludedIndex,
+                              LocatorContext context, PointF location) {
+        LocatorMetrics metrics = this.metrics;
+        boolean allocationTracking = metrics != null && metrics.isAllocationTracking();
+        long startBytes = allocationTracking ? LocatorMetrics.allocatedBytes() : 0;
+        long start = metrics == null ? 0 : System.nanoTime();
+
+        context.ensureCapacity(index.size(), maxNeighbours);
+        int[] best = context.candidates;
+        int bestCount = bestPositions(index, strongAps(fingerprint), excludedIndex, context);
+        long searched = metrics == null ? 0 : System.nanoTime();
+        int bucketSize = bestCount;
+
+        List<Fingerprint> radioMap = index.fingerprints();
+        if (maxNeighbours > 0 && bestCount > maxNeighbours)
+            bestCount = nearestPositions(fingerprint, radioMap, best, bestCount, maxNeighbours,
+                    context.heapDistances, context.heapPositions);
+
+        // Weight the best bucket exactly like weightedLocation
+        PairwiseMatrix matrix = pairwiseMatrix;
+        int row = matrix == null ? -1 : matrix.indexOf(fingerprint);
 
         float x = 0, y = 0;
         float weight;
         float weightSum = 0;
 
-        List<Fingerprint> subsetNeighbourFingerprints = getMarksWithSameAps2(fingerprintsDataSet, fingerprint);
+        for (int b = 0; b < bestCount; b++) {
+            Fingerprint neighbour = radioMap.get(best[b]);
+            int column = row < 0 ? -1 : matrix.indexOf(neighbour);
+            float distance = column < 0 ? dissimilarity(fingerprint, neighbour) : matrix.dissimilarity(row, column);
+            weight = 1 / distance;
+
+            x += (float) (weight * neighbour.center.x);
+            y += (float) (weight * neighbour.center.y);
+            weightSum += weight;
+        }
+
+        location.set(x / weightSum, y / weightSum);
+
+        if (metrics != null) {
+            long weighted = System.nanoTime();
+            long allocatedBytes = allocationTracking ? LocatorMetrics.allocatedBytes() - startBytes : -1;
+            int bestScore = bucketSize == 0 ? NEIGHBOUR_MIN_SCORE : score(fingerprint, radioMap.get(best[0]));
+            metrics.record(searched - start, weighted - searched, bucketSize, bestScore, location, allocatedBytes);
+        }
+        return location;
+    }
+
+    /**
+     * Calculates the location of a given fingerprint using a sharded radio map, searching only the zones that can
+     * hold its best neighbours. The result is identical to {@link #getLocation(List, Fingerprint)} over the whole
+     * radio map unless the radio map limits the number of zones searched per query.
+     *
+     * @param radioMap The sharded radio map to be used as a reference dataset.
+     * @param fingerprint The fingerprint for which the location is to be calculated.
+     * @return A PointF object representing the calculated location.
+     */
+    public PointF getLocation(ShardedRadioMap radioMap, Fingerprint fingerprint) {
+        return getLocation(radioMap, fingerprint, -1);
+    }
+
+    /**
+     * Calculates the location of a given fingerprint using a sharded radio map, leaving one fingerprint out.
+     *
+     * @param radioMap The sharded radio map to be used as a reference dataset.
+     * @param fingerprint The fingerprint for which the location is to be calculated.
+     * @param excludedIndex The position of the fingerprint to leave out, or -1 to use the whole radio map.
+     * @return A PointF object representing the calculated location.
+     * @see #getLocation(RadioMapIndex, Fingerprint, int)
+     */
+    public PointF getLocation(ShardedRadioMap radioMap, Fingerprint fingerprint, int excludedIndex) {
+        return locate(radioMap, fingerprint, excludedIndex);
+    }
+
+    /**
+     * Calculates the location of a given fingerprint with a two-stage search of a clustered radio map: only the
+     * members of the clusters whose centroids are closest to the fingerprint are searched. The result is approximate;
+     * it equals {@link #getLocation(List, Fingerprint)} whenever the best neighbours lie in the probed clusters.
+     *
+     * @param clustering The clustered radio map to be used as a reference dataset.
+     * @param fingerprint The fingerprint for which the location is to be calculated.
+     * @param probes The number of clusters to search.
+     * @return A PointF object representing the calculated location.
+     */
+    public PointF getLocation(RadioMapClustering clustering, Fingerprint fingerprint, int probes) {
+        return getLocation(clustering, fingerprint, probes, -1);
+    }
+
+    /**
+     * Calculates the location of a given fingerprint with a two-stage search of a clustered radio map, leaving one
+     * fingerprint out. The clusters are not changed, so the left out fingerprint still counts towards its centroid.
+     *
+     * @param clustering The clustered radio map to be used as a reference dataset.
+     * @param fingerprint The fingerprint for which the location is to be calculated.
+     * @param probes The number of clusters to search.
+     * @param excludedIndex The position of the fingerprint to leave out, or -1 to use the whole radio map.
+     * @return A PointF object representing the calculated location.
+     * @see #getLocation(RadioMapClustering, Fingerprint, int)
+     */
+    public PointF getLocation(RadioMapClustering clustering, Fingerprint fingerprint, int probes, int excludedIndex) {
+        return locate(clustering.probing(probes), fingerprint, excludedIndex);
+    }
+
+    /**
+     * Calculates the location of a given fingerprint with an approximate search: only the fingerprints the LSH index
+     * retrieves for it are scored and weighted. The result equals {@link #getLocation(List, Fingerprint)} whenever
+     * all of its best neighbours are retrieved.
+     *
+     * @param index The LSH index of the radio map to be used as a reference dataset.
+     * @param fingerprint The fingerprint for which the location is to be calculated.
+     * @return A PointF object representing the calculated location.
+     */
+    public PointF getLocation(LshRadioMapIndex index, Fingerprint fingerprint) {
+        return getLocation(index, fingerprint, -1);
+    }
+
+    /**
+     * Calculates the location of a given fingerprint with an approximate search, leaving one fingerprint out.
+     *
+     * @param index The LSH index of the radio map to be used as a reference dataset.
+     * @param fingerprint The fingerprint for which the location is to be calculated.
+     * @param excludedIndex The position of the fingerprint to leave out, or -1 to use the whole radio map.
+     * @return A PointF object representing the calculated location.
+     * @see #getLocation(LshRadioMapIndex, Fingerprint)
+     */
+    public PointF getLocation(LshRadioMapIndex index, Fingerprint fingerprint, int excludedIndex) {
+        return locate(index, fingerprint, excludedIndex);
+    }
+
+    /**
+     * Calculates the location of a given fingerprint from the best fingerprints a search structure finds for it.
+     * Every getLocation method of a search structure ends here, except the allocation-free one of the index.
+     */
+    private PointF locate(CandidateSource source, Fingerprint fingerprint, int excludedIndex) {
+        LocatorMetrics metrics = this.metrics;
+        if (metrics != null)
+            return measured(metrics, fingerprint, () -> bestFingerprints(source, fingerprint, excludedIndex));
+        return weightedLocation(fingerprint, bestFingerprints(source, fingerprint, excludedIndex));
+    }
+
+    /**
+     * Calculates a location like the getLocation methods do, recording the time and allocations of its stages.
+     */
+    private PointF measured(LocatorMetrics metrics, Fingerprint fingerprint, Supplier<List<Fingerprint>> search) {
+        boolean allocationTracking = metrics.isAllocationTracking();
+        long startBytes = allocationTracking ? LocatorMetrics.allocatedBytes() : 0;
+        long start = System.nanoTime();
+        List<Fingerprint> neighbours = search.get();
+        long searched = System.nanoTime();
+        PointF location = weightedLocation(fingerprint, neighbours);
+        long weighted = System.nanoTime();
+        long allocatedBytes = allocationTracking ? LocatorMetrics.allocatedBytes() - startBytes : -1;
+
+        int bestScore = neighbours.isEmpty() ? NEIGHBOUR_MIN_SCORE : score(fingerprint, neighbours.get(0));
+        metrics.record(searched - start, weighted - searched, neighbours.size(), bestScore, location, allocatedBytes);
+        return location;
+    }
+
+    /**
+     * Calculates the location of a given fingerprint directly from a memory-mapped binary radio map.
+     * Only the fingerprints of the best score bucket are decoded from the map; the result is identical to
+     * {@link #getLocation(List, Fingerprint)} over the fingerprints the binary map was written from.
+     *
+     * @param radioMap The binary radio map to be used as a reference dataset.
+     * @param fingerprint The fingerprint for which the location is to be calculated.
+     * @return A PointF object representing the calculated location.
+     * @throws java.io.UncheckedIOException If the offsets of the binary radio map are corrupt.
+     */
+    public PointF getLocation(BinaryRadioMap radioMap, Fingerprint fingerprint) {
+        return locate(radioMap, fingerprint, -1);
+    }
+
+    /**
+     * Calculates the locations of a batch of fingerprints against the same dataset, using all available processors.
+     *
+     * @param fingerprintsDataSet A list of fingerprints to be used as a reference dataset.
+     * @param fingerprints The fingerprints for which the locations are to be calculated.
+     * @return The calculated locations, in the same order as the given fingerprints.
+     * @see #getLocations(RadioMapIndex, List, int)
+     */
+    public List<PointF> getLocations(List<Fingerprint> fingerprintsDataSet, List<Fingerprint> fingerprints) {
+        return getLocations(new RadioMapIndex(fingerprintsDataSet), fingerprints, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Calculates the locations of a batch of fingerprints against an indexed radio map.
+     * The index is shared by the whole batch and the fingerprints are spread over a ForkJoin pool that is kept
+     * for all batch calls with the same parallelism.
+     * Every location is computed exactly as {@link #getLocation(List, Fingerprint)} would, so the results
+     * are identical to sequential calls regardless of the parallelism.
+     *
+     * @param index The indexed radio map to be used as a reference dataset.
+     * @param fingerprints The fingerprints for which the locations are to be calculated.
+     * @param parallelism The number of threads to use; 1 runs the batch on the calling thread.
+     * @return The calculated locations, in the same order as the given fingerprints.
+     */
+    public List<PointF> getLocations(RadioMapIndex index, List<Fingerprint> fingerprints, int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+
+        if (parallelism == 1 || fingerprints.size() < 2)
+            return getLocations(index, fingerprints, null);
+
+        return getLocations(index, fingerprints, batchPool(parallelism));
+    }
+
+    /**
+     * Returns the pool of the batch calls with the given parallelism, which other parallel runs over a radio map
+     * share instead of starting and stopping threads for every run.
+     */
+    static ForkJoinPool batchPool(int parallelism) {
+        return batchPools.computeIfAbsent(parallelism, ForkJoinPool::new);
+    }
+
+    /**
+     * Calculates the locations of a batch of fingerprints against an indexed radio map on an existing pool,
+     * so long-running callers such as a server can reuse one pool for many batches.
+     *
+     * @param index The indexed radio map to be used as a reference dataset.
+     * @param fingerprints The fingerprints for which the locations are to be calculated.
+     * @param pool The pool to spread the batch over, or null to run the batch on the calling thread.
+     * @return The calculated locations, in the same order as the given fingerprints.
+     * @see #getLocations(RadioMapIndex, List, int)
+     */
+    public List<PointF> getLocations(RadioMapIndex index, List<Fingerprint> fingerprints, ForkJoinPool pool) {
+        Fingerprint[] queries = fingerprints.toArray(new Fingerprint[0]);
+        PointF[] locations = new PointF[queries.length];
+
+        if (pool == null || queries.length < 2) {
+            for (int i = 0; i < queries.length; i++) {
+                locations[i] = getLocation(index, queries[i]);
+            }
+        } else {
+            pool.submit(() -> IntStream.range(0, queries.length).parallel()
+                    .forEach(i -> locations[i] = getLocation(index, queries[i]))).join();
+        }
+        return Arrays.asList(locations);
+    }
+
+    /**
+     * Calculates the weighted average of the coordinates of the given neighbours, weighting each one by the
+     * inverse of its dissimilarity to the fingerprint. The neighbours must be in radio map order.
+     */
+    PointF weightedLocation(Fingerprint fingerprint, List<Fingerprint> subsetNeighbourFingerprints) {
+        if (maxNeighbours > 0 && subsetNeighbourFingerprints.size() > maxNeighbours)
+            subsetNeighbourFingerprints = nearestNeighbours(fingerprint, subsetNeighbourFingerprints, maxNeighbours);
+
+        PointF fingerprintLocation = new PointF();
+
+        PairwiseMatrix matrix = pairwiseMatrix;
+        int row = matrix == null ? -1 : matrix.indexOf(fingerprint);
+
+        float x = 0, y = 0;
+        float weight;
+        float weightSum = 0;
 
         for (Fingerprint neighbour : subsetNeighbourFingerprints) {
-            float distance = dissimilarity(fingerprint, neighbour);
+            int column = row < 0 ? -1 : matrix.indexOf(neighbour);
+            float distance = column < 0 ? dissimilarity(fingerprint, neighbour) : matrix.dissimilarity(row, column);
             weight = 1 / distance;
 
             x += (float) (weight * neighbour.center.x);
@@ -41,38 +422,139 @@ public class Locator {
     }
 
     /**
-     * Calculates the dissimilarity between two fingerprints based on the Euclidean distance of their signal strengths.
-     * The dissimilarity is calculated as the square root of the sum of squared differences in signal strengths.
+     * Selects the K neighbours with the smallest dissimilarity to the fingerprint, keeping their original order.
+     * The K best are kept in a max-heap on squared distance and position, and every further distance is abandoned
+     * as soon as it exceeds the current K-th best. Ties keep the earlier neighbour.
+     */
+    private static List<Fingerprint> nearestNeighbours(Fingerprint fingerprint, List<Fingerprint> neighbours, int k) {
+        int[] positions = new int[neighbours.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = i;
+        }
+        int size = nearestPositions(fingerprint, neighbours, positions, positions.length, k, new int[k], new int[k]);
+        List<Fingerprint> nearest = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            nearest.add(neighbours.get(positions[i]));
+        }
+        return nearest;
+    }
+
+    /**
+     * Selects the K positions whose fingerprints have the smallest dissimilarity to the fingerprint, like
+     * {@link #nearestNeighbours}, without allocating. The positions must be ascending; the selected ones are moved
+     * to the front, still ascending, and their number is returned. The heap arrays must hold at least K elements.
+     */
+    private static int nearestPositions(Fingerprint fingerprint, List<Fingerprint> radioMap, int[] positions, int count,
+                                        int k, int[] heapDistances, int[] heapPositions) {
+        int size = 0;
+
+        for (int position = 0; position < count; position++) {
+            int limit = size < k ? Integer.MAX_VALUE : heapDistances[0];
+            int distanceSq = distanceSq(fingerprint, radioMap.get(positions[position]), limit);
+            if (size < k) {
+                // Sift up
+                int i = size++;
+                while (i > 0 && heapDistances[(i - 1) / 2] <= distanceSq) {
+                    heapDistances[i] = heapDistances[(i - 1) / 2];
+                    heapPositions[i] = heapPositions[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                heapDistances[i] = distanceSq;
+                heapPositions[i] = position;
+            } else if (distanceSq < limit) {
+                // Replace the root and sift down
+                int i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= k)
+                        break;
+                    if (child + 1 < k && (heapDistances[child + 1] > heapDistances[child]
+                            || heapDistances[child + 1] == heapDistances[child] && heapPositions[child + 1] > heapPositions[child]))
+                        child++;
+                    if (heapDistances[child] <= distanceSq)
+                        break;
+                    heapDistances[i] = heapDistances[child];
+                    heapPositions[i] = heapPositions[child];
+                    i = child;
+                }
+                heapDistances[i] = distanceSq;
+                heapPositions[i] = position;
+            }
+        }
+
+        // The heap holds indexes into positions, so the sorted indexes never overtake the positions they replace
+        Arrays.sort(heapPositions, 0, size);
+        for (int i = 0; i < size; i++) {
+            positions[i] = positions[heapPositions[i]];
+        }
+        return size;
+    }
+
+    /**
+     * Calculates the squared Euclidean distance between the signal strengths of two fingerprints, as used by
+     * {@link #dissimilarity}. The calculation stops early once the partial sum exceeds the limit.
      *
      * @param neighbour The fingerprint to be compared.
      * @param reference The reference fingerprint against which the actual fingerprint is compared.
-     * @return A float value representing the dissimilarity between the two fingerprints.
+     * @param limit The largest distance of interest; pass Integer.MAX_VALUE for the exact distance.
+     * @return The squared distance, or some value greater than the limit if the distance exceeds it.
      */
-    public static float dissimilarity(Fingerprint neighbour, Fingerprint reference) {
-        float difference = 0.0f;
+    static int distanceSq(Fingerprint neighbour, Fingerprint reference, int limit) {
         int distanceSq = 0;
         int bssidLevelDiff;
 
-        if (neighbour == null || reference == null) return Float.MAX_VALUE;
-
-        for (String apMacAddress : neighbour.keySet()) {
-            if (reference.containsKey(apMacAddress)) {
-                bssidLevelDiff = neighbour.get(apMacAddress) - reference.get(apMacAddress);
+        int[] neighbourIds = neighbour.apIds();
+        byte[] neighbourRss = neighbour.rss();
+        int[] referenceIds = reference.apIds();
+        byte[] referenceRss = reference.rss();
+
+        // Merge-join over the sorted AP ids of both fingerprints
+        int i = 0, j = 0;
+        while (i < neighbourIds.length && j < referenceIds.length) {
+            if (neighbourIds[i] == referenceIds[j]) {
+                bssidLevelDiff = neighbourRss[i++] - referenceRss[j++];
+            } else if (neighbourIds[i] < referenceIds[j]) {
+                bssidLevelDiff = neighbourRss[i++] + RSS_OFFSET;
             } else {
-                bssidLevelDiff = neighbour.get(apMacAddress) + RSS_OFFSET;
+                bssidLevelDiff = referenceRss[j++] + RSS_OFFSET;
             }
-
             distanceSq += bssidLevelDiff * bssidLevelDiff;
+            if (distanceSq > limit)
+                return distanceSq;
         }
-
-        for (String apMacAddress : reference.keySet()) {
-            if (!neighbour.containsKey(apMacAddress)) {
-                bssidLevelDiff = reference.get(apMacAddress) + RSS_OFFSET;
-                distanceSq += bssidLevelDiff * bssidLevelDiff;
-            }
+        for (; i < neighbourIds.length; i++) {
+            bssidLevelDiff = neighbourRss[i] + RSS_OFFSET;
+            distanceSq += bssidLevelDiff * bssidLevelDiff;
         }
+        for (; j < referenceIds.length; j++) {
+            bssidLevelDiff = referenceRss[j] + RSS_OFFSET;
+            distanceSq += bssidLevelDiff * bssidLevelDiff;
+        }
+        return distanceSq;
+    }
+
+    /**
+     * Calculates the dissimilarity between two fingerprints based on the Euclidean distance of their signal strengths.
+     * The dissimilarity is calculated as the square root of the sum of squared differences in signal strengths.
+     *
+     * @param neighbour The fingerprint to be compared.
+     * @param reference The reference fingerprint against which the actual fingerprint is compared.
+     * @return A float value representing the dissimilarity between the two fingerprints.
+     */
+    public static float dissimilarity(Fingerprint neighbour, Fingerprint reference) {
+        if (neighbour == null || reference == null) return Float.MAX_VALUE;
+
+        int distanceSq = distanceSq(neighbour, reference, Integer.MAX_VALUE);
 
-        difference = (float) Math.sqrt(distanceSq);
+        return dissimilarity(distanceSq);
+    }
+
+    /**
+     * Converts a squared signal distance to a dissimilarity; identical scans get the smallest positive
+     * dissimilarity, so their inverse weight stays finite.
+     */
+    static float dissimilarity(int distanceSq) {
+        float difference = (float) Math.sqrt(distanceSq);
         if (difference == 0.0f) difference = Float.MIN_VALUE;
         return difference;
     }
@@ -86,10 +568,20 @@ public class Locator {
      * @return A list of fingerprints that have a score higher than the specified minimum score.
      */
     public static List<Fingerprint> getMarksWithSameAps2(List<Fingerprint> fingerprints, Fingerprint fingerprint) {
+        return getMarksWithSameAps2(fingerprints, fingerprint, null);
+    }
+
+    /**
+     * Filters a list of fingerprints like {@link #getMarksWithSameAps2(List, Fingerprint)}, reading the scores
+     * from a pairwise matrix when both fingerprints are members of its radio map.
+     */
+    private static List<Fingerprint> getMarksWithSameAps2(List<Fingerprint> fingerprints, Fingerprint fingerprint, PairwiseMatrix matrix) {
         NavigableMap<Integer, List<Fingerprint>> fingerprintsByScore = new TreeMap<>(Collections.<Integer>reverseOrder());
+        int row = matrix == null ? -1 : matrix.indexOf(fingerprint);
 
         for (Fingerprint f : fingerprints) {
-            final int score = score(fingerprint, f);
+            int column = row < 0 ? -1 : matrix.indexOf(f);
+            final int score = column < 0 ? score(fingerprint, f) : matrix.score(row, column);
 
             if (score > NEIGHBOUR_MIN_SCORE) {
                 List<Fingerprint> list = fingerprintsByScore.computeIfAbsent(score, k -> new ArrayList<>());
@@ -106,6 +598,226 @@ public class Locator {
         return bestFingerprints;
     }
 
+    /**
+     * Filters an indexed radio map to the fingerprints with the best score, exactly like
+     * {@link #getMarksWithSameAps2(List, Fingerprint)} over the indexed list.
+     * Only fingerprints sharing a strong AP with the given fingerprint are visited; every other fingerprint
+     * scores at most -1 and can never pass the minimum score.
+     *
+     * @param index The indexed radio map to be filtered.
+     * @param fingerprint The fingerprint used as a reference for scoring.
+     * @return A list of fingerprints that have the best score above the minimum score, in radio map order.
+     */
+    public static List<Fingerprint> getMarksWithSameAps2(RadioMapIndex index, Fingerprint fingerprint) {
+        return getMarksWithSameAps2(index, fingerprint, -1);
+    }
+
+    /**
+     * Filters an indexed radio map to the fingerprints with the best score, leaving one fingerprint out.
+     * This equals running {@link #getMarksWithSameAps2(List, Fingerprint)} on the radio map without that fingerprint.
+     *
+     * @param index The indexed radio map to be filtered.
+     * @param fingerprint The fingerprint used as a reference for scoring.
+     * @param excludedIndex The position of the fingerprint to leave out, or -1 to use the whole radio map.
+     * @return A list of fingerprints that have the best score above the minimum score, in radio map order.
+     */
+    public static List<Fingerprint> getMarksWithSameAps2(RadioMapIndex index, Fingerprint fingerprint, int excludedIndex) {
+        return bestFingerprints(index, fingerprint, excludedIndex);
+    }
+
+    /**
+     * Filters a sharded radio map to the fingerprints with the best score, exactly like
+     * {@link #getMarksWithSameAps2(List, Fingerprint)} over the whole radio map unless the radio map limits the
+     * number of zones searched per query.
+     *
+     * @param radioMap The sharded radio map to be filtered.
+     * @param fingerprint The fingerprint used as a reference for scoring.
+     * @return A list of fingerprints that have the best score above the minimum score, in radio map order.
+     */
+    public static List<Fingerprint> getMarksWithSameAps2(ShardedRadioMap radioMap, Fingerprint fingerprint) {
+        return getMarksWithSameAps2(radioMap, fingerprint, -1);
+    }
+
+    /**
+     * Filters a sharded radio map to the fingerprints with the best score, leaving one fingerprint out.
+     *
+     * @param radioMap The sharded radio map to be filtered.
+     * @param fingerprint The fingerprint used as a reference for scoring.
+     * @param excludedIndex The position of the fingerprint to leave out, or -1 to use the whole radio map.
+     * @return A list of fingerprints that have the best score above the minimum score, in radio map order.
+     */
+    public static List<Fingerprint> getMarksWithSameAps2(ShardedRadioMap radioMap, Fingerprint fingerprint, int excludedIndex) {
+        return bestFingerprints(radioMap, fingerprint, excludedIndex);
+    }
+
+    /**
+     * Filters the members of the clusters closest to a fingerprint to those with the best score, like
+     * {@link #getMarksWithSameAps2(List, Fingerprint)} over these members only.
+     *
+     * @param clustering The clustered radio map to be filtered.
+     * @param fingerprint The fingerprint used as a reference for scoring.
+     * @param probes The number of clusters to search.
+     * @return A list of fingerprints that have the best score above the minimum score, in radio map order.
+     */
+    public static List<Fingerprint> getMarksWithSameAps2(RadioMapClustering clustering, Fingerprint fingerprint, int probes) {
+        return getMarksWithSameAps2(clustering, fingerprint, probes, -1);
+    }
+
+    /**
+     * Filters the members of the clusters closest to a fingerprint to those with the best score, leaving one
+     * fingerprint out.
+     *
+     * @param clustering The clustered radio map to be filtered.
+     * @param fingerprint The fingerprint used as a reference for scoring.
+     * @param probes The number of clusters to search.
+     * @param excludedIndex The position of the fingerprint to leave out, or -1 to use the whole radio map.
+     * @return A list of fingerprints that have the best score above the minimum score, in radio map order.
+     */
+    public static List<Fingerprint> getMarksWithSameAps2(RadioMapClustering clustering, Fingerprint fingerprint,
+                                                         int probes, int excludedIndex) {
+        return bestFingerprints(clustering.probing(probes), fingerprint, excludedIndex);
+    }
+
+    /**
+     * Filters the fingerprints an LSH index retrieves for a fingerprint to those with the best score, like
+     * {@link #getMarksWithSameAps2(List, Fingerprint)} over the retrieved fingerprints only.
+     *
+     * @param index The LSH index of the radio map to be filtered.
+     * @param fingerprint The fingerprint used as a reference for scoring.
+     * @return A list of fingerprints that have the best score above the minimum score, in radio map order.
+     */
+    public static List<Fingerprint> getMarksWithSameAps2(LshRadioMapIndex index, Fingerprint fingerprint) {
+        return getMarksWithSameAps2(index, fingerprint, -1);
+    }
+
+    /**
+     * Filters the fingerprints an LSH index retrieves for a fingerprint to those with the best score, leaving one
+     * fingerprint out.
+     *
+     * @param index The LSH index of the radio map to be filtered.
+     * @param fingerprint The fingerprint used as a reference for scoring.
+     * @param excludedIndex The position of the fingerprint to leave out, or -1 to use the whole radio map.
+     * @return A list of fingerprints that have the best score above the minimum score, in radio map order.
+     */
+    public static List<Fingerprint> getMarksWithSameAps2(LshRadioMapIndex index, Fingerprint fingerprint, int excludedIndex) {
+        return bestFingerprints(index, fingerprint, excludedIndex);
+    }
+
+    /**
+     * Returns the fingerprints with the best score a search structure finds for a fingerprint, in radio map order.
+     */
+    private static List<Fingerprint> bestFingerprints(CandidateSource source, Fingerprint fingerprint, int excludedIndex) {
+        int[] best = source.bestPositions(fingerprint, excludedIndex);
+        List<Fingerprint> bestFingerprints = new ArrayList<>(best.length);
+        for (int i : best) {
+            bestFingerprints.add(source.get(i));
+        }
+        return bestFingerprints;
+    }
+
+    /**
+     * Filters candidate fingerprints of a radio map to those with the best score above the minimum score.
+     *
+     * @param fingerprints The fingerprints of the radio map.
+     * @param candidates The ascending positions of the candidates.
+     * @param fingerprint The fingerprint used as a reference for scoring.
+     * @param excludedIndex The position of the fingerprint to leave out, or -1.
+     * @return The ascending positions of the best candidates.
+     */
+    static int[] bestCandidates(List<Fingerprint> fingerprints, int[] candidates, Fingerprint fingerprint,
+                                int excludedIndex) {
+        int[] best = new int[candidates.length];
+        int bestCount = 0;
+        Fingerprint.StrongAps fingerprintAps = strongAps(fingerprint);
+        int bestScore = NEIGHBOUR_MIN_SCORE;
+        for (int i : candidates) {
+            if (i == excludedIndex)
+                continue;
+            int score = score(fingerprintAps, strongAps(fingerprints.get(i)));
+            if (score > bestScore) {
+                bestScore = score;
+                bestCount = 0;
+            }
+            if (score == bestScore && score > NEIGHBOUR_MIN_SCORE)
+                best[bestCount++] = i;
+        }
+        return Arrays.copyOf(best, bestCount);
+    }
+
+    /**
+     * Returns the ascending positions of the indexed fingerprints with the best score above the minimum score.
+     *
+     * @param index The indexed radio map to be filtered.
+     * @param fingerprintAps The strong APs of the fingerprint used as a reference for scoring.
+     * @param excludedIndex The position of the fingerprint to leave out, or -1 to use the whole radio map.
+     */
+    static int[] bestPositions(RadioMapIndex index, Fingerprint.StrongAps fingerprintAps, int excludedIndex) {
+        LocatorContext context = LocatorContext.current();
+        context.ensureCapacity(index.size(), 0);
+        int bestCount = bestPositions(index, fingerprintAps, excludedIndex, context);
+        return Arrays.copyOf(context.candidates, bestCount);
+    }
+
+    /**
+     * Finds the ascending positions of the indexed fingerprints with the best score like
+     * {@link #bestPositions(RadioMapIndex, Fingerprint.StrongAps, int)}, using the scratch buffers of a context
+     * instead of allocating.
+     *
+     * @param context Buffers of at least the index size; common holds only zeros, and again on return.
+     * @return The number of best positions, at the start of context.candidates.
+     */
+    static int bestPositions(RadioMapIndex index, Fingerprint.StrongAps fingerprintAps, int excludedIndex,
+                             LocatorContext context) {
+        int[] common = context.common;
+        int[] candidates = context.candidates;
+        int fingerprintApCount = fingerprintAps.count();
+
+        // Without strong APs the best possible score is 0, reached only by fingerprints without APs
+        if (fingerprintApCount == 0) {
+            // A scan without strong APs scores 0 against them, which only counts if 0 passes the minimum score
+            boolean emptyScorePasses = 0 > NEIGHBOUR_MIN_SCORE;
+            if (!emptyScorePasses)
+                return 0;
+            int bestCount = 0;
+            for (int i : index.withoutStrongAps()) {
+                if (i != excludedIndex)
+                    candidates[bestCount++] = i;
+            }
+            return bestCount;
+        }
+
+        // Count the common strong APs of every fingerprint reached through the posting lists
+        int candidateCount = 0;
+        for (int apId : fingerprintAps.ids) {
+            for (int i : index.postings(apId)) {
+                if (common[i]++ == 0)
+                    candidates[candidateCount++] = i;
+            }
+        }
+
+        // score = 2 * common - (|A| - common) - (|B| - common)
+        int bestScore = NEIGHBOUR_MIN_SCORE;
+        int bestCount = 0;
+        for (int c = 0; c < candidateCount; c++) {
+            int i = candidates[c];
+            int commonCount = common[i];
+            common[i] = 0;
+            if (i == excludedIndex)
+                continue;
+
+            int score = 4 * commonCount - fingerprintApCount - index.strongCount(i);
+            if (score > bestScore) {
+                bestScore = score;
+                bestCount = 0;
+            }
+            if (score == bestScore)
+                candidates[bestCount++] = i;
+        }
+
+        Arrays.sort(candidates, 0, bestCount);
+        return bestCount;
+    }
+
     /**
      * Calculates a score for a fingerprint based on the number of Access Points (APs) with a minimum RSSI.
      * The score is calculated as the number of common APs multiplied by 2 minus the number of unique APs in the fingerprint and the reference fingerprint.
@@ -115,16 +827,27 @@ public class Locator {
      * @return An integer representing the score of the fingerprint.
      */
     public static int score(Fingerprint fingerprint, Fingerprint refFp) {
-        Set<String> fingerprintAps = getApsWithMinRSS(fingerprint, MIN_RSS_TO_COUNT);
-        Set<String> refFpAps = getApsWithMinRSS(refFp, MIN_RSS_TO_COUNT);
-
-        Set<String> intersection = new HashSet<>(fingerprintAps);
-        intersection.retainAll(refFpAps);
+        return score(strongAps(fingerprint), strongAps(refFp));
+    }
 
-        fingerprintAps.removeAll(intersection);
-        refFpAps.removeAll(intersection);
+    /**
+     * Calculates the score between two sets of strong APs, like {@link #score(Fingerprint, Fingerprint)}.
+     */
+    static int score(Fingerprint.StrongAps fingerprintAps, Fingerprint.StrongAps refFpAps) {
+        // |A and B| * 2 - |A only| - |B only| == 4 * |A and B| - |A| - |B|
+        return 4 * Fingerprint.StrongAps.common(fingerprintAps, refFpAps) - fingerprintAps.count() - refFpAps.count();
+    }
 
-        return intersection.size() * 2 - fingerprintAps.size() - refFpAps.size();
+    /**
+     * Returns the strong APs of a fingerprint, as defined by {@link #getApsWithMinRSS}.
+     * The set is built once per fingerprint, when its radio map is loaded or indexed or else on its first score, so
+     * scoring does not allocate.
+     *
+     * @param fp The fingerprint from which APs are to be identified.
+     * @return The strong APs; empty if the fingerprint is null.
+     */
+    static Fingerprint.StrongAps strongAps(Fingerprint fp) {
+        return fp == null ? Fingerprint.StrongAps.NONE : fp.strongAps(MIN_RSS_TO_COUNT);
     }
 
     /**
@@ -142,11 +865,13 @@ public class Locator {
         if (fp == null)
             return strongAps;
 
-        for (String mac : fp.keySet()) {
-            if (fp.get(mac) > minRSS) {
-                strongAps.add(mac);
+        int[] apIds = fp.apIds();
+        byte[] rss = fp.rss();
+        for (int i = 0; i < apIds.length; i++) {
+            if (rss[i] > minRSS) {
+                strongAps.add(ApDictionary.mac(apIds[i]));
             } else {
-                weakAps.add(mac);
+                weakAps.add(ApDictionary.mac(apIds[i]));
             }
         }
 
@@ -155,60 +880,4 @@ public class Locator {
         }
         return strongAps;
     }
-
-    /**
-     * Represents a point in a two-dimensional space with floating-point coordinates.
-     * This class is used to store the calculated location of a fingerprint.
-     */
-    public class PointF {
-        private double x;
-        private double y;
-
-        /**
-         * Gets the x-coordinate of the point.
-         *
-         * @return The x-coordinate of the point.
-         */
-        public double getX() {
-            return x;
-        }
-
-        /**
-         * Sets the x-coordinate of the point.
-         *
-         * @param x The x-coordinate to set.
-         */
-        public void setX(double x) {
-            this.x = x;
-        }
-
-        /**
-         * Gets the y-coordinate of the point.
-         *
-         * @return The y-coordinate of the point.
-         */
-        public double getY() {
-            return y;
-        }
-
-        /**
-         * Sets the y-coordinate of the point.
-         *
-         * @param y The y-coordinate to set.
-         */
-        public void setY(double y) {
-            this.y = y;
-        }
-
-        /**
-         * Sets both the x and y coordinates of the point.
-         *
-         * @param x The x-coordinate to set.
-         * @param y The y-coordinate to set.
-         */
-        public void set(double x, double y) {
-            this.x = x;
-            this.y = y;
-        }
-    }
 }
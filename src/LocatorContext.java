@@ -0,0 +1,38 @@
+/**
+ * Reusable scratch buffers for {@link Locator#getLocation(RadioMapIndex, Fingerprint, LocatorContext, PointF)}.
+ * The buffers grow to the largest radio map and neighbour limit they were used with and are then reused, so a
+ * thread that keeps its context locates without allocating.
+ *
+ * <p>A context must only be used by one thread at a time. {@link #current()} returns one per thread.
+ */
+public final class LocatorContext {
+    private static final ThreadLocal<LocatorContext> contexts = ThreadLocal.withInitial(LocatorContext::new);
+
+    int[] common = new int[0];
+    int[] candidates = new int[0];
+    int[] heapDistances = new int[0];
+    int[] heapPositions = new int[0];
+
+    /**
+     * Returns the context of the current thread.
+     *
+     * @return The context, created on the first call of each thread.
+     */
+    public static LocatorContext current() {
+        return contexts.get();
+    }
+
+    /**
+     * Makes the buffers large enough for a radio map and a neighbour limit.
+     */
+    void ensureCapacity(int radioMapSize, int maxNeighbours) {
+        if (common.length < radioMapSize) {
+            common = new int[radioMapSize];
+            candidates = new int[radioMapSize];
+        }
+        if (heapDistances.length < maxNeighbours) {
+            heapDistances = new int[maxNeighbours];
+            heapPositions = new int[maxNeighbours];
+        }
+    }
+}
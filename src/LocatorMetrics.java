@@ -0,0 +1,295 @@
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of the Locator hot path: the time spent searching for the best score bucket and weighting it, the size of
+ * that bucket and its score, how often the weighted average is degenerate, and optionally the bytes allocated per
+ * query. Every value is recorded lock-free, so one instance can be shared by all threads using a Locator.
+ *
+ * <p>A Locator records into its metrics only when {@link Locator#setMetrics(LocatorMetrics)} was given an instance;
+ * without one the hot path only checks a field for null. The metrics can be read through JMX after
+ * {@link #register(String)}, or printed periodically with {@link #dumpPeriodically(PrintStream, long, TimeUnit)}.
+ */
+public class LocatorMetrics implements LocatorMetricsMBean {
+    private static final com.sun.management.ThreadMXBean threads = threadMXBean();
+    private static final ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "locator-metrics-dump");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LatencyHistogram searchNanos = new LatencyHistogram();
+    private final LatencyHistogram weightingNanos = new LatencyHistogram();
+    private final LatencyHistogram bucketSizes = new LatencyHistogram();
+    private final LatencyHistogram allocatedBytes = new LatencyHistogram();
+    private final AtomicLongArray bestScores = new AtomicLongArray(130);
+    private final LongAdder emptyBuckets = new LongAdder();
+    private final LongAdder degenerateWeights = new LongAdder();
+    private volatile boolean allocationTracking;
+    private ObjectName objectName;
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            if (threads.isThreadAllocatedMemorySupported())
+                return threads;
+        }
+        return null;
+    }
+
+    /**
+     * Counts the bytes allocated by each query, which costs about as much as the rest of the metrics together.
+     * Not every JVM can count allocations; on those this has no effect.
+     *
+     * @param allocationTracking true to count allocations.
+     */
+    @Override
+    public void setAllocationTracking(boolean allocationTracking) {
+        this.allocationTracking = allocationTracking && threads != null;
+    }
+
+    @Override
+    public boolean isAllocationTracking() {
+        return allocationTracking;
+    }
+
+    /**
+     * Returns whether this JVM can count the bytes allocated by a thread, and counting has not been turned off.
+     *
+     * @return true if {@link #allocatedBytes()} may be called.
+     */
+    static boolean isAllocationCountingSupported() {
+        return threads != null && threads.isThreadAllocatedMemoryEnabled();
+    }
+
+    /**
+     * Returns the bytes allocated so far by the current thread. Only valid while allocations are tracked, or where
+     * {@link #isAllocationCountingSupported()}.
+     */
+    static long allocatedBytes() {
+        return threads.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Records one query.
+     *
+     * @param searchNanos The time spent finding the best score bucket.
+     * @param weightingNanos The time spent weighting the bucket.
+     * @param bucketSize The number of neighbours in the bucket.
+     * @param bestScore The score of the bucket, ignored if the bucket is empty.
+     * @param location The calculated location.
+     * @param allocatedBytes The bytes allocated by the query, or a negative value if allocations are not tracked.
+     */
+    void record(long searchNanos, long weightingNanos, int bucketSize, int bestScore, PointF location, long allocatedBytes) {
+        this.searchNanos.record(searchNanos);
+        this.weightingNanos.record(weightingNanos);
+        bucketSizes.record(bucketSize);
+        if (bucketSize == 0) {
+            emptyBuckets.increment();
+        } else {
+            bestScores.incrementAndGet(Math.max(0, Math.min(bestScores.length() - 1, bestScore - Locator.NEIGHBOUR_MIN_SCORE)));
+            if (!Double.isFinite(location.getX()) || !Double.isFinite(location.getY()))
+                degenerateWeights.increment();
+        }
+        if (allocatedBytes >= 0)
+            this.allocatedBytes.record(allocatedBytes);
+    }
+
+    /**
+     * Returns the distribution of the time spent finding the best score bucket, in nanoseconds.
+     *
+     * @return The search time histogram.
+     */
+    public LatencyHistogram searchNanos() {
+        return searchNanos;
+    }
+
+    /**
+     * Returns the distribution of the time spent weighting the best score bucket, in nanoseconds.
+     *
+     * @return The weighting time histogram.
+     */
+    public LatencyHistogram weightingNanos() {
+        return weightingNanos;
+    }
+
+    /**
+     * Returns the distribution of the number of neighbours in the best score bucket.
+     *
+     * @return The bucket size histogram.
+     */
+    public LatencyHistogram bucketSizes() {
+        return bucketSizes;
+    }
+
+    /**
+     * Returns the distribution of the bytes allocated per query, while allocations are tracked.
+     *
+     * @return The allocation histogram.
+     */
+    public LatencyHistogram allocatedBytesPerQuery() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Returns how many queries had each best score.
+     *
+     * @param score The score.
+     * @return The number of queries whose best score bucket had that score.
+     */
+    public long bestScoreCount(int score) {
+        int slot = score - Locator.NEIGHBOUR_MIN_SCORE;
+        return slot < 0 || slot >= bestScores.length() ? 0 : bestScores.get(slot);
+    }
+
+    @Override
+    public long getQueryCount() {
+        return searchNanos.count();
+    }
+
+    @Override
+    public double getSearchMeanMicros() {
+        return searchNanos.mean() / 1000;
+    }
+
+    @Override
+    public double getSearchP99Micros() {
+        return searchNanos.percentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getWeightingMeanMicros() {
+        return weightingNanos.mean() / 1000;
+    }
+
+    @Override
+    public double getWeightingP99Micros() {
+        return weightingNanos.percentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getMeanBucketSize() {
+        return bucketSizes.mean();
+    }
+
+    @Override
+    public long getMaxBucketSize() {
+        return bucketSizes.max();
+    }
+
+    @Override
+    public double getMeanBestScore() {
+        long count = 0, sum = 0;
+        for (int slot = 0; slot < bestScores.length(); slot++) {
+            count += bestScores.get(slot);
+            sum += bestScores.get(slot) * (slot + Locator.NEIGHBOUR_MIN_SCORE);
+        }
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    @Override
+    public long getEmptyBuckets() {
+        return emptyBuckets.sum();
+    }
+
+    @Override
+    public long getDegenerateWeights() {
+        return degenerateWeights.sum();
+    }
+
+    @Override
+    public double getMeanAllocatedBytes() {
+        return allocatedBytes.mean();
+    }
+
+    /**
+     * Clears all metrics. Queries recorded while resetting may be partly lost.
+     */
+    @Override
+    public void reset() {
+        searchNanos.reset();
+        weightingNanos.reset();
+        bucketSizes.reset();
+        allocatedBytes.reset();
+        for (int slot = 0; slot < bestScores.length(); slot++) {
+            bestScores.set(slot, 0);
+        }
+        emptyBuckets.reset();
+        degenerateWeights.reset();
+    }
+
+    /**
+     * Returns all metrics as text.
+     *
+     * @return The metrics, one line per metric followed by the best score distribution.
+     */
+    @Override
+    public String dump() {
+        StringBuilder text = new StringBuilder();
+        text.append("Search us:    ").append(searchNanos.summary(1000)).append(System.lineSeparator());
+        text.append("Weighting us: ").append(weightingNanos.summary(1000)).append(System.lineSeparator());
+        text.append("Bucket size:  ").append(bucketSizes.summary(1)).append(System.lineSeparator());
+        text.append(String.format("Empty buckets: %d, degenerate weights: %d%n", getEmptyBuckets(), getDegenerateWeights()));
+        if (allocatedBytes.count() > 0)
+            text.append("Allocated B:  ").append(allocatedBytes.summary(1)).append(System.lineSeparator());
+        long total = 0;
+        for (int slot = 0; slot < bestScores.length(); slot++) {
+            total += bestScores.get(slot);
+        }
+        text.append("Best score:").append(System.lineSeparator());
+        for (int slot = 0; slot < bestScores.length(); slot++) {
+            long count = bestScores.get(slot);
+            if (count > 0) {
+                text.append(String.format("%12d %8d %6.2f%% %s%n", slot + Locator.NEIGHBOUR_MIN_SCORE, count,
+                        100.0 * count / total, "#".repeat((int) Math.round(40.0 * count / total))));
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Prints the metrics periodically on a daemon thread until the returned future is cancelled.
+     *
+     * @param out The stream to print to.
+     * @param period The time between dumps.
+     * @param unit The unit of the period.
+     * @return The future of the periodic dump, to cancel it.
+     */
+    public ScheduledFuture<?> dumpPeriodically(PrintStream out, long period, TimeUnit unit) {
+        return dumper.scheduleAtFixedRate(() -> out.print(dump()), period, period, unit);
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server as ZoozTester:type=LocatorMetrics,name=&lt;name&gt;.
+     *
+     * @param name The name distinguishing these metrics from other Locators' metrics.
+     * @return The name the metrics were registered under.
+     * @throws JMException If the name is invalid or already registered.
+     */
+    public synchronized ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("ZoozTester:type=LocatorMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        this.objectName = objectName;
+        return objectName;
+    }
+
+    /**
+     * Removes the metrics from the platform MBean server, if they were registered.
+     *
+     * @throws JMException If the metrics cannot be unregistered.
+     */
+    public synchronized void unregister() throws JMException {
+        if (objectName != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            objectName = null;
+        }
+    }
+}
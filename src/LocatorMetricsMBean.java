@@ -0,0 +1,35 @@
+/**
+ * The JMX view of {@link LocatorMetrics}. Times are in microseconds and allocations in bytes.
+ */
+public interface LocatorMetricsMBean {
+
+    long getQueryCount();
+
+    double getSearchMeanMicros();
+
+    double getSearchP99Micros();
+
+    double getWeightingMeanMicros();
+
+    double getWeightingP99Micros();
+
+    double getMeanBucketSize();
+
+    long getMaxBucketSize();
+
+    double getMeanBestScore();
+
+    long getEmptyBuckets();
+
+    long getDegenerateWeights();
+
+    double getMeanAllocatedBytes();
+
+    boolean isAllocationTracking();
+
+    void setAllocationTracking(boolean allocationTracking);
+
+    void reset();
+
+    String dump();
+}
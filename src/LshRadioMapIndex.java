@@ -0,0 +1,348 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * An approximate index of a radio map for very large maps, where even the pruned exact search of
+ * {@link RadioMapIndex} visits too many fingerprints. It retrieves the fingerprints whose strong APs are likely
+ * similar to a query's with MinHash locality-sensitive hashing, and only these candidates are scored and weighted.
+ *
+ * <p>Every fingerprint is summarized by the set of APs the score is calculated on: its strong APs, or all of its
+ * APs if fewer than three are strong. Each of bands x rows hash functions maps the set to the smallest hash of its
+ * members, and two sets get the same minimum with a probability equal to their Jaccard similarity. The minimums are
+ * grouped into bands of a number of rows, and a fingerprint is a candidate for a query if all rows of at least one
+ * band are equal: with similarity s this happens with probability 1 - (1 - s^rows)^bands. More rows retrieve fewer
+ * dissimilar fingerprints, more bands retrieve more of the similar ones.
+ *
+ * <p>Every band is a sorted array of the band hashes of all fingerprints, each packed with the fingerprint's
+ * position in its low bits, so a lookup is a binary search. Fingerprints without APs are only candidates for queries
+ * without APs, which is exact, since they can only reach the best score against such queries.
+ */
+public class LshRadioMapIndex implements CandidateSource {
+    private final List<Fingerprint> fingerprints;
+    private final int bands;
+    private final int rows;
+    private final long[] multipliers;
+    private final long[] increments;
+    private final long[][] buckets;
+    private final long positionMask;
+    private final int[] withoutAps;
+    private final ThreadLocal<long[]> seen;
+
+    /**
+     * Indexes a radio map.
+     *
+     * @param fingerprints The fingerprints of the radio map, in the order results should be reported.
+     * @param bands The number of bands.
+     * @param rows The number of hash functions per band.
+     * @param seed The seed of the hash functions, so the same index can be built again.
+     */
+    public LshRadioMapIndex(List<Fingerprint> fingerprints, int bands, int rows, long seed) {
+        if (bands < 1 || rows < 1)
+            throw new IllegalArgumentException("Bands and rows must be positive: " + bands + " x " + rows);
+        this.fingerprints = Collections.unmodifiableList(new ArrayList<>(fingerprints));
+        this.bands = bands;
+        this.rows = rows;
+
+        Random random = new Random(seed);
+        multipliers = new long[bands * rows];
+        increments = new long[bands * rows];
+        for (int h = 0; h < multipliers.length; h++) {
+            multipliers[h] = random.nextLong() | 1;
+            increments[h] = random.nextLong();
+        }
+
+        int n = this.fingerprints.size();
+        positionMask = n <= 1 ? 1 : Long.highestOneBit(n - 1) * 2 - 1;
+        buckets = new long[bands][n];
+        int[] lengths = new int[bands];
+        int[] withoutAps = new int[n];
+        int withoutApCount = 0;
+        long[] bandHashes = new long[bands];
+        for (int i = 0; i < n; i++) {
+            if (!bandHashes(Locator.strongAps(this.fingerprints.get(i)).ids, bandHashes)) {
+                withoutAps[withoutApCount++] = i;
+                continue;
+            }
+            for (int band = 0; band < bands; band++) {
+                buckets[band][lengths[band]++] = bandHashes[band] & ~positionMask | i;
+            }
+        }
+        for (int band = 0; band < bands; band++) {
+            buckets[band] = Arrays.copyOf(buckets[band], lengths[band]);
+            Arrays.sort(buckets[band]);
+        }
+        this.withoutAps = Arrays.copyOf(withoutAps, withoutApCount);
+        this.seen = ThreadLocal.withInitial(() -> new long[(n + 63) >>> 6]);
+    }
+
+    /**
+     * Calculates the hash of every band of a set of APs.
+     *
+     * @return false if the set is empty.
+     */
+    private boolean bandHashes(int[] aps, long[] bandHashes) {
+        long[] minimums = new long[multipliers.length];
+        Arrays.fill(minimums, Long.MAX_VALUE);
+        for (long apId : aps) {
+            for (int h = 0; h < minimums.length; h++) {
+                // The high half of a multiply-add hash is close to independent for every pair of constants
+                long hash = (apId * multipliers[h] + increments[h]) >>> 32;
+                if (hash < minimums[h])
+                    minimums[h] = hash;
+            }
+        }
+        for (int band = 0; band < bands; band++) {
+            long hash = band;
+            for (int row = 0; row < rows; row++) {
+                hash = (hash + minimums[band * rows + row]) * 0x9E3779B97F4A7C15L;
+                hash ^= hash >>> 29;
+            }
+            bandHashes[band] = hash;
+        }
+        return aps.length > 0;
+    }
+
+    /**
+     * Returns the ascending positions of the fingerprints that share all rows of at least one band with a
+     * fingerprint.
+     *
+     * @param fingerprint The fingerprint to search for.
+     * @return The positions of the candidate fingerprints.
+     */
+    int[] candidatePositions(Fingerprint fingerprint) {
+        long[] bandHashes = new long[bands];
+        if (!bandHashes(Locator.strongAps(fingerprint).ids, bandHashes))
+            return withoutAps.clone();
+
+        // A fingerprint found by several bands is searched once: the thread's bit set marks the ones already found,
+        // and only their bits are cleared again, so a query does not pay for the size of the radio map
+        long[] seen = this.seen.get();
+        int[] candidates = new int[16];
+        int count = 0;
+        for (int band = 0; band < bands; band++) {
+            long[] bucket = buckets[band];
+            long key = bandHashes[band] & ~positionMask;
+            int i = Arrays.binarySearch(bucket, key);
+            for (i = i < 0 ? -i - 1 : i; i < bucket.length && (bucket[i] & ~positionMask) == key; i++) {
+                int position = (int) (bucket[i] & positionMask);
+                if ((seen[position >>> 6] & 1L << position) != 0)
+                    continue;
+                seen[position >>> 6] |= 1L << position;
+                if (count == candidates.length)
+                    candidates = Arrays.copyOf(candidates, count * 2);
+                candidates[count++] = position;
+            }
+        }
+        if (count >= seen.length) {
+            // Many candidates: reading the bits back in order is cheaper than sorting them
+            count = 0;
+            for (int word = 0; word < seen.length; word++) {
+                for (long bits = seen[word]; bits != 0; bits &= bits - 1) {
+                    candidates[count++] = word * 64 + Long.numberOfTrailingZeros(bits);
+                }
+                seen[word] = 0;
+            }
+            return Arrays.copyOf(candidates, count);
+        }
+        for (int i = 0; i < count; i++) {
+            seen[candidates[i] >>> 6] = 0;
+        }
+        candidates = Arrays.copyOf(candidates, count);
+        Arrays.sort(candidates);
+        return candidates;
+    }
+
+    /**
+     * Returns the number of fingerprints.
+     *
+     * @return The number of fingerprints.
+     */
+    public int size() {
+        return fingerprints.size();
+    }
+
+    /**
+     * Returns the fingerprints, in their original order.
+     *
+     * @return An unmodifiable list of the fingerprints.
+     */
+    public List<Fingerprint> fingerprints() {
+        return fingerprints;
+    }
+
+    /**
+     * Returns the fingerprint at the given position.
+     *
+     * @param index The position of the fingerprint.
+     * @return The fingerprint.
+     */
+    @Override
+    public Fingerprint get(int index) {
+        return fingerprints.get(index);
+    }
+
+    /**
+     * Returns the ascending positions of the retrieved fingerprints with the best score above the minimum score.
+     *
+     * @param fingerprint The fingerprint used as a reference for scoring.
+     * @param excludedIndex The position of the fingerprint to leave out, or -1 to use the whole radio map.
+     * @return The positions of the best retrieved fingerprints.
+     */
+    @Override
+    public int[] bestPositions(Fingerprint fingerprint, int excludedIndex) {
+        return Locator.bestCandidates(fingerprints, candidatePositions(fingerprint), fingerprint, excludedIndex);
+    }
+
+    /**
+     * Returns the number of bands.
+     *
+     * @return The number of bands.
+     */
+    public int bands() {
+        return bands;
+    }
+
+    /**
+     * Returns the number of hash functions per band.
+     *
+     * @return The number of rows.
+     */
+    public int rows() {
+        return rows;
+    }
+
+    /**
+     * Sweeps the number of bands and rows, and reports how well the approximate search finds the best neighbours of
+     * the exact search, how much the locations move, and how long it takes, leave-one-out over every fingerprint of
+     * the radio map and over the queries. A query that is a copy of a radio map fingerprint is located without that
+     * fingerprint.
+     *
+     * <p>Recall is the share of the exact best neighbours that the approximate search returns; exact is the share
+     * of queries whose neighbours are exactly the same; error is the mean distance of the locations from the
+     * queries' centers, and shift their mean distance from the exact locations.
+     *
+     * @param args The radio map JSON file (radio_map.json by default) and the queries with known centers
+     *             (training.json by default).
+     * @throws IOException If a file cannot be loaded.
+     */
+    public static void main(String[] args) throws IOException {
+        String jsonFilePath = args.length > 0 ? args[0] : "radio_map.json";
+        String queriesFilePath = args.length > 1 ? args[1] : "training.json";
+        List<Fingerprint> radioMap = RadioMapLoader.load(Paths.get(jsonFilePath));
+        List<Fingerprint> queries = RadioMapLoader.load(Paths.get(queriesFilePath));
+
+        int[] radioMapExcluded = new int[radioMap.size()];
+        for (int i = 0; i < radioMapExcluded.length; i++) {
+            radioMapExcluded[i] = i;
+        }
+        int[] queriesExcluded = new int[queries.size()];
+        for (int q = 0; q < queriesExcluded.length; q++) {
+            queriesExcluded[q] = -1;
+            for (int i = 0; i < radioMap.size() && queriesExcluded[q] < 0; i++) {
+                Fingerprint fingerprint = radioMap.get(i);
+                if (Arrays.equals(fingerprint.apIds(), queries.get(q).apIds()) && Arrays.equals(fingerprint.rss(), queries.get(q).rss())
+                        && fingerprint.center.x == queries.get(q).center.x && fingerprint.center.y == queries.get(q).center.y)
+                    queriesExcluded[q] = i;
+            }
+        }
+
+        int[][] parameters = {{4, 1}, {8, 1}, {16, 1}, {4, 2}, {8, 2}, {16, 2}, {32, 2}, {8, 3}, {16, 3}, {32, 3}, {32, 4}};
+        List<LshRadioMapIndex> indexes = new ArrayList<>();
+        for (int[] bandsAndRows : parameters) {
+            long start = System.nanoTime();
+            indexes.add(new LshRadioMapIndex(radioMap, bandsAndRows[0], bandsAndRows[1], 1));
+            System.out.printf("%d x %d indexed in %.1f ms%n", bandsAndRows[0], bandsAndRows[1], (System.nanoTime() - start) / 1e6);
+        }
+        report(jsonFilePath + ", leave-one-out", radioMap, radioMapExcluded, radioMap, indexes);
+        report(queriesFilePath, queries, queriesExcluded, radioMap, indexes);
+    }
+
+    private static void report(String title, List<Fingerprint> queries, int[] excluded, List<Fingerprint> radioMap,
+                               List<LshRadioMapIndex> indexes) {
+        Locator locator = new Locator();
+        RadioMapIndex exactIndex = new RadioMapIndex(radioMap);
+        List<List<Fingerprint>> exactMarks = new ArrayList<>();
+        PointF[] exactLocations = new PointF[queries.size()];
+        for (int q = 0; q < queries.size(); q++) {
+            exactMarks.add(Locator.getMarksWithSameAps2(exactIndex, queries.get(q), excluded[q]));
+            exactLocations[q] = locator.getLocation(exactIndex, queries.get(q), excluded[q]);
+        }
+        double exactMicros = micros(queries, q -> locator.getLocation(exactIndex, queries.get(q), excluded[q]));
+
+        System.out.printf("%n%s: %d queries against %d fingerprints%n", title, queries.size(), radioMap.size());
+        System.out.printf("%-8s %10s %8s %8s %8s %8s %10s%n", "bands", "searched", "recall", "exact", "error", "shift", "us/query");
+        System.out.printf("%-8s %10d %7.1f%% %7.1f%% %8.2f %8s %10.2f%n", "exact", radioMap.size(), 100.0, 100.0,
+                meanError(queries, exactLocations), "-", exactMicros);
+
+        for (LshRadioMapIndex index : indexes) {
+            long searched = 0, found = 0, total = 0;
+            int same = 0;
+            double shift = 0;
+            int shifted = 0;
+            PointF[] locations = new PointF[queries.size()];
+            for (int q = 0; q < queries.size(); q++) {
+                Fingerprint query = queries.get(q);
+                searched += index.candidatePositions(query).length;
+                List<Fingerprint> marks = Locator.getMarksWithSameAps2(index, query, excluded[q]);
+                List<Fingerprint> exact = exactMarks.get(q);
+                for (Fingerprint mark : exact) {
+                    if (marks.contains(mark))
+                        found++;
+                }
+                total += exact.size();
+                if (marks.equals(exact))
+                    same++;
+                locations[q] = locator.getLocation(index, query, excluded[q]);
+                if (!Double.isNaN(locations[q].getX()) && !Double.isNaN(exactLocations[q].getX())) {
+                    shift += Main.calculateDistance(locations[q].getX(), locations[q].getY(),
+                            exactLocations[q].getX(), exactLocations[q].getY());
+                    shifted++;
+                }
+            }
+            double micros = micros(queries, q -> locator.getLocation(index, queries.get(q), excluded[q]));
+            System.out.printf("%-8s %10d %7.1f%% %7.1f%% %8.2f %8.2f %10.2f%n", index.bands() + " x " + index.rows(),
+                    searched / queries.size(), total == 0 ? 100.0 : 100.0 * found / total, 100.0 * same / queries.size(),
+                    meanError(queries, locations), shifted == 0 ? 0 : shift / shifted, micros);
+        }
+    }
+
+    /**
+     * Returns the mean distance of the located queries from their centers.
+     */
+    private static double meanError(List<Fingerprint> queries, PointF[] locations) {
+        double error = 0;
+        int located = 0;
+        for (int q = 0; q < queries.size(); q++) {
+            if (Double.isNaN(locations[q].getX()))
+                continue;
+            error += Main.calculateDistance(locations[q].getX(), locations[q].getY(), queries.get(q).center.x, queries.get(q).center.y);
+            located++;
+        }
+        return located == 0 ? Double.NaN : error / located;
+    }
+
+    /**
+     * Returns the mean time per query in microseconds, after a warm-up.
+     */
+    private static double micros(List<Fingerprint> queries, java.util.function.IntConsumer locate) {
+        for (long warmUpEnd = System.nanoTime() + 1_000_000_000L; System.nanoTime() < warmUpEnd; ) {
+            for (int q = 0; q < queries.size(); q++) {
+                locate.accept(q);
+            }
+        }
+        long located = 0;
+        long start = System.nanoTime();
+        do {
+            for (int q = 0; q < queries.size(); q++) {
+                locate.accept(q);
+            }
+            located += queries.size();
+        } while (System.nanoTime() - start < 500_000_000L);
+        return (System.nanoTime() - start) / 1e3 / located;
+    }
+}
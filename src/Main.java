@@ -1,10 +1,14 @@
 import org.json.JSONArray;
 import org.json.JSONObject;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Random;
 import java.util.Scanner;
 
@@ -24,9 +28,19 @@ public class Main {
         testProximityLocation(15,750);
         next("\nPress Enter To Continue... \n");
 
+        // Test 1.2 - Finding every removed fingerprint from set (leave-one-out)
+        System.out.println("\nTest: Evaluate the Locator on every fingerprint of the radio map with leave-one-out \n");
+        leaveOneOutEvaluation("radio_map.json");
+        next("\nPress Enter To Continue... \n");
+
         // Test 2 - Cluster Knn fingerprint reduction
         System.out.println("\nTest: Demonstrate the use of the different clusters for finding proximity points \n");
         decreasingProximityPointFinding(15);
+        next("\nPress Enter To Continue... \n");
+
+        // Test 3 - Loading the radio map with the DOM parser and the streaming loader
+        System.out.println("\nTest: Compare the load time and peak heap of the radio map loaders \n");
+        compareRadioMapLoaders("radio_map.json");
         next("\nPress Enter To Finish Program... \n");
 
 
@@ -38,9 +52,26 @@ public class Main {
     }
 
     private static void testProximityLocation(int numberOfTests, int bound) {
+        List<Fingerprint> fingerprints = new ArrayList<>();
+        loadFingerprints(fingerprints, "radio_map.json");
+        RadioMapIndex index = new RadioMapIndex(fingerprints);
+
         Random rand = new Random();
         for(int i = 0 ; i < numberOfTests ; i++)
-            proximityPointFinding(rand.nextInt(bound));
+            proximityPointFinding(index, rand.nextInt(bound));
+    }
+
+    /**
+     * Runs a leave-one-out evaluation over every fingerprint of a radio map and prints its report.
+     *
+     * @param jsonFilePath The path to the JSON file containing the fingerprints.
+     */
+    private static void leaveOneOutEvaluation(String jsonFilePath) {
+        List<Fingerprint> fingerprints = new ArrayList<>();
+        loadFingerprints(fingerprints, jsonFilePath);
+
+        LeaveOneOutEvaluator evaluator = new LeaveOneOutEvaluator(fingerprints);
+        System.out.print(evaluator.evaluate(Runtime.getRuntime().availableProcessors()));
     }
 
     /**
@@ -50,17 +81,17 @@ public class Main {
     private static void decreasingProximityPointFinding(int removedFingerPrintIndex) {
         List<Fingerprint> trainingPrints = new ArrayList<>();
 
-        Locator locator = new Locator();
-
-        jsonParseFingerprints(trainingPrints, "training.json");
+        loadFingerprints(trainingPrints, "training.json");
         Fingerprint firstFinger = trainingPrints.get(removedFingerPrintIndex);
         trainingPrints.remove(removedFingerPrintIndex);
 
-        while(!trainingPrints.isEmpty()) {
-            Locator.PointF point = locator.getLocation(trainingPrints, firstFinger);
-            System.out.println("Number of neighbours: " + trainingPrints.size());
-            printResults(firstFinger, point);
-            trainingPrints.remove(0);
+        // Remove the first fingerprint at each step, locating the removed fingerprint incrementally
+        MapReductionRunner runner = new MapReductionRunner(trainingPrints);
+        double[] locations = runner.locations(firstFinger, RemovalOrder.byIndex());
+
+        for (int step = 0; step < trainingPrints.size(); step++) {
+            System.out.println("Number of neighbours: " + (trainingPrints.size() - step));
+            printResults(firstFinger, locations[2 * step], locations[2 * step + 1]);
         }
     }
 
@@ -73,12 +104,27 @@ public class Main {
 
         Locator locator = new Locator();
 
-        jsonParseFingerprints(fingerprints, "radio_map.json");
+        loadFingerprints(fingerprints, "radio_map.json");
 
         Fingerprint removedFingerPrint = fingerprints.get(removedFingerPrintIndex);
         fingerprints.remove(removedFingerPrintIndex);
 
-        Locator.PointF point = locator.getLocation(fingerprints, removedFingerPrint);
+        PointF point = locator.getLocation(fingerprints, removedFingerPrint);
+
+        printResults(removedFingerPrint, point);
+    }
+
+    /**
+     * Finds the point of a fingerprint in an already indexed radio map, leaving that fingerprint out of the search.
+     *
+     * @param index The indexed radio map.
+     * @param removedFingerPrintIndex The position of the fingerprint to locate.
+     */
+    private static void proximityPointFinding(RadioMapIndex index, int removedFingerPrintIndex) {
+        Locator locator = new Locator();
+
+        Fingerprint removedFingerPrint = index.get(removedFingerPrintIndex);
+        PointF point = locator.getLocation(index, removedFingerPrint, removedFingerPrintIndex);
 
         printResults(removedFingerPrint, point);
     }
@@ -90,7 +136,18 @@ public class Main {
      * @param removedFingerPrint The original fingerprint used for the location finding process.
      * @param point The calculated location based on the remaining fingerprints.
      */
-    private static void printResults(Fingerprint removedFingerPrint, Locator.PointF point) {
+    private static void printResults(Fingerprint removedFingerPrint, PointF point) {
+        printResults(removedFingerPrint, point.getX(), point.getY());
+    }
+
+    /**
+     * Prints the results of the location finding process for a calculated location given by its coordinates.
+     *
+     * @param removedFingerPrint The original fingerprint used for the location finding process.
+     * @param x The x-coordinate of the calculated location.
+     * @param y The y-coordinate of the calculated location.
+     */
+    private static void printResults(Fingerprint removedFingerPrint, double x, double y) {
         // ANSI escape codes for bold red and bold turquoise
         String boldRed = "\033[1;31m";
         String boldTurquoise = "\033[1;36m";
@@ -100,8 +157,8 @@ public class Main {
         System.out.print(boldRed + "Expected FingerPrint: (" +removedFingerPrint.center.x + " , " + removedFingerPrint.center.y +")" + reset + " | ");
 
         // Print calculated user location with values first, then descriptions in parentheses
-        System.out.print(boldTurquoise + "Actual FingerPrint:(" + String.format("%.6f", point.getX()) + " , " + String.format("%.6f", point.getY()) +")" + reset);
-        System.out.println(" Distance from point: " + calculateDistance(point.getX(), point.getY(), removedFingerPrint.center.x, removedFingerPrint.center.y));
+        System.out.print(boldTurquoise + "Actual FingerPrint:(" + String.format("%.6f", x) + " , " + String.format("%.6f", y) +")" + reset);
+        System.out.println(" Distance from point: " + calculateDistance(x, y, removedFingerPrint.center.x, removedFingerPrint.center.y));
     }
 
     /**
@@ -127,7 +184,7 @@ public class Main {
      * @param fingerprints A list to which the parsed fingerprints will be added.
      * @param jsonFilePath The path to the JSON file containing the fingerprints.
      */
-    private static void jsonParseFingerprints(List<Fingerprint> fingerprints, String jsonFilePath) {
+    static void jsonParseFingerprints(List<Fingerprint> fingerprints, String jsonFilePath) {
         try {
             // Read the JSON file
             String jsonText = new String(Files.readAllBytes(Paths.get(jsonFilePath)));
@@ -159,8 +216,7 @@ public class Main {
                 fingerprint.color =color;
                 fingerprint.isRemoved = isRemoved;
 
-                for (int j = 0; j < wifiFingerprint.names().length(); j++) {
-                    String mac = wifiFingerprint.names().getString(j);
+                for (String mac : wifiFingerprint.keySet()) {
                     int signal = wifiFingerprint.getInt(mac);
                     MacAndValue macAndValue = new MacAndValue(mac, signal);
                     fingerprint.instance.macsAndValues.add(macAndValue);
@@ -169,6 +225,8 @@ public class Main {
                 for (int j = 0; j < color4f.length(); j++) {
                     fingerprint.color4f.add(color4f.getInt(j));
                 }
+                // Build the strong APs while loading, so the first queries do not pay for them
+                Locator.strongAps(fingerprint);
 
                 fingerprints.add(fingerprint);
             }
@@ -176,4 +234,81 @@ public class Main {
             System.out.println("An error occurred: " + e.getMessage());
         }
     }
+
+    /**
+     * Loads fingerprints from a JSON file with the streaming {@link RadioMapLoader} and adds them to a list of fingerprints.
+     *
+     * @param fingerprints A list to which the loaded fingerprints will be added.
+     * @param jsonFilePath The path to the JSON file containing the fingerprints.
+     */
+    private static void loadFingerprints(List<Fingerprint> fingerprints, String jsonFilePath) {
+        try (InputStream in = Files.newInputStream(Paths.get(jsonFilePath))) {
+            RadioMapLoader.load(in, fingerprints::add);
+        } catch (IOException e) {
+            System.out.println("An error occurred: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Loads the same radio map with the org.json DOM parser and with the streaming loader,
+     * and prints the load time and peak heap usage of each.
+     *
+     * @param jsonFilePath The path to the JSON file containing the fingerprints.
+     */
+    private static void compareRadioMapLoaders(String jsonFilePath) {
+        // Warm up both paths so the comparison is not dominated by class loading and JIT compilation
+        for (int i = 0; i < 3; i++) {
+            jsonParseFingerprints(new ArrayList<>(), jsonFilePath);
+            loadFingerprints(new ArrayList<>(), jsonFilePath);
+        }
+
+        for (int loader = 0; loader < 2; loader++) {
+            List<Fingerprint> fingerprints = new ArrayList<>();
+            long baseline = resetPeakHeap();
+
+            long start = System.nanoTime();
+            if (loader == 0) {
+                jsonParseFingerprints(fingerprints, jsonFilePath);
+            } else {
+                loadFingerprints(fingerprints, jsonFilePath);
+            }
+            long elapsed = System.nanoTime() - start;
+
+            System.out.println((loader == 0 ? "org.json DOM parser:  " : "Streaming loader:     ")
+                    + fingerprints.size() + " fingerprints in " + String.format("%.2f", elapsed / 1e6) + " ms,"
+                    + " peak heap growth " + String.format("%.2f", (peakHeap() - baseline) / 1048576.0) + " MB");
+        }
+    }
+
+    /**
+     * Runs a garbage collection and resets the peak usage of all heap memory pools.
+     *
+     * @return The heap usage after the collection, in bytes.
+     */
+    private static long resetPeakHeap() {
+        System.gc();
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                used += pool.getUsage().getUsed();
+            }
+        }
+        return used;
+    }
+
+    /**
+     * Returns the sum of the peak usage of all heap memory pools since they were last reset.
+     *
+     * @return The peak heap usage, in bytes.
+     */
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
 }
@@ -0,0 +1,254 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Runs map-reduction experiments: fingerprints are removed from a radio map one at a time, and after every removal
+ * the queries are located again against what remains, to see how few fingerprints are enough.
+ *
+ * <p>Instead of calling {@link Locator#getLocation} from scratch after every removal, the runner scores every
+ * fingerprint against a query once and groups them by score. A location only depends on the best score group that
+ * still has fingerprints left, so it is recalculated only when a removal touches that group, and each dissimilarity
+ * is calculated at most once. Every location is identical to calling getLocation on the reduced radio map.
+ */
+public class MapReductionRunner {
+    // Queries per thread located between two additions of their errors to the curve
+    private static final int ERROR_BLOCK_QUERIES = 16;
+
+    private final List<Fingerprint> radioMap;
+    private final PairwiseMatrix matrix;
+
+    /**
+     * Creates a runner for a radio map.
+     *
+     * @param radioMap The radio map to be reduced.
+     */
+    public MapReductionRunner(List<Fingerprint> radioMap) {
+        this(radioMap, null);
+    }
+
+    /**
+     * Creates a runner for a radio map that reads the scores and dissimilarities of queries that are members of the
+     * radio map from a precomputed pairwise matrix, so repeated experiments on the same map do not recalculate them.
+     *
+     * @param radioMap The radio map to be reduced.
+     * @param matrix The pairwise matrix of the radio map, or null to always calculate.
+     */
+    public MapReductionRunner(List<Fingerprint> radioMap, PairwiseMatrix matrix) {
+        if (matrix != null) {
+            for (int i = 0; i < radioMap.size(); i++) {
+                if (matrix.indexOf(radioMap.get(i)) != i)
+                    throw new IllegalArgumentException("The pairwise matrix was built for a different radio map");
+            }
+        }
+        this.radioMap = radioMap;
+        this.matrix = matrix;
+    }
+
+    /**
+     * The mean error of many queries at every step of a reduction.
+     */
+    public static class Curve {
+        /** The mean error at each step over the queries that could be located; step k has k fingerprints removed. */
+        public final double[] meanErrors;
+        /** The number of queries that could not be located at each step. */
+        public final int[] failures;
+        /** The wall-clock time of the whole run, in nanoseconds. */
+        public final long elapsedNanos;
+
+        Curve(double[] meanErrors, int[] failures, long elapsedNanos) {
+            this.meanErrors = meanErrors;
+            this.failures = failures;
+            this.elapsedNanos = elapsedNanos;
+        }
+    }
+
+    /**
+     * Locates a single query at every step of a reduction.
+     * A query that is itself a member of the radio map is left out of its own search.
+     *
+     * @param query The fingerprint to be located.
+     * @param order The order in which fingerprints are removed.
+     * @return The x and y coordinates at each step, as {x0, y0, x1, y1, ...}; step k has k fingerprints removed,
+     * and a step without any neighbour has NaN coordinates.
+     */
+    public double[] locations(Fingerprint query, RemovalOrder order) {
+        return locations(query, order.order(radioMap));
+    }
+
+    /**
+     * Locates many queries at every step of a reduction and averages their errors.
+     * The queries' known centers are used to calculate the errors; queries that are members of the radio map
+     * are left out of their own search, so passing the radio map itself gives a leave-one-out curve.
+     *
+     * @param queries The fingerprints to be located.
+     * @param order The order in which fingerprints are removed.
+     * @param parallelism The number of threads to use, from the Locator's shared batch pool of that parallelism.
+     * @return The error curve of the reduction.
+     */
+    public Curve run(List<Fingerprint> queries, RemovalOrder order, int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+
+        long start = System.nanoTime();
+        int[] removalOrder = order.order(radioMap);
+        double[] sums = new double[radioMap.size()];
+        int[] failures = new int[radioMap.size()];
+
+        // Locate the queries a block at a time and add each block's errors in query order, so only one block of
+        // errors is held at once and the curve does not depend on the parallelism
+        int blockSize = Math.min(queries.size(), ERROR_BLOCK_QUERIES * parallelism);
+        float[][] block = new float[blockSize][radioMap.size()];
+        ForkJoinPool pool = Locator.batchPool(parallelism);
+        for (int first = 0; first < queries.size(); first += blockSize) {
+            int base = first;
+            int count = Math.min(blockSize, queries.size() - first);
+            pool.submit(() -> IntStream.range(0, count).parallel().forEach(b -> {
+                Fingerprint query = queries.get(base + b);
+                double[] locations = locations(query, removalOrder);
+                float[] queryErrors = block[b];
+                for (int k = 0; k < queryErrors.length; k++) {
+                    queryErrors[k] = (float) Main.calculateDistance(locations[2 * k], locations[2 * k + 1], query.center.x, query.center.y);
+                }
+            })).join();
+
+            for (int b = 0; b < count; b++) {
+                float[] queryErrors = block[b];
+                for (int k = 0; k < sums.length; k++) {
+                    if (Float.isNaN(queryErrors[k])) {
+                        failures[k]++;
+                    } else {
+                        sums[k] += queryErrors[k];
+                    }
+                }
+            }
+        }
+
+        double[] meanErrors = new double[radioMap.size()];
+        for (int k = 0; k < meanErrors.length; k++) {
+            meanErrors[k] = queries.size() == failures[k] ? Double.NaN : sums[k] / (queries.size() - failures[k]);
+        }
+        return new Curve(meanErrors, failures, System.nanoTime() - start);
+    }
+
+    private double[] locations(Fingerprint query, int[] removalOrder) {
+        int n = radioMap.size();
+        int row = matrix == null ? -1 : matrix.indexOf(query);
+
+        // Score every fingerprint once and sort the neighbours by score, best first, then by position
+        int candidateCount = 0;
+        long[] candidates = new long[n];
+        for (int i = 0; i < n; i++) {
+            Fingerprint fingerprint = radioMap.get(i);
+            if (fingerprint == query)
+                continue;
+            int score = row < 0 ? Locator.score(query, fingerprint) : matrix.score(row, i);
+            if (score > Locator.NEIGHBOUR_MIN_SCORE)
+                candidates[candidateCount++] = (long) -score << 32 | i;
+        }
+        Arrays.sort(candidates, 0, candidateCount);
+
+        // Split the sorted neighbours into groups of equal score
+        int[] members = new int[candidateCount];
+        int[] groupOf = new int[n];
+        Arrays.fill(groupOf, -1);
+        int[] groupStart = new int[candidateCount + 1];
+        int[] alive = new int[candidateCount];
+        int groupCount = 0;
+        for (int c = 0; c < candidateCount; c++) {
+            members[c] = (int) candidates[c];
+            if (c == 0 || candidates[c] >>> 32 != candidates[c - 1] >>> 32)
+                groupStart[groupCount++] = c;
+            groupOf[members[c]] = groupCount - 1;
+            alive[groupCount - 1]++;
+        }
+        groupStart[groupCount] = candidateCount;
+
+        float[] distances = new float[n];
+        boolean[] removed = new boolean[n];
+        double[] locations = new double[2 * n];
+        int group = 0;
+        boolean changed = true;
+        double x = Double.NaN, y = Double.NaN;
+        for (int step = 0; step < n; step++) {
+            if (step > 0) {
+                int removedIndex = removalOrder[step - 1];
+                removed[removedIndex] = true;
+                int removedGroup = groupOf[removedIndex];
+                if (removedGroup >= 0) {
+                    alive[removedGroup]--;
+                    changed |= removedGroup == group;
+                }
+            }
+            while (group < groupCount && alive[group] == 0) {
+                group++;
+                changed = true;
+            }
+
+            if (changed) {
+                // Weight the best group in radio map order, exactly like Locator.getLocation
+                float sumX = 0, sumY = 0;
+                float weight;
+                float weightSum = 0;
+                if (group < groupCount) {
+                    for (int c = groupStart[group]; c < groupStart[group + 1]; c++) {
+                        int i = members[c];
+                        if (removed[i])
+                            continue;
+                        if (distances[i] == 0)
+                            distances[i] = row < 0 ? Locator.dissimilarity(query, radioMap.get(i)) : matrix.dissimilarity(row, i);
+                        weight = 1 / distances[i];
+
+                        sumX += (float) (weight * radioMap.get(i).center.x);
+                        sumY += (float) (weight * radioMap.get(i).center.y);
+                        weightSum += weight;
+                    }
+                }
+                x = sumX / weightSum;
+                y = sumY / weightSum;
+                changed = false;
+            }
+            locations[2 * step] = x;
+            locations[2 * step + 1] = y;
+        }
+        return locations;
+    }
+
+    /**
+     * Prints the leave-one-out error curve of a radio map for every removal order.
+     *
+     * @param args The radio map JSON file (training.json by default) and the number of steps to print (20 by default).
+     * @throws IOException If the radio map cannot be loaded.
+     */
+    public static void main(String[] args) throws IOException {
+        String jsonFilePath = args.length > 0 ? args[0] : "training.json";
+        int printedSteps = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        List<Fingerprint> radioMap = RadioMapLoader.load(Paths.get(jsonFilePath));
+        MapReductionRunner runner = new MapReductionRunner(radioMap);
+
+        String[] names = {"index", "random", "farthest-first", "AP coverage"};
+        RemovalOrder[] orders = {RemovalOrder.byIndex(), RemovalOrder.random(1), RemovalOrder.farthestFirst(), RemovalOrder.apCoverage()};
+        Curve[] curves = new Curve[orders.length];
+        for (int o = 0; o < orders.length; o++) {
+            curves[o] = runner.run(radioMap, orders[o], Runtime.getRuntime().availableProcessors());
+            System.out.printf("%s: %d queries x %d steps in %.1f ms%n", names[o], radioMap.size(), radioMap.size(), curves[o].elapsedNanos / 1e6);
+        }
+
+        System.out.printf("%n%10s", "remaining");
+        for (String name : names) {
+            System.out.printf(" %16s", name);
+        }
+        System.out.println();
+        int stride = Math.max(1, radioMap.size() / printedSteps);
+        for (int step = 0; step < radioMap.size(); step += stride) {
+            System.out.printf("%10d", radioMap.size() - step);
+            for (Curve curve : curves) {
+                System.out.printf(" %9.3f (%4d)", curve.meanErrors[step], curve.failures[step]);
+            }
+            System.out.println();
+        }
+    }
+}
@@ -0,0 +1,314 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * A precomputed symmetric matrix of the dissimilarity and score between every pair of fingerprints of a radio map.
+ * Only the lower triangle, including the diagonal, is stored: a float dissimilarity and a short score per pair.
+ * The values live outside the Java heap, either in direct buffers or in a memory-mapped file, and the O(n^2) build
+ * runs in parallel. A saved matrix remembers a checksum of its radio map, so it can be reused until the map changes.
+ *
+ * <p>File layout (big-endian): int magic, int version, int fingerprintCount, int padding, long checksum,
+ * then n(n+1)/2 floats of dissimilarity and n(n+1)/2 shorts of score, in row order of the lower triangle.
+ */
+public class PairwiseMatrix {
+    private static final int MAGIC = 0x5A504D31; // "ZPM1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int SEGMENT_BITS = 28;
+    private static final long SEGMENT_ENTRIES = 1L << SEGMENT_BITS;
+
+    private final Map<Fingerprint, Integer> positions;
+    private final long checksum;
+    private final ByteBuffer[] dissimilarities;
+    private final ByteBuffer[] scores;
+
+    private PairwiseMatrix(List<Fingerprint> radioMap, long checksum, ByteBuffer[] dissimilarities, ByteBuffer[] scores) {
+        this.positions = new IdentityHashMap<>(radioMap.size());
+        for (int i = 0; i < radioMap.size(); i++) {
+            positions.put(radioMap.get(i), i);
+        }
+        this.checksum = checksum;
+        this.dissimilarities = dissimilarities;
+        this.scores = scores;
+    }
+
+    /**
+     * Builds the matrix of a radio map in direct (off-heap) memory.
+     *
+     * @param radioMap The fingerprints of the radio map.
+     * @param parallelism The number of threads to use for the build.
+     * @return The matrix.
+     */
+    public static PairwiseMatrix build(List<Fingerprint> radioMap, int parallelism) {
+        long entries = entryCount(radioMap.size());
+        ByteBuffer[] dissimilarities = new ByteBuffer[segmentCount(entries)];
+        ByteBuffer[] scores = new ByteBuffer[dissimilarities.length];
+        for (int s = 0; s < dissimilarities.length; s++) {
+            long size = Math.min(SEGMENT_ENTRIES, entries - s * SEGMENT_ENTRIES);
+            dissimilarities[s] = ByteBuffer.allocateDirect((int) (4 * size));
+            scores[s] = ByteBuffer.allocateDirect((int) (2 * size));
+        }
+
+        PairwiseMatrix matrix = new PairwiseMatrix(radioMap, checksum(radioMap), dissimilarities, scores);
+        matrix.fill(radioMap, parallelism);
+        return matrix;
+    }
+
+    /**
+     * Builds the matrix of a radio map directly into a memory-mapped file, for maps whose matrix does not fit in memory.
+     * The file can later be opened with {@link #load(Path, List)}.
+     *
+     * @param radioMap The fingerprints of the radio map.
+     * @param parallelism The number of threads to use for the build.
+     * @param path The file to create or replace.
+     * @return The matrix, backed by the file.
+     * @throws IOException If the file cannot be created or mapped.
+     */
+    public static PairwiseMatrix build(List<Fingerprint> radioMap, int parallelism, Path path) throws IOException {
+        long checksum = checksum(radioMap);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(radioMap.size()).putInt(0).putLong(checksum).flip();
+            channel.write(header, 0);
+
+            PairwiseMatrix matrix = map(channel, FileChannel.MapMode.READ_WRITE, radioMap, checksum);
+            matrix.fill(radioMap, parallelism);
+            return matrix;
+        }
+    }
+
+    /**
+     * Opens a saved matrix by memory-mapping it.
+     *
+     * @param path The file of the matrix.
+     * @param radioMap The radio map the matrix was built for.
+     * @return The matrix, backed by the file.
+     * @throws IOException If the file cannot be mapped, or was built for a different radio map.
+     */
+    public static PairwiseMatrix load(Path path, List<Fingerprint> radioMap) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC)
+                throw new IOException("Not a pairwise matrix: " + path);
+            if (header.getInt() != VERSION)
+                throw new IOException("Unsupported pairwise matrix version in " + path);
+            int size = header.getInt();
+            header.getInt();
+            long checksum = header.getLong();
+            if (size != radioMap.size() || checksum != checksum(radioMap))
+                throw new IOException("Pairwise matrix " + path + " was built for a different radio map");
+            if (channel.size() < HEADER_SIZE + 6 * entryCount(size))
+                throw new IOException("Truncated pairwise matrix: " + path);
+
+            return map(channel, FileChannel.MapMode.READ_ONLY, radioMap, checksum);
+        }
+    }
+
+    /**
+     * Saves the matrix to a file that can be opened with {@link #load(Path, List)}.
+     *
+     * @param path The file to create or replace.
+     * @throws IOException If the file cannot be written.
+     */
+    public void save(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(size()).putInt(0).putLong(checksum).flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            for (ByteBuffer[] region : new ByteBuffer[][]{dissimilarities, scores}) {
+                for (ByteBuffer segment : region) {
+                    ByteBuffer view = segment.duplicate().clear();
+                    while (view.hasRemaining()) {
+                        channel.write(view);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of fingerprints in the matrix.
+     *
+     * @return The number of fingerprints.
+     */
+    public int size() {
+        return positions.size();
+    }
+
+    /**
+     * Returns the position of a fingerprint in the radio map of the matrix.
+     *
+     * @param fingerprint The fingerprint, compared by identity.
+     * @return The position of the fingerprint, or -1 if it is not a member of the radio map.
+     */
+    public int indexOf(Fingerprint fingerprint) {
+        Integer position = positions.get(fingerprint);
+        return position == null ? -1 : position;
+    }
+
+    /**
+     * Returns the precomputed {@link Locator#dissimilarity} between two fingerprints of the radio map.
+     *
+     * @param i The position of the first fingerprint.
+     * @param j The position of the second fingerprint.
+     * @return The dissimilarity.
+     */
+    public float dissimilarity(int i, int j) {
+        long entry = entry(i, j);
+        return dissimilarities[(int) (entry >>> SEGMENT_BITS)].getFloat((int) (entry & (SEGMENT_ENTRIES - 1)) * 4);
+    }
+
+    /**
+     * Returns the precomputed {@link Locator#score} between two fingerprints of the radio map.
+     *
+     * @param i The position of the first fingerprint.
+     * @param j The position of the second fingerprint.
+     * @return The score.
+     */
+    public int score(int i, int j) {
+        long entry = entry(i, j);
+        return scores[(int) (entry >>> SEGMENT_BITS)].getShort((int) (entry & (SEGMENT_ENTRIES - 1)) * 2);
+    }
+
+    private void fill(List<Fingerprint> radioMap, int parallelism) {
+        // Maps hearing few APs in total get all distances of a row from the dense kernel
+        DenseRadioMap dense = DenseRadioMap.isDenseEnough(radioMap) ? new DenseRadioMap(radioMap) : null;
+        Locator.batchPool(parallelism).submit(() -> IntStream.range(0, radioMap.size()).parallel().forEach(i -> {
+            Fingerprint row = radioMap.get(i);
+            int[] distancesSq = dense == null ? null : new int[i + 1];
+            if (dense != null)
+                dense.distancesSq(row, 0, i + 1, distancesSq);
+            for (int j = 0; j <= i; j++) {
+                int score = Locator.score(row, radioMap.get(j));
+                if (score < Short.MIN_VALUE || score > Short.MAX_VALUE)
+                    throw new IllegalStateException("Score does not fit in a pairwise matrix: " + score);
+
+                long entry = entry(i, j);
+                int segment = (int) (entry >>> SEGMENT_BITS);
+                int offset = (int) (entry & (SEGMENT_ENTRIES - 1));
+                float dissimilarity = dense == null ? Locator.dissimilarity(row, radioMap.get(j))
+                        : DenseRadioMap.toDissimilarity(distancesSq[j]);
+                dissimilarities[segment].putFloat(offset * 4, dissimilarity);
+                scores[segment].putShort(offset * 2, (short) score);
+            }
+        })).join();
+    }
+
+    private static PairwiseMatrix map(FileChannel channel, FileChannel.MapMode mode, List<Fingerprint> radioMap, long checksum) throws IOException {
+        long entries = entryCount(radioMap.size());
+        ByteBuffer[] dissimilarities = new ByteBuffer[segmentCount(entries)];
+        ByteBuffer[] scores = new ByteBuffer[dissimilarities.length];
+        for (int s = 0; s < dissimilarities.length; s++) {
+            long first = s * SEGMENT_ENTRIES;
+            long size = Math.min(SEGMENT_ENTRIES, entries - first);
+            dissimilarities[s] = channel.map(mode, HEADER_SIZE + 4 * first, 4 * size);
+            scores[s] = channel.map(mode, HEADER_SIZE + 4 * entries + 2 * first, 2 * size);
+        }
+        return new PairwiseMatrix(radioMap, checksum, dissimilarities, scores);
+    }
+
+    private static long entry(int i, int j) {
+        if (i < j) {
+            int swap = i;
+            i = j;
+            j = swap;
+        }
+        return (long) i * (i + 1) / 2 + j;
+    }
+
+    private static long entryCount(int size) {
+        return (long) size * (size + 1) / 2;
+    }
+
+    private static int segmentCount(long entries) {
+        return (int) ((entries + SEGMENT_ENTRIES - 1) >>> SEGMENT_BITS);
+    }
+
+    /**
+     * Calculates a checksum of the signals and centers of a radio map that does not depend on the AP ids
+     * assigned in this run, so a saved matrix can be checked against the map in a later run.
+     */
+    static long checksum(List<Fingerprint> radioMap) {
+        long checksum = 0xcbf29ce484222325L;
+        for (Fingerprint fingerprint : radioMap) {
+            // The signals of a fingerprint are combined by addition, so their order does not matter
+            long signals = 0;
+            int[] apIds = fingerprint.apIds();
+            byte[] rss = fingerprint.rss();
+            for (int i = 0; i < apIds.length; i++) {
+                signals += mix(ApDictionary.mac(apIds[i]).hashCode() * 31L + rss[i]);
+            }
+            checksum = (checksum ^ signals) * 0x100000001b3L;
+            checksum = (checksum ^ Double.doubleToLongBits(fingerprint.center.x)) * 0x100000001b3L;
+            checksum = (checksum ^ Double.doubleToLongBits(fingerprint.center.y)) * 0x100000001b3L;
+        }
+        return checksum;
+    }
+
+    private static long mix(long value) {
+        value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+        value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return value ^ (value >>> 33);
+    }
+
+    /**
+     * Builds the pairwise matrix of a radio map, or loads it if it was saved for the same map before, and compares
+     * leave-one-out and map-reduction runs with and without it.
+     *
+     * @param args The radio map JSON file (training.json by default) and the matrix file (the JSON file with
+     *             a .pairs.bin suffix by default).
+     * @throws IOException If the radio map cannot be loaded or the matrix cannot be saved.
+     */
+    public static void main(String[] args) throws IOException {
+        String jsonFilePath = args.length > 0 ? args[0] : "training.json";
+        Path matrixPath = Paths.get(args.length > 1 ? args[1] : jsonFilePath + ".pairs.bin");
+        List<Fingerprint> radioMap = RadioMapLoader.load(Paths.get(jsonFilePath));
+        int parallelism = Runtime.getRuntime().availableProcessors();
+
+        long start = System.nanoTime();
+        PairwiseMatrix matrix;
+        try {
+            matrix = load(matrixPath, radioMap);
+            System.out.printf("Loaded %s in %.1f ms%n", matrixPath, (System.nanoTime() - start) / 1e6);
+        } catch (NoSuchFileException e) {
+            matrix = null;
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            matrix = null;
+        }
+        if (matrix == null) {
+            matrix = build(radioMap, parallelism);
+            System.out.printf("Built the matrix of %d fingerprints in %.1f ms%n", radioMap.size(), (System.nanoTime() - start) / 1e6);
+            matrix.save(matrixPath);
+            System.out.printf("Saved %s%n", matrixPath);
+        }
+
+        Locator locator = new Locator();
+        locator.setPairwiseMatrix(matrix);
+        for (Locator evaluated : new Locator[]{new Locator(), locator}) {
+            String name = evaluated.getPairwiseMatrix() == null ? "calculated" : "matrix";
+            LeaveOneOutEvaluator.Report report = new LeaveOneOutEvaluator(radioMap, evaluated).evaluate(parallelism);
+            System.out.printf("Leave-one-out (%s): mean error %.3f in %.1f ms%n", name, report.meanError(), report.elapsedNanos / 1e6);
+        }
+        for (PairwiseMatrix runnerMatrix : new PairwiseMatrix[]{null, matrix}) {
+            String name = runnerMatrix == null ? "calculated" : "matrix";
+            MapReductionRunner.Curve curve = new MapReductionRunner(radioMap, runnerMatrix).run(radioMap, RemovalOrder.random(1), parallelism);
+            System.out.printf("Map reduction (%s): %d steps in %.1f ms%n", name, curve.meanErrors.length, curve.elapsedNanos / 1e6);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * Represents a point in a two-dimensional space with floating-point coordinates.
+ * This class is used to store the calculated location of a fingerprint.
+ */
+public class PointF {
+    private double x;
+    private double y;
+
+    /**
+     * Gets the x-coordinate of the point.
+     *
+     * @return The x-coordinate of the point.
+     */
+    public double getX() {
+        return x;
+    }
+
+    /**
+     * Sets the x-coordinate of the point.
+     *
+     * @param x The x-coordinate to set.
+     */
+    public void setX(double x) {
+        this.x = x;
+    }
+
+    /**
+     * Gets the y-coordinate of the point.
+     *
+     * @return The y-coordinate of the point.
+     */
+    public double getY() {
+        return y;
+    }
+
+    /**
+     * Sets the y-coordinate of the point.
+     *
+     * @param y The y-coordinate to set.
+     */
+    public void setY(double y) {
+        this.y = y;
+    }
+
+    /**
+     * Sets both the x and y coordinates of the point.
+     *
+     * @param x The x-coordinate to set.
+     * @param y The y-coordinate to set.
+     */
+    public void set(double x, double y) {
+        this.x = x;
+        this.y = y;
+    }
+}
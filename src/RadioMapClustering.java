@@ -0,0 +1,537 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Groups the fingerprints of a radio map into clusters of similar signals and nearby centers, for a two-stage
+ * coarse-to-fine search: a query is first compared with the centroid of every cluster, and then searched like
+ * {@link Locator#getMarksWithSameAps2(List, Fingerprint)} among the members of the few closest clusters only.
+ * The result is approximate; probing more clusters trades speed for accuracy.
+ *
+ * <p>Every fingerprint is a vector of its signals plus {@link Locator#RSS_OFFSET} per AP heard anywhere in the map,
+ * with 0 for APs it does not hear, followed by its center coordinates multiplied by a spatial weight. The clusters
+ * are found offline with k-means, seeded with k-means++, and every cluster is represented by its medoid: the member
+ * nearest to the centroid. Queries have no center, so they are compared with the signal part of the centroids only;
+ * the spatial part keeps clusters compact, so a cluster does not mix distant places that hear similar signals.
+ */
+public class RadioMapClustering {
+    private static final int MAX_ITERATIONS = 100;
+
+    private final List<Fingerprint> fingerprints;
+    private final int[] columnOf;
+    private final double[][] centroids;
+    private final double[] centroidNormsSq;
+    private final double[] centroidsByColumn;
+    private final int[][] members;
+    private final int[] clusterOf;
+    private final int[] medoids;
+    private final int iterations;
+
+    /**
+     * Clusters a radio map.
+     *
+     * @param fingerprints The fingerprints of the radio map, in the order results should be reported.
+     * @param clusterCount The number of clusters, at most the number of fingerprints.
+     * @param spatialWeight How many dB of signal difference one unit of center distance is worth; 0 clusters by
+     *                      signals only.
+     * @param seed The seed of the k-means++ initialization, so the same clusters can be built again.
+     */
+    public RadioMapClustering(List<Fingerprint> fingerprints, int clusterCount, double spatialWeight, long seed) {
+        if (clusterCount < 1 || clusterCount > fingerprints.size())
+            throw new IllegalArgumentException("Cluster count must be between 1 and " + fingerprints.size() + ": " + clusterCount);
+        if (!(spatialWeight >= 0))
+            throw new IllegalArgumentException("Spatial weight must not be negative: " + spatialWeight);
+        this.fingerprints = Collections.unmodifiableList(new ArrayList<>(fingerprints));
+
+        // Only the APs heard somewhere in the map get a column
+        int[] columnOf = new int[ApDictionary.size()];
+        Arrays.fill(columnOf, -1);
+        int columns = 0;
+        for (Fingerprint fingerprint : this.fingerprints) {
+            for (int apId : fingerprint.apIds()) {
+                if (apId >= columnOf.length) {
+                    int oldLength = columnOf.length;
+                    columnOf = Arrays.copyOf(columnOf, Math.max(apId + 1, oldLength * 2));
+                    Arrays.fill(columnOf, oldLength, columnOf.length, -1);
+                }
+                if (columnOf[apId] < 0)
+                    columnOf[apId] = columns++;
+            }
+        }
+        this.columnOf = columnOf;
+
+        double[][] points = new double[this.fingerprints.size()][];
+        for (int i = 0; i < points.length; i++) {
+            Fingerprint fingerprint = this.fingerprints.get(i);
+            points[i] = new double[columns + 2];
+            expand(fingerprint, points[i]);
+            points[i][columns] = fingerprint.center.x * spatialWeight;
+            points[i][columns + 1] = fingerprint.center.y * spatialWeight;
+        }
+
+        this.centroids = initialCentroids(points, clusterCount, new Random(seed));
+        this.clusterOf = new int[points.length];
+        Arrays.fill(clusterOf, -1);
+        int iteration = 0;
+        for (boolean changed = true; changed && iteration < MAX_ITERATIONS; iteration++) {
+            changed = assign(points);
+            updateCentroids(points);
+        }
+        this.iterations = iteration;
+
+        // The signal part of the centroids, column by column, and its squared norms, for comparing queries quickly
+        this.centroidNormsSq = new double[clusterCount];
+        this.centroidsByColumn = new double[columns * clusterCount];
+        for (int cluster = 0; cluster < clusterCount; cluster++) {
+            for (int column = 0; column < columns; column++) {
+                double value = centroids[cluster][column];
+                centroidNormsSq[cluster] += value * value;
+                centroidsByColumn[column * clusterCount + cluster] = value;
+            }
+        }
+
+        // Members in radio map order, and the member nearest to each centroid
+        int[] sizes = new int[clusterCount];
+        for (int cluster : clusterOf) {
+            sizes[cluster]++;
+        }
+        this.members = new int[clusterCount][];
+        this.medoids = new int[clusterCount];
+        double[] medoidDistances = new double[clusterCount];
+        Arrays.fill(medoidDistances, Double.POSITIVE_INFINITY);
+        for (int cluster = 0; cluster < clusterCount; cluster++) {
+            members[cluster] = new int[sizes[cluster]];
+            sizes[cluster] = 0;
+        }
+        for (int i = 0; i < points.length; i++) {
+            int cluster = clusterOf[i];
+            members[cluster][sizes[cluster]++] = i;
+            double distance = distanceSq(points[i], centroids[cluster], points[i].length);
+            if (distance < medoidDistances[cluster]) {
+                medoidDistances[cluster] = distance;
+                medoids[cluster] = i;
+            }
+        }
+    }
+
+    /**
+     * Chooses the first centroids with k-means++: every further centroid is a point picked with a probability
+     * proportional to its squared distance from the nearest centroid chosen so far.
+     */
+    private static double[][] initialCentroids(double[][] points, int clusterCount, Random random) {
+        double[][] centroids = new double[clusterCount][];
+        double[] nearest = new double[points.length];
+        Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+        centroids[0] = points[random.nextInt(points.length)].clone();
+        for (int c = 1; c < clusterCount; c++) {
+            double total = 0;
+            for (int i = 0; i < points.length; i++) {
+                nearest[i] = Math.min(nearest[i], distanceSq(points[i], centroids[c - 1], points[i].length));
+                total += nearest[i];
+            }
+            // Identical points leave nothing to pick from; any point will do
+            int picked = random.nextInt(points.length);
+            if (total > 0) {
+                double target = random.nextDouble() * total;
+                for (int i = 0; i < points.length; i++) {
+                    target -= nearest[i];
+                    if (target < 0 || i == points.length - 1) {
+                        picked = i;
+                        break;
+                    }
+                }
+            }
+            centroids[c] = points[picked].clone();
+        }
+        return centroids;
+    }
+
+    /**
+     * Assigns every point to its nearest centroid and tells whether any assignment changed.
+     */
+    private boolean assign(double[][] points) {
+        boolean changed = false;
+        for (int i = 0; i < points.length; i++) {
+            int best = 0;
+            double bestDistance = Double.POSITIVE_INFINITY;
+            for (int cluster = 0; cluster < centroids.length; cluster++) {
+                double distance = distanceSq(points[i], centroids[cluster], points[i].length);
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    best = cluster;
+                }
+            }
+            if (clusterOf[i] != best) {
+                clusterOf[i] = best;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Moves every centroid to the mean of its points. A cluster that lost all its points is moved to the point
+     * farthest from its own centroid, so no cluster stays empty.
+     */
+    private void updateCentroids(double[][] points) {
+        int[] sizes = new int[centroids.length];
+        for (double[] centroid : centroids) {
+            Arrays.fill(centroid, 0);
+        }
+        for (int i = 0; i < points.length; i++) {
+            sizes[clusterOf[i]]++;
+            double[] centroid = centroids[clusterOf[i]];
+            for (int d = 0; d < centroid.length; d++) {
+                centroid[d] += points[i][d];
+            }
+        }
+        for (int cluster = 0; cluster < centroids.length; cluster++) {
+            if (sizes[cluster] > 0) {
+                for (int d = 0; d < centroids[cluster].length; d++) {
+                    centroids[cluster][d] /= sizes[cluster];
+                }
+            }
+        }
+        for (int cluster = 0; cluster < centroids.length; cluster++) {
+            if (sizes[cluster] > 0)
+                continue;
+            int farthest = 0;
+            double farthestDistance = -1;
+            for (int i = 0; i < points.length; i++) {
+                double distance = distanceSq(points[i], centroids[clusterOf[i]], points[i].length);
+                if (sizes[clusterOf[i]] > 1 && distance > farthestDistance) {
+                    farthestDistance = distance;
+                    farthest = i;
+                }
+            }
+            sizes[clusterOf[farthest]]--;
+            sizes[cluster] = 1;
+            clusterOf[farthest] = cluster;
+            centroids[cluster] = points[farthest].clone();
+        }
+    }
+
+    private static double distanceSq(double[] a, double[] b, int length) {
+        double distanceSq = 0;
+        for (int d = 0; d < length; d++) {
+            double difference = a[d] - b[d];
+            distanceSq += difference * difference;
+        }
+        return distanceSq;
+    }
+
+    /**
+     * Writes the signals of a fingerprint into the signal columns of a point.
+     */
+    private void expand(Fingerprint fingerprint, double[] vector) {
+        int[] apIds = fingerprint.apIds();
+        byte[] rss = fingerprint.rss();
+        for (int i = 0; i < apIds.length; i++) {
+            int column = apIds[i] < columnOf.length ? columnOf[apIds[i]] : -1;
+            if (column >= 0)
+                vector[column] = rss[i] + Locator.RSS_OFFSET;
+        }
+    }
+
+    /**
+     * Returns the ascending positions of the members of the clusters whose centroids are closest to the signals
+     * of a fingerprint. The squared distance to a centroid c is |q|^2 - 2 q.c + |c|^2, and |q|^2 is the same for
+     * all centroids, so only the columns of the APs the fingerprint hears are visited.
+     *
+     * @param fingerprint The fingerprint to search for.
+     * @param probes The number of clusters to search.
+     * @return The positions of the candidate fingerprints.
+     */
+    int[] candidatePositions(Fingerprint fingerprint, int probes) {
+        if (probes < 1)
+            throw new IllegalArgumentException("Number of probed clusters must be positive: " + probes);
+        probes = Math.min(probes, centroids.length);
+
+        int clusterCount = centroids.length;
+        double[] distances = centroidNormsSq.clone();
+        int[] apIds = fingerprint.apIds();
+        byte[] rss = fingerprint.rss();
+        for (int i = 0; i < apIds.length; i++) {
+            int column = apIds[i] < columnOf.length ? columnOf[apIds[i]] : -1;
+            if (column < 0)
+                continue;
+            double value = 2.0 * (rss[i] + Locator.RSS_OFFSET);
+            for (int cluster = 0, c = column * clusterCount; cluster < clusterCount; cluster++, c++) {
+                distances[cluster] -= value * centroidsByColumn[c];
+            }
+        }
+
+        // Keep the closest clusters in ascending order of distance with an insertion sort, since probes is small
+        int[] closest = new int[probes];
+        double[] closestDistances = new double[probes];
+        Arrays.fill(closestDistances, Double.POSITIVE_INFINITY);
+        for (int cluster = 0; cluster < clusterCount; cluster++) {
+            double distance = distances[cluster];
+            if (distance >= closestDistances[probes - 1])
+                continue;
+            int i = probes - 1;
+            for (; i > 0 && closestDistances[i - 1] > distance; i--) {
+                closest[i] = closest[i - 1];
+                closestDistances[i] = closestDistances[i - 1];
+            }
+            closest[i] = cluster;
+            closestDistances[i] = distance;
+        }
+
+        int candidateCount = 0;
+        for (int cluster : closest) {
+            candidateCount += members[cluster].length;
+        }
+        int[] candidates = new int[candidateCount];
+        candidateCount = 0;
+        for (int cluster : closest) {
+            System.arraycopy(members[cluster], 0, candidates, candidateCount, members[cluster].length);
+            candidateCount += members[cluster].length;
+        }
+        Arrays.sort(candidates);
+        return candidates;
+    }
+
+    /**
+     * Returns the number of fingerprints.
+     *
+     * @return The number of fingerprints.
+     */
+    public int size() {
+        return fingerprints.size();
+    }
+
+    /**
+     * Returns the fingerprints, in their original order.
+     *
+     * @return An unmodifiable list of the fingerprints.
+     */
+    public List<Fingerprint> fingerprints() {
+        return fingerprints;
+    }
+
+    /**
+     * Returns the fingerprint at the given position.
+     *
+     * @param index The position of the fingerprint.
+     * @return The fingerprint.
+     */
+    public Fingerprint get(int index) {
+        return fingerprints.get(index);
+    }
+
+    /**
+     * Returns a search of the members of the clusters closest to a fingerprint, for the Locator.
+     *
+     * @param probes The number of clusters to search.
+     * @return The search.
+     */
+    CandidateSource probing(int probes) {
+        return new CandidateSource() {
+            @Override
+            public int[] bestPositions(Fingerprint fingerprint, int excludedIndex) {
+                return Locator.bestCandidates(fingerprints, candidatePositions(fingerprint, probes), fingerprint,
+                        excludedIndex);
+            }
+
+            @Override
+            public Fingerprint get(int index) {
+                return fingerprints.get(index);
+            }
+        };
+    }
+
+    /**
+     * Returns the number of clusters.
+     *
+     * @return The number of clusters.
+     */
+    public int clusterCount() {
+        return centroids.length;
+    }
+
+    /**
+     * Returns the cluster of a fingerprint.
+     *
+     * @param index The position of the fingerprint.
+     * @return The cluster.
+     */
+    public int clusterOf(int index) {
+        return clusterOf[index];
+    }
+
+    /**
+     * Returns the positions of the members of a cluster.
+     *
+     * @param cluster The cluster.
+     * @return The ascending positions of its fingerprints.
+     */
+    public int[] members(int cluster) {
+        return members[cluster].clone();
+    }
+
+    /**
+     * Returns the position of the medoid of a cluster: the member nearest to its centroid.
+     *
+     * @param cluster The cluster.
+     * @return The position of the medoid.
+     */
+    public int medoid(int cluster) {
+        return medoids[cluster];
+    }
+
+    /**
+     * Returns the medoid of every cluster. Together they form a reduced radio map with one fingerprint per cluster.
+     *
+     * @return The medoids, in cluster order.
+     */
+    public List<Fingerprint> medoids() {
+        List<Fingerprint> medoids = new ArrayList<>(this.medoids.length);
+        for (int medoid : this.medoids) {
+            medoids.add(fingerprints.get(medoid));
+        }
+        return medoids;
+    }
+
+    /**
+     * Returns the number of k-means iterations until no fingerprint changed its cluster, or the iteration limit.
+     *
+     * @return The number of iterations.
+     */
+    public int iterations() {
+        return iterations;
+    }
+
+    /**
+     * Sweeps the number of clusters and probed clusters, and reports the accuracy and latency of the two-stage
+     * search against the full indexed search, and of the medoids alone as a reduced radio map. Every fingerprint of
+     * the radio map is located leave-one-out, and so are the queries: a query that is a copy of a radio map
+     * fingerprint is located without that fingerprint.
+     *
+     * @param args The radio map JSON file (radio_map.json by default), the queries with known centers
+     *             (training.json by default), and the spatial weight (1 by default).
+     * @throws IOException If a file cannot be loaded.
+     */
+    public static void main(String[] args) throws IOException {
+        String jsonFilePath = args.length > 0 ? args[0] : "radio_map.json";
+        String queriesFilePath = args.length > 1 ? args[1] : "training.json";
+        double spatialWeight = args.length > 2 ? Double.parseDouble(args[2]) : 1;
+        List<Fingerprint> radioMap = RadioMapLoader.load(Paths.get(jsonFilePath));
+        List<Fingerprint> queries = RadioMapLoader.load(Paths.get(queriesFilePath));
+
+        List<RadioMapClustering> clusterings = new ArrayList<>();
+        for (int clusterCount : new int[]{4, 8, 16, 32, 64, 128}) {
+            if (clusterCount > radioMap.size())
+                break;
+            long start = System.nanoTime();
+            clusterings.add(new RadioMapClustering(radioMap, clusterCount, spatialWeight, 1));
+            System.out.printf("%d clusters built in %.1f ms, %d iterations%n", clusterCount,
+                    (System.nanoTime() - start) / 1e6, clusterings.get(clusterings.size() - 1).iterations());
+        }
+
+        int[] radioMapExcluded = new int[radioMap.size()];
+        for (int i = 0; i < radioMapExcluded.length; i++) {
+            radioMapExcluded[i] = i;
+        }
+        int[] queriesExcluded = new int[queries.size()];
+        for (int q = 0; q < queriesExcluded.length; q++) {
+            queriesExcluded[q] = indexOfCopy(radioMap, queries.get(q));
+        }
+
+        sweep(jsonFilePath + ", leave-one-out", radioMap, radioMapExcluded, radioMap, clusterings);
+        sweep(queriesFilePath, queries, queriesExcluded, radioMap, clusterings);
+    }
+
+    private static void sweep(String title, List<Fingerprint> queries, int[] excluded, List<Fingerprint> radioMap,
+                              List<RadioMapClustering> clusterings) {
+        Locator locator = new Locator();
+        RadioMapIndex index = new RadioMapIndex(radioMap);
+        System.out.printf("%n%s: %d queries against %d fingerprints%n", title, queries.size(), radioMap.size());
+        System.out.printf("%-8s %-8s %10s %10s %10s %10s %8s%n",
+                "clusters", "probed", "searched", "us/query", "mean err", "p90 err", "located");
+        report("all", "-", radioMap.size(), queries, excluded, (query, ex) -> locator.getLocation(index, query, ex));
+
+        for (RadioMapClustering clustering : clusterings) {
+            String clusters = String.valueOf(clustering.clusterCount());
+            for (int probes : new int[]{1, 2, 4, 8}) {
+                if (probes > clustering.clusterCount())
+                    break;
+                long searched = 0;
+                for (Fingerprint query : queries) {
+                    searched += clustering.candidatePositions(query, probes).length;
+                }
+                report(clusters, String.valueOf(probes), (int) (searched / queries.size()), queries, excluded,
+                        (query, ex) -> locator.getLocation(clustering, query, probes, ex));
+            }
+
+            // A query that is itself a medoid is left out of the reduced map too
+            RadioMapIndex medoids = new RadioMapIndex(clustering.medoids());
+            int[] medoidExcluded = new int[excluded.length];
+            for (int q = 0; q < excluded.length; q++) {
+                int cluster = excluded[q] < 0 ? -1 : clustering.clusterOf(excluded[q]);
+                medoidExcluded[q] = cluster >= 0 && clustering.medoid(cluster) == excluded[q] ? cluster : -1;
+            }
+            report(clusters, "medoids", medoids.size(), queries, medoidExcluded,
+                    (query, ex) -> locator.getLocation(medoids, query, ex));
+        }
+    }
+
+    /**
+     * Returns the position of the radio map fingerprint with the same signals and center as a query, or -1.
+     */
+    private static int indexOfCopy(List<Fingerprint> radioMap, Fingerprint query) {
+        for (int i = 0; i < radioMap.size(); i++) {
+            Fingerprint fingerprint = radioMap.get(i);
+            if (Arrays.equals(fingerprint.apIds(), query.apIds()) && Arrays.equals(fingerprint.rss(), query.rss())
+                    && fingerprint.center.x == query.center.x && fingerprint.center.y == query.center.y)
+                return i;
+        }
+        return -1;
+    }
+
+    private interface Search {
+        PointF locate(Fingerprint query, int excludedIndex);
+    }
+
+    /**
+     * Prints the mean time per query after a warm-up, and the mean and 90th percentile error of the located queries.
+     */
+    private static void report(String clusters, String probes, int searched, List<Fingerprint> queries, int[] excluded,
+                               Search search) {
+        PointF[] locations = new PointF[queries.size()];
+        for (long warmUpEnd = System.nanoTime() + 200_000_000L; System.nanoTime() < warmUpEnd; ) {
+            for (int q = 0; q < queries.size(); q++) {
+                search.locate(queries.get(q), excluded[q]);
+            }
+        }
+        long start = System.nanoTime();
+        long end = start + 500_000_000L;
+        long located = 0;
+        do {
+            for (int q = 0; q < queries.size(); q++) {
+                locations[q] = search.locate(queries.get(q), excluded[q]);
+            }
+            located += queries.size();
+        } while (System.nanoTime() < end);
+        double micros = (System.nanoTime() - start) / 1e3 / located;
+
+        double[] errors = new double[queries.size()];
+        int count = 0;
+        double errorSum = 0;
+        for (int q = 0; q < queries.size(); q++) {
+            if (Double.isNaN(locations[q].getX()))
+                continue;
+            Fingerprint query = queries.get(q);
+            errors[count] = Main.calculateDistance(locations[q].getX(), locations[q].getY(), query.center.x, query.center.y);
+            errorSum += errors[count++];
+        }
+        Arrays.sort(errors, 0, count);
+        double p90 = count == 0 ? Double.NaN : errors[Math.min(count - 1, (int) Math.ceil(0.9 * count) - 1)];
+        System.out.printf("%-8s %-8s %10d %10.2f %10.2f %10.2f %4d/%-4d%n", clusters, probes, searched, micros,
+                count == 0 ? Double.NaN : errorSum / count, p90, count, queries.size());
+    }
+}
@@ -0,0 +1,124 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An inverted index over a radio map that maps every strong Access Point (AP) to a posting list
+ * of the fingerprints in which it is strong.
+ * A query only has to visit the fingerprints that share at least one strong AP with it, since all
+ * other fingerprints score below the neighbour threshold of {@link Locator#getMarksWithSameAps2}.
+ * The index is a snapshot: fingerprints changed after it was built are not reflected.
+ */
+public class RadioMapIndex implements CandidateSource {
+    private static final int[] NO_POSTINGS = new int[0];
+
+    private final List<Fingerprint> fingerprints;
+    private final int[] strongCounts;
+    private final int[][] postings;
+    private final int[] withoutStrongAps;
+
+    /**
+     * Builds an index over a list of fingerprints.
+     *
+     * @param fingerprints The fingerprints of the radio map, in the order results should be reported.
+     */
+    public RadioMapIndex(List<Fingerprint> fingerprints) {
+        this.fingerprints = Collections.unmodifiableList(new ArrayList<>(fingerprints));
+        this.strongCounts = new int[fingerprints.size()];
+
+        // First pass: count strong APs per fingerprint and postings per AP
+        int[] postingSizes = new int[ApDictionary.size()];
+        int emptyCount = 0;
+        for (int i = 0; i < strongCounts.length; i++) {
+            for (int apId : Locator.strongAps(this.fingerprints.get(i)).ids) {
+                if (apId >= postingSizes.length)
+                    postingSizes = Arrays.copyOf(postingSizes, Math.max(apId + 1, postingSizes.length * 2));
+                postingSizes[apId]++;
+                strongCounts[i]++;
+            }
+            if (strongCounts[i] == 0)
+                emptyCount++;
+        }
+
+        // Second pass: fill the posting lists in ascending fingerprint order
+        postings = new int[postingSizes.length][];
+        for (int apId = 0; apId < postings.length; apId++) {
+            postings[apId] = new int[postingSizes[apId]];
+            postingSizes[apId] = 0;
+        }
+        withoutStrongAps = new int[emptyCount];
+        emptyCount = 0;
+        for (int i = 0; i < strongCounts.length; i++) {
+            for (int apId : Locator.strongAps(this.fingerprints.get(i)).ids) {
+                postings[apId][postingSizes[apId]++] = i;
+            }
+            if (strongCounts[i] == 0)
+                withoutStrongAps[emptyCount++] = i;
+        }
+    }
+
+    /**
+     * Returns the number of fingerprints in the index.
+     *
+     * @return The number of fingerprints.
+     */
+    public int size() {
+        return strongCounts.length;
+    }
+
+    /**
+     * Returns the indexed fingerprints, in their original order.
+     *
+     * @return An unmodifiable list of the fingerprints.
+     */
+    public List<Fingerprint> fingerprints() {
+        return fingerprints;
+    }
+
+    /**
+     * Returns the fingerprint at the given position.
+     *
+     * @param index The position of the fingerprint.
+     * @return The fingerprint.
+     */
+    @Override
+    public Fingerprint get(int index) {
+        return fingerprints.get(index);
+    }
+
+    /**
+     * Returns the ascending positions of the indexed fingerprints with the best score above the minimum score.
+     *
+     * @param fingerprint The fingerprint used as a reference for scoring.
+     * @param excludedIndex The position of the fingerprint to leave out, or -1 to use the whole radio map.
+     * @return The positions of the best fingerprints.
+     */
+    @Override
+    public int[] bestPositions(Fingerprint fingerprint, int excludedIndex) {
+        return Locator.bestPositions(this, Locator.strongAps(fingerprint), excludedIndex);
+    }
+
+    /**
+     * Returns the number of strong APs of the fingerprint at the given position.
+     */
+    int strongCount(int index) {
+        return strongCounts[index];
+    }
+
+    /**
+     * Returns the ascending positions of the fingerprints in which the given AP is strong.
+     * The array is shared with the index and must not be modified.
+     */
+    int[] postings(int apId) {
+        return apId < postings.length ? postings[apId] : NO_POSTINGS;
+    }
+
+    /**
+     * Returns the ascending positions of the fingerprints that have no APs at all.
+     * The array is shared with the index and must not be modified.
+     */
+    int[] withoutStrongAps() {
+        return withoutStrongAps;
+    }
+}
@@ -0,0 +1,498 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Loads radio maps from JSON without building the whole document in memory.
+ * The input is read with a small pull parser, and each fingerprint is created as soon as its object has been read.
+ * The expected format is an array of objects with CLASSNAME and INSTANCE properties, where INSTANCE holds
+ * mWiFiFingerprint, mCenter, mRadius, mColor, mColor4f and mIsRemoved. Unknown properties are skipped.
+ */
+public class RadioMapLoader {
+
+    /**
+     * Loads all fingerprints from a JSON file.
+     *
+     * @param jsonFilePath The path to the JSON file containing the fingerprints.
+     * @return A list of the parsed fingerprints, in file order.
+     * @throws IOException If the file cannot be read or is not a valid radio map.
+     */
+    public static List<Fingerprint> load(Path jsonFilePath) throws IOException {
+        try (Reader reader = Files.newBufferedReader(jsonFilePath, StandardCharsets.UTF_8)) {
+            return load(reader);
+        }
+    }
+
+    /**
+     * Loads all fingerprints from a reader.
+     *
+     * @param reader The reader providing the JSON text.
+     * @return A list of the parsed fingerprints, in input order.
+     * @throws IOException If the input cannot be read or is not a valid radio map.
+     */
+    public static List<Fingerprint> load(Reader reader) throws IOException {
+        List<Fingerprint> fingerprints = new ArrayList<>();
+        load(reader, fingerprints::add);
+        return fingerprints;
+    }
+
+    /**
+     * Streams fingerprints from a UTF-8 input stream to a consumer.
+     *
+     * @param in The input stream providing the JSON text.
+     * @param consumer Receives every fingerprint as soon as it has been parsed.
+     * @throws IOException If the input cannot be read or is not a valid radio map.
+     */
+    public static void load(InputStream in, Consumer<Fingerprint> consumer) throws IOException {
+        load(new InputStreamReader(in, StandardCharsets.UTF_8), consumer);
+    }
+
+    /**
+     * Streams fingerprints from a reader to a consumer.
+     * Only the fingerprint being parsed is held in memory, so maps of any size can be processed.
+     *
+     * @param reader The reader providing the JSON text.
+     * @param consumer Receives every fingerprint as soon as it has been parsed.
+     * @throws IOException If the input cannot be read or is not a valid radio map.
+     */
+    public static void load(Reader reader, Consumer<Fingerprint> consumer) throws IOException {
+        JsonPullParser parser = new JsonPullParser(reader);
+
+        parser.beginArray();
+        while (parser.hasNext()) {
+            consumer.accept(readFingerprint(parser));
+        }
+        parser.endArray();
+        parser.endDocument();
+    }
+
+    /**
+     * Reads a single WiFi scan to be located, such as the body of a localization request.
+     * The scan may be a bare object of MAC addresses and signal strengths, an object holding such an object in
+     * mWiFiFingerprint, or a whole radio map entry with an INSTANCE.
+     *
+     * <p>A long-running service must not let every MAC address it is sent grow the {@link ApDictionary}. With
+     * internNewAps false, MAC addresses the dictionary does not know yet are replaced by placeholders that are
+     * reused from scan to scan. An unknown AP never matches a radio map AP, so only the number of unknown APs and
+     * their signal strengths affect the location, and the placeholders give exactly the same result.
+     *
+     * @param reader The reader providing the JSON text.
+     * @param internNewAps True to intern new MAC addresses, false to replace them with placeholders.
+     * @return The scan as a fingerprint without a center.
+     * @throws IOException If the input cannot be read or is not a valid scan.
+     */
+    public static Fingerprint loadScan(Reader reader, boolean internNewAps) throws IOException {
+        JsonPullParser parser = new JsonPullParser(reader);
+        Fingerprint fingerprint = new Fingerprint();
+        readScan(parser, fingerprint, internNewAps ? null : new HashMap<>());
+        parser.endDocument();
+        return fingerprint;
+    }
+
+    private static void readScan(JsonPullParser parser, Fingerprint fingerprint, Map<String, String> placeholders) throws IOException {
+        // Numbers are signals only if the object turns out to be a bare scan
+        List<String> macs = new ArrayList<>();
+        List<Integer> signals = new ArrayList<>();
+        boolean nested = false;
+
+        parser.beginObject();
+        while (parser.hasNext()) {
+            String name = parser.nextName();
+            if (name.equals("mWiFiFingerprint") || name.equals("INSTANCE")) {
+                nested = true;
+                readScan(parser, fingerprint, placeholders);
+            } else if (parser.nextIsNumber()) {
+                macs.add(name);
+                signals.add(parser.nextInt());
+            } else {
+                parser.skipValue();
+            }
+        }
+        parser.endObject();
+
+        if (nested)
+            return;
+        for (int i = 0; i < macs.size(); i++) {
+            int signal = signals.get(i);
+            if (signal < MacAndValue.MIN_SIGNAL || signal > MacAndValue.MAX_SIGNAL)
+                throw parser.error("Signal strength out of range for " + macs.get(i) + ": " + signal);
+            int apId = placeholders == null ? ApDictionary.intern(macs.get(i)) : ApDictionary.lookup(macs.get(i));
+            // Repeated MAC addresses keep their placeholder, so the first occurrence still wins
+            String mac = apId >= 0 ? ApDictionary.mac(apId)
+                    : placeholders.computeIfAbsent(macs.get(i), unknown -> "unknown AP " + placeholders.size());
+            fingerprint.instance.macsAndValues.add(new MacAndValue(mac, signal));
+        }
+    }
+
+    private static Fingerprint readFingerprint(JsonPullParser parser) throws IOException {
+        Fingerprint fingerprint = null;
+
+        parser.beginObject();
+        while (parser.hasNext()) {
+            String name = parser.nextName();
+            if (name.equals("INSTANCE")) {
+                fingerprint = readInstance(parser);
+            } else {
+                parser.skipValue();
+            }
+        }
+        parser.endObject();
+
+        if (fingerprint == null)
+            throw parser.error("Fingerprint without INSTANCE");
+        // Build the strong APs while loading, so the first queries do not pay for them
+        Locator.strongAps(fingerprint);
+        return fingerprint;
+    }
+
+    private static Fingerprint readInstance(JsonPullParser parser) throws IOException {
+        Fingerprint fingerprint = new Fingerprint();
+
+        parser.beginObject();
+        while (parser.hasNext()) {
+            switch (parser.nextName()) {
+                case "mWiFiFingerprint":
+                    readSignals(parser, fingerprint);
+                    break;
+                case "mCenter":
+                    parser.beginObject();
+                    while (parser.hasNext()) {
+                        String axis = parser.nextName();
+                        if (axis.equals("x")) {
+                            fingerprint.center.x = parser.nextDouble();
+                        } else if (axis.equals("y")) {
+                            fingerprint.center.y = parser.nextDouble();
+                        } else {
+                            parser.skipValue();
+                        }
+                    }
+                    parser.endObject();
+                    break;
+                case "mRadius":
+                    fingerprint.radius = parser.nextDouble();
+                    break;
+                case "mColor":
+                    fingerprint.color = parser.nextInt();
+                    break;
+                case "mColor4f":
+                    parser.beginArray();
+                    while (parser.hasNext()) {
+                        fingerprint.color4f.add(parser.nextInt());
+                    }
+                    parser.endArray();
+                    break;
+                case "mIsRemoved":
+                    fingerprint.isRemoved = parser.nextBoolean();
+                    break;
+                default:
+                    parser.skipValue();
+            }
+        }
+        parser.endObject();
+
+        return fingerprint;
+    }
+
+    /**
+     * Reads an object of MAC addresses and signal strengths into the fingerprint.
+     * MAC addresses are shared through the {@link ApDictionary} so repeated addresses are stored only once.
+     */
+    static void readSignals(JsonPullParser parser, Fingerprint fingerprint) throws IOException {
+        parser.beginObject();
+        while (parser.hasNext()) {
+            String mac = ApDictionary.mac(ApDictionary.intern(parser.nextName()));
+            fingerprint.instance.macsAndValues.add(new MacAndValue(mac, parser.nextSignal()));
+        }
+        parser.endObject();
+    }
+}
+
+/**
+ * A minimal streaming JSON parser that reads one token at a time from a reader.
+ * Commas and colons are consumed implicitly by {@link #hasNext()} and {@link #nextName()}; exactly one comma must
+ * separate the elements of an object or array, so missing, leading and trailing commas are rejected.
+ */
+class JsonPullParser {
+    /**
+     * The deepest nesting of objects and arrays accepted, so a hostile document cannot overflow the stack of the
+     * recursive readers.
+     */
+    static final int MAX_DEPTH = 64;
+
+    private final Reader reader;
+    private final char[] buffer = new char[8192];
+    private final StringBuilder text = new StringBuilder();
+    private int position;
+    private int limit;
+    private int line = 1;
+    private int depth;
+    // Whether the object or array at each depth has had an element yet, so hasNext knows to expect a comma
+    private final boolean[] started = new boolean[MAX_DEPTH + 1];
+
+    JsonPullParser(Reader reader) {
+        this.reader = reader;
+    }
+
+    void beginObject() throws IOException {
+        expect('{');
+        enter();
+    }
+
+    void endObject() throws IOException {
+        expect('}');
+        depth--;
+    }
+
+    void beginArray() throws IOException {
+        expect('[');
+        enter();
+    }
+
+    void endArray() throws IOException {
+        expect(']');
+        depth--;
+    }
+
+    private void enter() throws IOException {
+        if (++depth > MAX_DEPTH)
+            throw error("Nesting deeper than " + MAX_DEPTH + " levels");
+        started[depth] = false;
+    }
+
+    /**
+     * Checks that nothing but whitespace follows the last value.
+     */
+    void endDocument() throws IOException {
+        if (peek() != -1)
+            throw error("Unexpected content after end of document");
+    }
+
+    /**
+     * Returns true if the current object or array has another element, consuming the comma that separates it from
+     * the previous one. Call it exactly once before every element.
+     */
+    boolean hasNext() throws IOException {
+        int c = peek();
+        if (c == '}' || c == ']' || c == -1)
+            return false;
+        if (started[depth]) {
+            if (c != ',')
+                throw error("Expected ',' between elements");
+            position++;
+            c = peek();
+            if (c == '}' || c == ']')
+                throw error("Trailing ','");
+        } else if (c == ',') {
+            throw error("Unexpected ','");
+        }
+        started[depth] = true;
+        return true;
+    }
+
+    /**
+     * Returns true if the next value is a number.
+     */
+    boolean nextIsNumber() throws IOException {
+        int c = peek();
+        return c == '-' || c >= '0' && c <= '9';
+    }
+
+    String nextName() throws IOException {
+        String name = nextString();
+        expect(':');
+        return name;
+    }
+
+    String nextString() throws IOException {
+        expect('"');
+        text.setLength(0);
+        while (true) {
+            int c = read();
+            if (c == '"')
+                return text.toString();
+            if (c == -1)
+                throw error("Unterminated string");
+            if (c == '\\') {
+                c = read();
+                switch (c) {
+                    case 'b': text.append('\b'); break;
+                    case 'f': text.append('\f'); break;
+                    case 'n': text.append('\n'); break;
+                    case 'r': text.append('\r'); break;
+                    case 't': text.append('\t'); break;
+                    case 'u':
+                        int code = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(read(), 16);
+                            if (digit < 0)
+                                throw error("Invalid unicode escape");
+                            code = code * 16 + digit;
+                        }
+                        text.append((char) code);
+                        break;
+                    case '"': case '\\': case '/':
+                        text.append((char) c);
+                        break;
+                    default:
+                        throw error("Invalid escape character");
+                }
+            } else {
+                text.append((char) c);
+            }
+        }
+    }
+
+    double nextDouble() throws IOException {
+        String number = nextNumber();
+        try {
+            return Double.parseDouble(number);
+        } catch (NumberFormatException e) {
+            throw error("Expected a number but found " + number);
+        }
+    }
+
+    /**
+     * Reads an integer; a number with a fraction or an exponent is truncated. Values outside the int range are
+     * rejected instead of wrapping around.
+     */
+    int nextInt() throws IOException {
+        String number = nextNumber();
+        try {
+            for (int i = 0; i < number.length(); i++) {
+                char c = number.charAt(i);
+                if (c == '.' || c == 'e' || c == 'E') {
+                    double value = Double.parseDouble(number);
+                    if (!(value > Integer.MIN_VALUE - 1.0 && value < Integer.MAX_VALUE + 1.0))
+                        throw error("Integer out of range: " + number);
+                    return (int) value;
+                }
+            }
+            return Integer.parseInt(number);
+        } catch (NumberFormatException e) {
+            throw error(number.matches("-?[0-9]+") ? "Integer out of range: " + number : "Expected an integer but found " + number);
+        }
+    }
+
+    /**
+     * Reads a signal strength, checking that a fingerprint can store it.
+     */
+    int nextSignal() throws IOException {
+        int signal = nextInt();
+        if (signal < MacAndValue.MIN_SIGNAL || signal > MacAndValue.MAX_SIGNAL)
+            throw error("Signal strength out of range: " + signal);
+        return signal;
+    }
+
+    boolean nextBoolean() throws IOException {
+        String literal = nextLiteral();
+        if (literal.equals("true"))
+            return true;
+        if (literal.equals("false"))
+            return false;
+        throw error("Expected a boolean but found " + literal);
+    }
+
+    /**
+     * Skips the next value, including any nested objects and arrays.
+     */
+    void skipValue() throws IOException {
+        int c = peek();
+        if (c == '{') {
+            beginObject();
+            while (hasNext()) {
+                nextName();
+                skipValue();
+            }
+            endObject();
+        } else if (c == '[') {
+            beginArray();
+            while (hasNext()) {
+                skipValue();
+            }
+            endArray();
+        } else if (c == '"') {
+            nextString();
+        } else {
+            nextLiteral();
+        }
+    }
+
+    IOException error(String message) {
+        return new IOException(message + " at line " + line);
+    }
+
+    private String nextNumber() throws IOException {
+        String number = nextLiteral();
+        if (number.isEmpty() || !(number.charAt(0) == '-' || Character.isDigit(number.charAt(0))))
+            throw error("Expected a number but found " + number);
+        return number;
+    }
+
+    /**
+     * Reads a number, true, false or null up to the next structural character or whitespace.
+     */
+    private String nextLiteral() throws IOException {
+        peek();
+        text.setLength(0);
+        while (true) {
+            if (position == limit && !fill())
+                break;
+            char c = buffer[position];
+            if (c == ',' || c == '}' || c == ']' || c == ':' || Character.isWhitespace(c))
+                break;
+            text.append(c);
+            position++;
+        }
+        if (text.length() == 0)
+            throw error("Expected a value");
+        return text.toString();
+    }
+
+    private void expect(char expected) throws IOException {
+        int c = peek();
+        if (c != expected)
+            throw error("Expected '" + expected + "' but found " + (c == -1 ? "end of input" : "'" + (char) c + "'"));
+        position++;
+    }
+
+    /**
+     * Skips whitespace and returns the next character without consuming it, or -1 at the end of input.
+     */
+    private int peek() throws IOException {
+        while (true) {
+            if (position == limit && !fill())
+                return -1;
+            char c = buffer[position];
+            if (c == '\n') {
+                line++;
+            } else if (c != ' ' && c != '\t' && c != '\r') {
+                return c;
+            }
+            position++;
+        }
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill())
+            return -1;
+        return buffer[position++];
+    }
+
+    private boolean fill() throws IOException {
+        int count = reader.read(buffer, 0, buffer.length);
+        if (count <= 0)
+            return false;
+        position = 0;
+        limit = count;
+        return true;
+    }
+}
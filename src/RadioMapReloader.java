@@ -0,0 +1,264 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the current {@link RadioMapSnapshot} of a radio map file, and replaces it when the file changes.
+ *
+ * <p>Readers call {@link #current()}, which is a single volatile read: there are no locks on the query path. Once
+ * started, a background thread watches the file's directory with a WatchService. When the file has been created or
+ * modified and then left alone for a quiet period, the new version is loaded and indexed on that thread and
+ * published with an atomic swap. Queries that already hold the previous snapshot finish on it, and it is garbage
+ * collected after the last one. A file that cannot be loaded, e.g. one caught in the middle of being written,
+ * leaves the current snapshot in place until the next change; writing the new version to a temporary file and
+ * moving it over the old one avoids that altogether.
+ */
+public class RadioMapReloader implements Closeable {
+    private final Path file;
+    private final long quietMillis;
+    private final AtomicReference<RadioMapSnapshot> current = new AtomicReference<>();
+    private final List<Consumer<RadioMapSnapshot>> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile Exception lastFailure;
+    private long checksum;
+    private WatchService watcher;
+    private Thread thread;
+
+    /**
+     * Loads the first snapshot of a radio map file. The file is not watched until {@link #start()} is called.
+     *
+     * @param jsonFilePath The radio map JSON file.
+     * @param quietMillis How long the file must stay unchanged after a change before it is reloaded, in milliseconds.
+     * @throws IOException If the file cannot be read or is not a valid radio map.
+     */
+    public RadioMapReloader(Path jsonFilePath, long quietMillis) throws IOException {
+        if (quietMillis < 0)
+            throw new IllegalArgumentException("Quiet period must not be negative: " + quietMillis);
+        this.file = jsonFilePath.toAbsolutePath().normalize();
+        this.quietMillis = quietMillis;
+        RadioMapSnapshot snapshot = RadioMapSnapshot.load(file, 1);
+        this.checksum = PairwiseMatrix.checksum(snapshot.fingerprints());
+        this.current.set(snapshot);
+    }
+
+    /**
+     * Returns the current snapshot. The snapshot never changes; call this again for every query or batch to pick
+     * up reloads.
+     *
+     * @return The latest snapshot that was loaded successfully.
+     */
+    public RadioMapSnapshot current() {
+        return current.get();
+    }
+
+    /**
+     * Adds a listener that is called with every new snapshot after it has been published, on the thread that
+     * loaded it.
+     *
+     * @param listener The listener.
+     */
+    public void addListener(Consumer<RadioMapSnapshot> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener.
+     *
+     * @param listener The listener.
+     */
+    public void removeListener(Consumer<RadioMapSnapshot> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Starts watching the file for changes.
+     *
+     * @throws IOException If the file's directory cannot be watched.
+     */
+    public synchronized void start() throws IOException {
+        if (thread != null)
+            throw new IllegalStateException("Already started");
+        watcher = file.getFileSystem().newWatchService();
+        file.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        thread = new Thread(this::watch, "radio-map-reloader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops watching the file. The current snapshot stays available.
+     *
+     * @throws IOException If the watch service cannot be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (thread != null) {
+            thread.interrupt();
+            watcher.close();
+        }
+    }
+
+    /**
+     * Loads the file now and publishes it as a new snapshot, unless its fingerprints are the same as the current
+     * snapshot's.
+     *
+     * @return true if a new snapshot was published.
+     */
+    public synchronized boolean reload() {
+        RadioMapSnapshot snapshot;
+        long newChecksum;
+        try {
+            List<Fingerprint> fingerprints = RadioMapLoader.load(file);
+            newChecksum = PairwiseMatrix.checksum(fingerprints);
+            if (newChecksum == checksum)
+                return false;
+            snapshot = new RadioMapSnapshot(fingerprints, current.get().version() + 1, file);
+        } catch (IOException | RuntimeException e) {
+            failures.incrementAndGet();
+            lastFailure = e;
+            return false;
+        }
+
+        checksum = newChecksum;
+        current.set(snapshot);
+        for (Consumer<RadioMapSnapshot> listener : listeners) {
+            listener.accept(snapshot);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of changes of the file that could not be loaded.
+     *
+     * @return The number of failed reloads.
+     */
+    public long failures() {
+        return failures.get();
+    }
+
+    /**
+     * Returns why the last failed reload failed.
+     *
+     * @return The exception, or null if no reload failed.
+     */
+    public Exception lastFailure() {
+        return lastFailure;
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                if (!isChanged(watcher.take()))
+                    continue;
+                // Wait until the writer has been quiet for a while, so a file being written is loaded once
+                for (WatchKey key; (key = watcher.poll(quietMillis, TimeUnit.MILLISECONDS)) != null; ) {
+                    isChanged(key);
+                }
+                reload();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * Consumes the events of a key and tells whether any of them may concern the watched file.
+     */
+    private boolean isChanged(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context()))
+                changed = true;
+        }
+        key.reset();
+        return changed;
+    }
+
+    /**
+     * Locates scans continuously while a radio map file is replaced every second, alternating between two versions,
+     * and reports the query throughput in every 100 ms interval and the query latencies.
+     *
+     * @param args The two versions of the radio map (radio_map.json and new_radio_map.json by default), the scans
+     *             (training.json by default) and the duration in seconds (10 by default).
+     * @throws Exception If a file cannot be read or written.
+     */
+    public static void main(String[] args) throws Exception {
+        Path[] versions = {Paths.get(args.length > 0 ? args[0] : "radio_map.json"),
+                Paths.get(args.length > 1 ? args[1] : "new_radio_map.json")};
+        List<Fingerprint> scans = RadioMapLoader.load(Paths.get(args.length > 2 ? args[2] : "training.json"));
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+        Path directory = Files.createTempDirectory("radio-map-reloader");
+        Path file = directory.resolve("radio_map.json");
+        Files.copy(versions[0], file);
+        Locator locator = new Locator();
+        LatencyHistogram latencies = new LatencyHistogram();
+        AtomicLong queries = new AtomicLong();
+        AtomicLong reloads = new AtomicLong();
+
+        try (RadioMapReloader reloader = new RadioMapReloader(file, 50)) {
+            reloader.addListener(snapshot -> reloads.incrementAndGet());
+            reloader.start();
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < Runtime.getRuntime().availableProcessors(); t++) {
+                int first = t;
+                Thread thread = new Thread(() -> {
+                    for (int i = first; System.nanoTime() < deadline; i++) {
+                        long start = System.nanoTime();
+                        reloader.current().getLocation(locator, scans.get(i % scans.size()));
+                        latencies.record(System.nanoTime() - start);
+                        queries.incrementAndGet();
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+
+            // Replace the file every second by moving a complete copy over it, and sample the throughput
+            List<Long> intervalQueries = new ArrayList<>();
+            long previous = 0;
+            for (int interval = 1; System.nanoTime() < deadline; interval++) {
+                Thread.sleep(100);
+                long count = queries.get();
+                intervalQueries.add(count - previous);
+                previous = count;
+                if (interval % 10 == 0) {
+                    Path temporary = directory.resolve("radio_map.json.tmp");
+                    Files.copy(versions[interval / 10 % 2], temporary, StandardCopyOption.REPLACE_EXISTING);
+                    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            long min = intervalQueries.stream().mapToLong(Long::longValue).min().orElse(0);
+            double mean = intervalQueries.stream().mapToLong(Long::longValue).average().orElse(0);
+            System.out.printf("%d queries, %d reloads to version %d (%d failed)%n", queries.get(), reloads.get(),
+                    reloader.current().version(), reloader.failures());
+            System.out.printf("Queries per 100 ms: mean %.0f, lowest %d%n", mean, min);
+            System.out.println("Latency us: " + latencies.summary(1000));
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(directory.resolve("radio_map.json.tmp"));
+            Files.deleteIfExists(directory);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * An immutable, indexed version of a radio map. A snapshot is built once and never changed, so any number of
+ * threads can locate against it without locking, and a newer snapshot can replace it while queries are still
+ * running on it.
+ *
+ * <p>The snapshot takes over its fingerprints: they must not be changed after it was built, since neither the
+ * index nor the fingerprints' cached strong APs would reflect the change.
+ */
+public final class RadioMapSnapshot {
+    private final RadioMapIndex index;
+    private final long version;
+    private final Path source;
+    private final long loadedAtMillis;
+
+    /**
+     * Builds a snapshot of a list of fingerprints.
+     *
+     * @param fingerprints The fingerprints of the radio map; the list is copied.
+     * @param version The version of the radio map, increasing with every reload.
+     * @param source The file the fingerprints were loaded from, or null.
+     */
+    public RadioMapSnapshot(List<Fingerprint> fingerprints, long version, Path source) {
+        this.index = new RadioMapIndex(fingerprints);
+        this.version = version;
+        this.source = source;
+        this.loadedAtMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Loads and indexes a radio map JSON file.
+     *
+     * @param jsonFilePath The path to the JSON file containing the fingerprints.
+     * @param version The version of the radio map.
+     * @return The snapshot.
+     * @throws IOException If the file cannot be read or is not a valid radio map.
+     */
+    public static RadioMapSnapshot load(Path jsonFilePath, long version) throws IOException {
+        return new RadioMapSnapshot(RadioMapLoader.load(jsonFilePath), version, jsonFilePath);
+    }
+
+    /**
+     * Calculates the location of a fingerprint against this snapshot.
+     *
+     * @param locator The Locator used to calculate the location.
+     * @param fingerprint The fingerprint for which the location is to be calculated.
+     * @return A PointF object representing the calculated location.
+     * @see Locator#getLocation(RadioMapIndex, Fingerprint)
+     */
+    public PointF getLocation(Locator locator, Fingerprint fingerprint) {
+        return locator.getLocation(index, fingerprint);
+    }
+
+    /**
+     * Returns the index of the snapshot.
+     *
+     * @return The index.
+     */
+    public RadioMapIndex index() {
+        return index;
+    }
+
+    /**
+     * Returns the fingerprints of the snapshot, in their original order.
+     *
+     * @return An unmodifiable list of the fingerprints.
+     */
+    public List<Fingerprint> fingerprints() {
+        return index.fingerprints();
+    }
+
+    /**
+     * Returns the number of fingerprints in the snapshot.
+     *
+     * @return The number of fingerprints.
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Returns the version of the snapshot.
+     *
+     * @return The version, increasing with every reload.
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * Returns the file the snapshot was loaded from.
+     *
+     * @return The path, or null if the snapshot was not loaded from a file.
+     */
+    public Path source() {
+        return source;
+    }
+
+    /**
+     * Returns when the snapshot was built.
+     *
+     * @return The time in milliseconds since the epoch.
+     */
+    public long loadedAtMillis() {
+        return loadedAtMillis;
+    }
+}
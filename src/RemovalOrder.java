@@ -0,0 +1,150 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * The order in which fingerprints are removed from a radio map in a map-reduction experiment.
+ * An order is a permutation of the radio map positions; the first position is removed first.
+ */
+public interface RemovalOrder {
+
+    /**
+     * Returns the positions of the radio map's fingerprints in the order they should be removed.
+     *
+     * @param radioMap The radio map to be reduced.
+     * @return A permutation of 0 to radioMap.size() - 1.
+     */
+    int[] order(List<Fingerprint> radioMap);
+
+    /**
+     * Removes fingerprints from the start of the radio map, like repeatedly removing its first element.
+     *
+     * @return The removal order.
+     */
+    static RemovalOrder byIndex() {
+        return radioMap -> {
+            int[] order = new int[radioMap.size()];
+            Arrays.setAll(order, i -> i);
+            return order;
+        };
+    }
+
+    /**
+     * Removes fingerprints in a random order.
+     *
+     * @param seed The seed of the shuffle, so the same order can be produced again.
+     * @return The removal order.
+     */
+    static RemovalOrder random(long seed) {
+        return radioMap -> {
+            int[] order = byIndex().order(radioMap);
+            Random random = new Random(seed);
+            for (int i = order.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int swap = order[i];
+                order[i] = order[j];
+                order[j] = swap;
+            }
+            return order;
+        };
+    }
+
+    /**
+     * Keeps the fingerprints that cover the floor best. A farthest-first traversal over the fingerprint centers picks,
+     * in turn, the fingerprint farthest from all those already picked; fingerprints are removed in the reverse order,
+     * so whatever remains at any step is the most spread-out subset the traversal found.
+     *
+     * @return The removal order.
+     */
+    static RemovalOrder farthestFirst() {
+        return radioMap -> {
+            int n = radioMap.size();
+            int[] order = new int[n];
+            if (n == 0)
+                return order;
+
+            double[] nearest = new double[n];
+            Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+            boolean[] picked = new boolean[n];
+            int current = 0;
+            for (int step = n - 1; step >= 0; step--) {
+                picked[current] = true;
+                order[step] = current;
+
+                Point center = radioMap.get(current).center;
+                int farthest = -1;
+                for (int i = 0; i < n; i++) {
+                    if (picked[i])
+                        continue;
+                    Point other = radioMap.get(i).center;
+                    nearest[i] = Math.min(nearest[i], Main.calculateDistance(center.x, center.y, other.x, other.y));
+                    if (farthest < 0 || nearest[i] > nearest[farthest])
+                        farthest = i;
+                }
+                current = farthest;
+            }
+            return order;
+        };
+    }
+
+    /**
+     * Keeps every AP covered as long as possible. The coverage of an AP is the number of remaining fingerprints in which
+     * it is strong; the fingerprint removed next is the one whose least covered strong AP is covered the most, so
+     * redundant fingerprints go first and the last fingerprint hearing an AP goes last. Ties go to the lower position.
+     *
+     * @return The removal order.
+     */
+    static RemovalOrder apCoverage() {
+        return radioMap -> {
+            RadioMapIndex index = new RadioMapIndex(radioMap);
+            int n = radioMap.size();
+            int[] coverage = new int[ApDictionary.size()];
+            for (int apId = 0; apId < coverage.length; apId++) {
+                coverage[apId] = index.postings(apId).length;
+            }
+
+            // Coverage only ever drops, so a popped entry whose key is still current is the true maximum
+            int[] keys = new int[n];
+            PriorityQueue<long[]> queue = new PriorityQueue<>((a, b) -> a[0] != b[0] ? Long.compare(b[0], a[0]) : Long.compare(a[1], b[1]));
+            for (int i = 0; i < n; i++) {
+                keys[i] = minimumCoverage(radioMap.get(i), coverage);
+                queue.add(new long[]{keys[i], i});
+            }
+
+            int[] order = new int[n];
+            boolean[] removed = new boolean[n];
+            int step = 0;
+            while (!queue.isEmpty()) {
+                long[] top = queue.poll();
+                int i = (int) top[1];
+                if (removed[i])
+                    continue;
+
+                int key = minimumCoverage(radioMap.get(i), coverage);
+                if (key != top[0]) {
+                    queue.add(new long[]{key, i});
+                    continue;
+                }
+
+                removed[i] = true;
+                order[step++] = i;
+                for (int apId : Locator.strongAps(radioMap.get(i)).ids) {
+                    coverage[apId]--;
+                }
+            }
+            return order;
+        };
+    }
+
+    /**
+     * Returns the smallest coverage among the strong APs of a fingerprint, or Integer.MAX_VALUE if it has none.
+     */
+    private static int minimumCoverage(Fingerprint fingerprint, int[] coverage) {
+        int minimum = Integer.MAX_VALUE;
+        for (int apId : Locator.strongAps(fingerprint).ids) {
+            minimum = Math.min(minimum, coverage[apId]);
+        }
+        return minimum;
+    }
+}
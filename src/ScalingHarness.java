@@ -0,0 +1,217 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Measures how the Locator scales with the size of the radio map and the number of APs, on synthetic radio maps.
+ *
+ * <p>Usage: {@code java ScalingHarness [--fingerprints 1000,10000,100000] [--aps 50,500,5000] [--queries 200]
+ * [--noise 3] [--seed 1] [--csv results.csv]}
+ *
+ * <p>For every number of APs and every radio map size a map is generated with {@link SyntheticRadioMapGenerator},
+ * and the same queries, scanned at random positions of the floor plan, are located through every search path. The
+ * table has the time to build each search structure and the heap it uses, the latency percentiles, the throughput,
+ * the bytes allocated per query (n/a on a JVM that cannot count them) and the mean distance from the true
+ * positions; the list row has the time to generate the map and the heap of the map itself. The linear search over
+ * the list is only measured up to 100,000 fingerprints. A 1,000,000 fingerprint map needs a heap of a few GB (-Xmx4g).
+ */
+public class ScalingHarness {
+    private static final int LINEAR_LIMIT = 100_000;
+    private static final long MIN_WARMUP_NANOS = 500_000_000L;
+
+    /**
+     * The measurements of one search path on one radio map.
+     */
+    static class Row {
+        final int apCount;
+        final int size;
+        final String path;
+        final double buildSeconds;
+        final long heapBytes;
+        final LatencyHistogram nanos = new LatencyHistogram();
+        double queriesPerSecond;
+        double bytesPerQuery;
+        double meanError;
+        int located;
+
+        Row(int apCount, int size, String path, double buildSeconds, long heapBytes) {
+            this.apCount = apCount;
+            this.size = size;
+            this.path = path;
+            this.buildSeconds = buildSeconds;
+            this.heapBytes = heapBytes;
+        }
+    }
+
+    /**
+     * Locates one query, returning the location or null if the radio map has no match.
+     */
+    private interface Search {
+        PointF locate(Fingerprint query);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int[] sizes = {1_000, 10_000, 100_000};
+        int[] apCounts = {50, 500, 5_000};
+        int queryCount = 200;
+        double noiseDb = 3;
+        long seed = 1;
+        Path csv = null;
+        for (int i = 0; i < args.length; i += 2) {
+            switch (args[i]) {
+                case "--fingerprints":
+                    sizes = Arrays.stream(args[i + 1].split(",")).mapToInt(Integer::parseInt).toArray();
+                    break;
+                case "--aps":
+                    apCounts = Arrays.stream(args[i + 1].split(",")).mapToInt(Integer::parseInt).toArray();
+                    break;
+                case "--queries":
+                    queryCount = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--noise":
+                    noiseDb = Double.parseDouble(args[i + 1]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[i + 1]);
+                    break;
+                case "--csv":
+                    csv = Paths.get(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        List<Row> rows = new ArrayList<>();
+        System.out.println(header());
+        for (int apCount : apCounts) {
+            SyntheticRadioMapGenerator generator = new SyntheticRadioMapGenerator(apCount, noiseDb, seed);
+            List<Fingerprint> queries = generator.queries(queryCount, seed);
+            for (int size : sizes) {
+                for (Row row : measure(generator, size, queries)) {
+                    System.out.println(format(row));
+                    rows.add(row);
+                }
+            }
+        }
+
+        if (csv != null)
+            writeCsv(rows, csv);
+    }
+
+    private static List<Row> measure(SyntheticRadioMapGenerator generator, int size, List<Fingerprint> queries) {
+        List<Row> rows = new ArrayList<>();
+        int apCount = generator.apCount();
+        Locator locator = new Locator();
+
+        long heap = usedHeap();
+        long start = System.nanoTime();
+        List<Fingerprint> radioMap = generator.generate(size);
+        double generateSeconds = (System.nanoTime() - start) / 1e9;
+        long mapBytes = usedHeap() - heap;
+
+        Row list = new Row(apCount, size, "list", generateSeconds, mapBytes);
+        rows.add(size <= LINEAR_LIMIT ? run(list, queries, query -> locator.getLocation(radioMap, query)) : list);
+
+        heap = usedHeap();
+        start = System.nanoTime();
+        RadioMapIndex index = new RadioMapIndex(radioMap);
+        double indexSeconds = (System.nanoTime() - start) / 1e9;
+        long indexBytes = usedHeap() - heap;
+        rows.add(run(new Row(apCount, size, "index", indexSeconds, indexBytes), queries,
+                query -> locator.getLocation(index, query)));
+
+        LocatorContext context = new LocatorContext();
+        PointF location = new PointF();
+        rows.add(run(new Row(apCount, size, "index+context", indexSeconds, indexBytes), queries,
+                query -> locator.getLocation(index, query, context, location)));
+
+        heap = usedHeap();
+        start = System.nanoTime();
+        LshRadioMapIndex lsh = new LshRadioMapIndex(radioMap, 8, 3, 1);
+        double lshSeconds = (System.nanoTime() - start) / 1e9;
+        long lshBytes = usedHeap() - heap;
+        rows.add(run(new Row(apCount, size, "lsh 8x3", lshSeconds, lshBytes), queries,
+                query -> locator.getLocation(lsh, query)));
+        return rows;
+    }
+
+    /**
+     * Runs the queries until the JIT compiler has settled, then locates every query once more, timing each one.
+     */
+    private static Row run(Row row, List<Fingerprint> queries, Search search) {
+        long warmupEnd = System.nanoTime() + MIN_WARMUP_NANOS;
+        for (int round = 0; round < 3 || System.nanoTime() < warmupEnd; round++) {
+            for (Fingerprint query : queries) {
+                PointF location = search.locate(query);
+                Benchmark.sink += location == null ? 0 : Double.doubleToRawLongBits(location.getX());
+            }
+        }
+
+        double errorSum = 0;
+        long totalNanos = 0;
+        boolean countAllocations = LocatorMetrics.isAllocationCountingSupported();
+        long startBytes = countAllocations ? LocatorMetrics.allocatedBytes() : 0;
+        for (Fingerprint query : queries) {
+            long start = System.nanoTime();
+            PointF location = search.locate(query);
+            long nanos = System.nanoTime() - start;
+            row.nanos.record(nanos);
+            totalNanos += nanos;
+
+            if (location != null && !Double.isNaN(location.getX())) {
+                errorSum += Math.hypot(location.getX() - query.center.x, location.getY() - query.center.y);
+                row.located++;
+            }
+        }
+        row.bytesPerQuery = countAllocations
+                ? (double) (LocatorMetrics.allocatedBytes() - startBytes) / queries.size() : Double.NaN;
+        row.queriesPerSecond = queries.size() * 1e9 / totalNanos;
+        row.meanError = row.located == 0 ? Double.NaN : errorSum / row.located;
+        return row;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static String header() {
+        return String.format(Locale.ROOT, "%5s %9s %-13s %8s %9s %9s %9s %9s %10s %9s %8s %7s",
+                "APs", "size", "path", "build s", "heap MB", "mean us", "p50 us", "p99 us", "queries/s", "B/query",
+                "error m", "located");
+    }
+
+    private static String format(Row row) {
+        if (row.nanos.count() == 0)
+            return String.format(Locale.ROOT, "%5d %9d %-13s %8.2f %9.1f %9s", row.apCount, row.size, row.path,
+                    row.buildSeconds, row.heapBytes / 1e6, "skipped");
+        return String.format(Locale.ROOT, "%5d %9d %-13s %8.2f %9.1f %9.1f %9.1f %9.1f %10.0f %9s %8.2f %6.1f%%",
+                row.apCount, row.size, row.path, row.buildSeconds, row.heapBytes / 1e6, row.nanos.mean() / 1e3,
+                row.nanos.percentile(50) / 1e3, row.nanos.percentile(99) / 1e3, row.queriesPerSecond,
+                Double.isNaN(row.bytesPerQuery) ? "n/a" : String.format(Locale.ROOT, "%.0f", row.bytesPerQuery),
+                row.meanError, 100.0 * row.located / row.nanos.count());
+    }
+
+    private static void writeCsv(List<Row> rows, Path path) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(path))) {
+            out.println("aps,fingerprints,path,build_s,heap_bytes,mean_ns,p50_ns,p99_ns,queries_per_s,bytes_per_query,mean_error_m,located");
+            for (Row row : rows) {
+                out.printf(Locale.ROOT, "%d,%d,%s,%.3f,%d,%.0f,%d,%d,%.0f,%s,%.3f,%d%n", row.apCount, row.size,
+                        row.path, row.buildSeconds, row.heapBytes, row.nanos.mean(), row.nanos.percentile(50),
+                        row.nanos.percentile(99), row.queriesPerSecond,
+                        Double.isNaN(row.bytesPerQuery) ? "" : String.format(Locale.ROOT, "%.0f", row.bytesPerQuery),
+                        row.meanError, row.located);
+            }
+        }
+    }
+}
@@ -0,0 +1,366 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A radio map partitioned into zones, each with its own {@link RadioMapIndex}, so the cost of a query grows with the
+ * size of the zones it touches rather than with the whole map.
+ *
+ * <p>Fingerprints are first split by AP universe: two fingerprints belong to the same universe when they are linked
+ * through a chain of shared strong APs, so separate buildings or floors that hear different APs fall apart. Every
+ * universe is then split into square tiles of its fingerprints' centers. Fingerprints without strong APs form a zone
+ * of their own.
+ *
+ * <p>A query is routed by its strong APs. A zone in which c of them are strong can score at most 3c - |Q|, since
+ * score = 4 * common - |Q| - |F| and |F| is at least common. Zones are searched in decreasing order of that bound
+ * until the bound drops below the best score found, so the result is exactly that of the unsharded radio map.
+ * Optionally only the most promising zones are searched, which bounds the work per query at the cost of missing
+ * neighbours of queries that straddle several zones.
+ */
+public class ShardedRadioMap implements CandidateSource {
+    private static final int[] NO_ZONES = new int[0];
+
+    private final List<Fingerprint> fingerprints;
+    private final int maxZones;
+    private final RadioMapIndex[] zoneIndexes;
+    private final int[][] zonePositions;
+    private final int[] zoneMaxStrongCounts;
+    private final int[][] apZones;
+    private final int[] zoneOf;
+    private final int[] localIndexOf;
+    private final int zoneWithoutStrongAps;
+
+    /**
+     * Builds a sharded radio map that searches every zone that can hold the best neighbours.
+     *
+     * @param fingerprints The fingerprints of the radio map, in the order results should be reported.
+     * @param tileSize The side of the square tiles the AP universes are split into, in the units of the centers;
+     *                 Double.POSITIVE_INFINITY splits by AP universe only.
+     */
+    public ShardedRadioMap(List<Fingerprint> fingerprints, double tileSize) {
+        this(fingerprints, tileSize, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Builds a sharded radio map that searches at most the given number of zones per query.
+     *
+     * @param fingerprints The fingerprints of the radio map, in the order results should be reported.
+     * @param tileSize The side of the square tiles the AP universes are split into, in the units of the centers;
+     *                 Double.POSITIVE_INFINITY splits by AP universe only.
+     * @param maxZones The maximum number of zones searched per query.
+     */
+    public ShardedRadioMap(List<Fingerprint> fingerprints, double tileSize, int maxZones) {
+        if (!(tileSize > 0))
+            throw new IllegalArgumentException("Tile size must be positive: " + tileSize);
+        if (maxZones < 1)
+            throw new IllegalArgumentException("Maximum number of zones must be positive: " + maxZones);
+
+        this.fingerprints = Collections.unmodifiableList(new ArrayList<>(fingerprints));
+        this.maxZones = maxZones;
+        int n = this.fingerprints.size();
+
+        // Union fingerprints that share a strong AP; each AP links to the first fingerprint it was seen in
+        int[] parent = new int[n];
+        boolean[] hasStrongAps = new boolean[n];
+        int[] firstWithAp = new int[ApDictionary.size()];
+        Arrays.fill(firstWithAp, -1);
+        for (int i = 0; i < n; i++) {
+            parent[i] = i;
+            for (int apId : Locator.strongAps(this.fingerprints.get(i)).ids) {
+                hasStrongAps[i] = true;
+                if (apId >= firstWithAp.length) {
+                    int oldLength = firstWithAp.length;
+                    firstWithAp = Arrays.copyOf(firstWithAp, Math.max(apId + 1, oldLength * 2));
+                    Arrays.fill(firstWithAp, oldLength, firstWithAp.length, -1);
+                }
+                if (firstWithAp[apId] < 0) {
+                    firstWithAp[apId] = i;
+                } else {
+                    parent[find(parent, i)] = find(parent, firstWithAp[apId]);
+                }
+            }
+        }
+
+        // Group the fingerprints by universe and tile, in order of their first member
+        Map<List<Long>, List<Integer>> members = new LinkedHashMap<>();
+        List<Integer> withoutStrongAps = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            Fingerprint fingerprint = this.fingerprints.get(i);
+            if (!hasStrongAps[i]) {
+                withoutStrongAps.add(i);
+                continue;
+            }
+            List<Long> key = Arrays.asList((long) find(parent, i),
+                    (long) Math.floor(fingerprint.center.x / tileSize), (long) Math.floor(fingerprint.center.y / tileSize));
+            members.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+        }
+        List<List<Integer>> zones = new ArrayList<>(members.values());
+        zoneWithoutStrongAps = withoutStrongAps.isEmpty() ? -1 : zones.size();
+        if (!withoutStrongAps.isEmpty())
+            zones.add(withoutStrongAps);
+
+        zoneIndexes = new RadioMapIndex[zones.size()];
+        zonePositions = new int[zones.size()][];
+        zoneMaxStrongCounts = new int[zones.size()];
+        zoneOf = new int[n];
+        localIndexOf = new int[n];
+        List<List<Integer>> zonesOfAp = new ArrayList<>();
+        for (int z = 0; z < zones.size(); z++) {
+            List<Integer> zone = zones.get(z);
+            List<Fingerprint> zoneFingerprints = new ArrayList<>(zone.size());
+            zonePositions[z] = new int[zone.size()];
+            for (int local = 0; local < zone.size(); local++) {
+                int i = zone.get(local);
+                zoneFingerprints.add(this.fingerprints.get(i));
+                zonePositions[z][local] = i;
+                zoneOf[i] = z;
+                localIndexOf[i] = local;
+            }
+            zoneIndexes[z] = new RadioMapIndex(zoneFingerprints);
+
+            for (int local = 0; local < zone.size(); local++) {
+                zoneMaxStrongCounts[z] = Math.max(zoneMaxStrongCounts[z], zoneIndexes[z].strongCount(local));
+                for (int apId : Locator.strongAps(zoneFingerprints.get(local)).ids) {
+                    while (zonesOfAp.size() <= apId) {
+                        zonesOfAp.add(null);
+                    }
+                    if (zonesOfAp.get(apId) == null)
+                        zonesOfAp.set(apId, new ArrayList<>());
+                    List<Integer> apZoneList = zonesOfAp.get(apId);
+                    if (apZoneList.isEmpty() || apZoneList.get(apZoneList.size() - 1) != z)
+                        apZoneList.add(z);
+                }
+            }
+        }
+
+        apZones = new int[zonesOfAp.size()][];
+        for (int apId = 0; apId < apZones.length; apId++) {
+            List<Integer> apZoneList = zonesOfAp.get(apId);
+            apZones[apId] = apZoneList == null ? NO_ZONES : apZoneList.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /**
+     * Returns the number of fingerprints in the radio map.
+     *
+     * @return The number of fingerprints.
+     */
+    public int size() {
+        return fingerprints.size();
+    }
+
+    /**
+     * Returns the fingerprints of the radio map, in their original order.
+     *
+     * @return An unmodifiable list of the fingerprints.
+     */
+    public List<Fingerprint> fingerprints() {
+        return fingerprints;
+    }
+
+    /**
+     * Returns the fingerprint at the given position.
+     *
+     * @param index The position of the fingerprint.
+     * @return The fingerprint.
+     */
+    @Override
+    public Fingerprint get(int index) {
+        return fingerprints.get(index);
+    }
+
+    /**
+     * Returns the number of zones.
+     *
+     * @return The number of zones.
+     */
+    public int zoneCount() {
+        return zoneIndexes.length;
+    }
+
+    /**
+     * Returns the number of fingerprints in a zone.
+     *
+     * @param zone The zone, from 0 to zoneCount() - 1.
+     * @return The number of fingerprints in the zone.
+     */
+    public int zoneSize(int zone) {
+        return zonePositions[zone].length;
+    }
+
+    /**
+     * Returns the zone of the fingerprint at the given position.
+     *
+     * @param index The position of the fingerprint.
+     * @return The zone of the fingerprint.
+     */
+    public int zoneOf(int index) {
+        return zoneOf[index];
+    }
+
+    /**
+     * Returns the ascending positions of the fingerprints with the best score above the minimum score,
+     * searching only the zones that can reach it.
+     *
+     * @param fingerprint The fingerprint used as a reference for scoring.
+     * @param excludedIndex The position of the fingerprint to leave out, or -1 to use the whole radio map.
+     * @return The positions of the best fingerprints.
+     */
+    @Override
+    public int[] bestPositions(Fingerprint fingerprint, int excludedIndex) {
+        Fingerprint.StrongAps fingerprintAps = Locator.strongAps(fingerprint);
+        int fingerprintApCount = fingerprintAps.count();
+
+        if (fingerprintApCount == 0) {
+            if (zoneWithoutStrongAps < 0)
+                return new int[0];
+            return globalPositions(zoneWithoutStrongAps, zoneBestPositions(zoneWithoutStrongAps, fingerprintAps, excludedIndex), 0, null);
+        }
+
+        // Count the query's strong APs that are strong somewhere in each zone
+        int[] common = new int[zoneIndexes.length];
+        int[] touched = new int[zoneIndexes.length];
+        int touchedCount = 0;
+        for (int apId : fingerprintAps.ids) {
+            for (int z : apId < apZones.length ? apZones[apId] : NO_ZONES) {
+                if (common[z]++ == 0)
+                    touched[touchedCount++] = z;
+            }
+        }
+
+        // Sort the zones by their score bound, highest first, then by zone
+        long[] routes = new long[touchedCount];
+        for (int t = 0; t < touchedCount; t++) {
+            int z = touched[t];
+            int bound = 3 * Math.min(common[z], zoneMaxStrongCounts[z]) - fingerprintApCount;
+            routes[t] = (long) -bound << 32 | z;
+        }
+        Arrays.sort(routes);
+
+        int bestScore = Locator.NEIGHBOUR_MIN_SCORE;
+        int[] best = new int[0];
+        int searched = 0;
+        for (long route : routes) {
+            int bound = -(int) (route >> 32);
+            int z = (int) route;
+            if (bound < bestScore || bound <= Locator.NEIGHBOUR_MIN_SCORE || searched++ == maxZones)
+                break;
+
+            int[] local = zoneBestPositions(z, fingerprintAps, excludedIndex);
+            if (local.length == 0)
+                continue;
+            int score = Locator.score(fingerprint, zoneIndexes[z].get(local[0]));
+            if (score > bestScore) {
+                bestScore = score;
+                best = globalPositions(z, local, 0, null);
+            } else if (score == bestScore) {
+                best = globalPositions(z, local, best.length, best);
+            }
+        }
+        Arrays.sort(best);
+        return best;
+    }
+
+    private int[] zoneBestPositions(int zone, Fingerprint.StrongAps fingerprintAps, int excludedIndex) {
+        int localExcluded = excludedIndex >= 0 && zoneOf[excludedIndex] == zone ? localIndexOf[excludedIndex] : -1;
+        return Locator.bestPositions(zoneIndexes[zone], fingerprintAps, localExcluded);
+    }
+
+    /**
+     * Translates positions within a zone to radio map positions, appending them to the first count of previous.
+     */
+    private int[] globalPositions(int zone, int[] local, int count, int[] previous) {
+        int[] global = previous == null ? new int[local.length] : Arrays.copyOf(previous, count + local.length);
+        for (int i = 0; i < local.length; i++) {
+            global[count + i] = zonePositions[zone][local[i]];
+        }
+        return global;
+    }
+
+    /**
+     * Builds a campus of several buildings from copies of a radio map, each hearing its own APs, and compares
+     * the sharded radio map with the single index on it.
+     *
+     * @param args The radio map JSON file (radio_map.json by default), the number of buildings (16 by default) and
+     *             the tile size (20 by default).
+     * @throws IOException If the radio map cannot be loaded.
+     */
+    public static void main(String[] args) throws IOException {
+        String jsonFilePath = args.length > 0 ? args[0] : "radio_map.json";
+        int buildings = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        double tileSize = args.length > 2 ? Double.parseDouble(args[2]) : 20;
+        List<Fingerprint> building = RadioMapLoader.load(Paths.get(jsonFilePath));
+
+        List<Fingerprint> campus = new ArrayList<>();
+        for (int b = 0; b < buildings; b++) {
+            for (Fingerprint original : building) {
+                Fingerprint copy = new Fingerprint();
+                copy.center.x = original.center.x + 1000 * b;
+                copy.center.y = original.center.y;
+                for (MacAndValue macAndValue : original.instance.macsAndValues) {
+                    copy.instance.macsAndValues.add(new MacAndValue(macAndValue.mac + "@" + b, macAndValue.signal));
+                }
+                campus.add(copy);
+            }
+        }
+
+        long start = System.nanoTime();
+        RadioMapIndex index = new RadioMapIndex(campus);
+        System.out.printf("Indexed %d fingerprints in %.1f ms%n", campus.size(), (System.nanoTime() - start) / 1e6);
+        start = System.nanoTime();
+        ShardedRadioMap sharded = new ShardedRadioMap(campus, tileSize);
+        System.out.printf("Sharded %d fingerprints into %d zones in %.1f ms%n", campus.size(), sharded.zoneCount(), (System.nanoTime() - start) / 1e6);
+        ShardedRadioMap nearest = new ShardedRadioMap(campus, tileSize, 1);
+
+        Random random = new Random(1);
+        List<Fingerprint> queries = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            queries.add(campus.get(random.nextInt(campus.size())));
+        }
+
+        Locator locator = new Locator();
+        Benchmark benchmark = new Benchmark(3, 5);
+        System.out.println(benchmark.run("getLocation indexed", queries.size(), () -> {
+            for (Fingerprint query : queries) {
+                Benchmark.sink += Double.doubleToRawLongBits(locator.getLocation(index, query).getX());
+            }
+        }));
+        System.out.println(benchmark.run("getLocation sharded", queries.size(), () -> {
+            for (Fingerprint query : queries) {
+                Benchmark.sink += Double.doubleToRawLongBits(locator.getLocation(sharded, query).getX());
+            }
+        }));
+        System.out.println(benchmark.run("getLocation sharded, 1 zone", queries.size(), () -> {
+            for (Fingerprint query : queries) {
+                Benchmark.sink += Double.doubleToRawLongBits(locator.getLocation(nearest, query).getX());
+            }
+        }));
+
+        int different = 0, differentNearest = 0;
+        for (Fingerprint query : queries) {
+            PointF expected = locator.getLocation(index, query);
+            PointF actual = locator.getLocation(sharded, query);
+            PointF approximate = locator.getLocation(nearest, query);
+            if (Double.compare(expected.getX(), actual.getX()) != 0 || Double.compare(expected.getY(), actual.getY()) != 0)
+                different++;
+            if (Double.compare(expected.getX(), approximate.getX()) != 0 || Double.compare(expected.getY(), approximate.getY()) != 0)
+                differentNearest++;
+        }
+        System.out.printf("Locations different from the index: %d of %d (all zones), %d of %d (1 zone)%n",
+                different, queries.size(), differentNearest, queries.size());
+    }
+}
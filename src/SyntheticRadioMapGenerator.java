@@ -0,0 +1,275 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * Generates radio maps of any size from a simulated floor plan, for testing the Locator beyond the bundled data.
+ *
+ * <p>The floor plan is a rectangular building twice as wide as it is deep, with an area of 200 square meters per
+ * AP, divided into square rooms of 10 meters. The APs stand on a jittered grid, one per 200 square meters, each
+ * with its own transmit power offset. The signal of an AP follows a log-distance path-loss model,
+ * {@code -35 dBm - 10 * 3 * log10(distance) - 3 dB per wall crossed}, plus a normally distributed noise for every
+ * scan; a scan hears the APs whose signal is at least -95 dBm. The APs have locally administered MAC addresses
+ * derived from their number, so maps with fewer APs reuse the addresses of maps with more.
+ *
+ * <p>Everything is derived from the seed and the position of a fingerprint in the map, so the same arguments always
+ * generate the same map, and the first fingerprints of a larger map are the fingerprints of a smaller one.
+ */
+public class SyntheticRadioMapGenerator {
+    private static final double AREA_PER_AP = 200;
+    private static final double ROOM_SIZE = 10;
+    private static final double REFERENCE_RSS = -35;
+    private static final double PATH_LOSS_EXPONENT = 3.0;
+    private static final double WALL_LOSS = 3;
+    private static final int DETECTION_THRESHOLD = -95;
+    private static final int MAX_RSS = -30;
+
+    private final int apCount;
+    private final double noiseDb;
+    private final long seed;
+    private final double width;
+    private final double height;
+    private final double[] apX;
+    private final double[] apY;
+    private final double[] apPower;
+    private final String[] macs;
+    private final double range;
+    private final int gridColumns;
+    private final int gridRows;
+    private final int[][] apsByCell;
+
+    /**
+     * Creates the floor plan and places its APs.
+     *
+     * @param apCount The number of APs.
+     * @param noiseDb The standard deviation of the noise of every signal of a scan, in dB.
+     * @param seed The seed of the floor plan and of the scans.
+     */
+    public SyntheticRadioMapGenerator(int apCount, double noiseDb, long seed) {
+        if (apCount < 1)
+            throw new IllegalArgumentException("Number of APs must be positive: " + apCount);
+        if (!(noiseDb >= 0))
+            throw new IllegalArgumentException("Noise must not be negative: " + noiseDb);
+        this.apCount = apCount;
+        this.noiseDb = noiseDb;
+        this.seed = seed;
+        this.height = Math.sqrt(apCount * AREA_PER_AP / 2);
+        this.width = 2 * height;
+
+        // A grid of cells of about 200 square meters with one AP somewhere in each of the first apCount cells
+        int apColumns = (int) Math.ceil(Math.sqrt(2.0 * apCount));
+        int apRows = (apCount + apColumns - 1) / apColumns;
+        SplittableRandom random = new SplittableRandom(seed);
+        apX = new double[apCount];
+        apY = new double[apCount];
+        apPower = new double[apCount];
+        macs = new String[apCount];
+        for (int ap = 0; ap < apCount; ap++) {
+            apX[ap] = (ap % apColumns + random.nextDouble()) * width / apColumns;
+            apY[ap] = (ap / apColumns + random.nextDouble()) * height / apRows;
+            apPower[ap] = random.nextDouble(-3, 3);
+            macs[ap] = mac(ap);
+        }
+
+        // Only APs within range are evaluated for a scan: beyond it, even the strongest AP with a noise of four
+        // standard deviations through the fewest walls a path of that length crosses is not heard
+        double range = 1;
+        while (REFERENCE_RSS + 3 + 4 * noiseDb - 10 * PATH_LOSS_EXPONENT * Math.log10(range)
+                - WALL_LOSS * Math.max(0, range / ROOM_SIZE - 2) >= DETECTION_THRESHOLD) {
+            range++;
+        }
+        this.range = range;
+        gridColumns = Math.max(1, (int) Math.ceil(width / range));
+        gridRows = Math.max(1, (int) Math.ceil(height / range));
+        int[] counts = new int[gridColumns * gridRows];
+        for (int ap = 0; ap < apCount; ap++) {
+            counts[cellOf(apX[ap], apY[ap])]++;
+        }
+        apsByCell = new int[counts.length][];
+        for (int cell = 0; cell < counts.length; cell++) {
+            apsByCell[cell] = new int[counts[cell]];
+            counts[cell] = 0;
+        }
+        for (int ap = 0; ap < apCount; ap++) {
+            int cell = cellOf(apX[ap], apY[ap]);
+            apsByCell[cell][counts[cell]++] = ap;
+        }
+    }
+
+    private int cellOf(double x, double y) {
+        int column = Math.min(gridColumns - 1, (int) (x / range));
+        int row = Math.min(gridRows - 1, (int) (y / range));
+        return column * gridRows + row;
+    }
+
+    /**
+     * Returns the MAC address of an AP.
+     *
+     * @param ap The number of the AP.
+     * @return A locally administered MAC address, the same for the same number in every map.
+     */
+    public static String mac(int ap) {
+        return String.format(Locale.ROOT, "02:00:%02x:%02x:%02x:%02x", ap >>> 24 & 0xff, ap >>> 16 & 0xff, ap >>> 8 & 0xff, ap & 0xff);
+    }
+
+    /**
+     * Simulates a scan at a position.
+     *
+     * @param x The x coordinate, between 0 and the width of the floor plan.
+     * @param y The y coordinate, between 0 and the height of the floor plan.
+     * @param random The source of the noise.
+     * @return A fingerprint with the heard APs, centered at the position.
+     */
+    public Fingerprint scan(double x, double y, SplittableRandom random) {
+        Fingerprint fingerprint = new Fingerprint();
+        fingerprint.center.x = x;
+        fingerprint.center.y = y;
+        fingerprint.radius = 0.05;
+        fingerprint.color = -16776961;
+        fingerprint.color4f.addAll(List.of(0, 0, 1, 1));
+
+        int column = Math.min(gridColumns - 1, (int) (x / range));
+        int row = Math.min(gridRows - 1, (int) (y / range));
+        int room = (int) (x / ROOM_SIZE), roomY = (int) (y / ROOM_SIZE);
+        for (int c = Math.max(0, column - 1); c <= Math.min(gridColumns - 1, column + 1); c++) {
+            for (int r = Math.max(0, row - 1); r <= Math.min(gridRows - 1, row + 1); r++) {
+                for (int ap : apsByCell[c * gridRows + r]) {
+                    double dx = apX[ap] - x, dy = apY[ap] - y;
+                    double distanceSq = Math.max(1, dx * dx + dy * dy);
+                    if (distanceSq > range * range)
+                        continue;
+                    int walls = Math.abs((int) (apX[ap] / ROOM_SIZE) - room) + Math.abs((int) (apY[ap] / ROOM_SIZE) - roomY);
+                    double rss = REFERENCE_RSS + apPower[ap] - 5 * PATH_LOSS_EXPONENT * Math.log10(distanceSq)
+                            - WALL_LOSS * walls + noiseDb * random.nextGaussian();
+                    if (rss >= DETECTION_THRESHOLD)
+                        fingerprint.instance.macsAndValues.add(new MacAndValue(macs[ap], Math.min(MAX_RSS, (int) Math.round(rss))));
+                }
+            }
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Generates a radio map of fingerprints at uniformly distributed survey points.
+     *
+     * @param size The number of fingerprints.
+     * @return The fingerprints.
+     */
+    public List<Fingerprint> generate(int size) {
+        return generate(size, seed);
+    }
+
+    /**
+     * Generates scans at uniformly distributed positions, independent of the radio map, with their positions as
+     * their centers, for measuring the accuracy of a radio map.
+     *
+     * @param count The number of scans.
+     * @param querySeed The seed of the positions and the noise; different from the radio map's seed.
+     * @return The scans.
+     */
+    public List<Fingerprint> queries(int count, long querySeed) {
+        return generate(count, ~querySeed);
+    }
+
+    private List<Fingerprint> generate(int size, long streamSeed) {
+        List<Fingerprint> fingerprints = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            // Every fingerprint has its own stream, so it does not depend on the size of the map
+            SplittableRandom random = new SplittableRandom(streamSeed * 0x9E3779B97F4A7C15L + i);
+            fingerprints.add(scan(random.nextDouble() * width, random.nextDouble() * height, random));
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Writes fingerprints as a radio map JSON file in the schema of the bundled radio maps.
+     *
+     * @param fingerprints The fingerprints.
+     * @param jsonFilePath The file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void write(List<Fingerprint> fingerprints, Path jsonFilePath) throws IOException {
+        try (Writer out = new BufferedWriter(Files.newBufferedWriter(jsonFilePath), 1 << 16)) {
+            out.write("[\n");
+            for (int i = 0; i < fingerprints.size(); i++) {
+                Fingerprint fingerprint = fingerprints.get(i);
+                StringBuilder json = new StringBuilder(64 + 32 * fingerprint.instance.macsAndValues.size());
+                json.append(i == 0 ? "" : ",\n").append("{\"CLASSNAME\": \"Fingerprint\", \"INSTANCE\": {\"mWiFiFingerprint\": {");
+                List<MacAndValue> macsAndValues = fingerprint.instance.macsAndValues;
+                for (int m = 0; m < macsAndValues.size(); m++) {
+                    json.append(m == 0 ? "\"" : ", \"").append(macsAndValues.get(m).mac).append("\": ").append(macsAndValues.get(m).signal);
+                }
+                json.append("}, \"mCenter\": {\"x\": ").append((float) fingerprint.center.x)
+                        .append(", \"y\": ").append((float) fingerprint.center.y)
+                        .append("}, \"mRadius\": ").append(fingerprint.radius)
+                        .append(", \"mColor\": ").append(fingerprint.color)
+                        .append(", \"mColor4f\": ").append(fingerprint.color4f.toString())
+                        .append(", \"mIsRemoved\": ").append(fingerprint.isRemoved).append("}}");
+                out.write(json.toString());
+            }
+            out.write("\n]\n");
+        }
+    }
+
+    /**
+     * Returns the width of the floor plan.
+     *
+     * @return The width in meters.
+     */
+    public double width() {
+        return width;
+    }
+
+    /**
+     * Returns the depth of the floor plan.
+     *
+     * @return The depth in meters.
+     */
+    public double height() {
+        return height;
+    }
+
+    /**
+     * Returns the number of APs.
+     *
+     * @return The number of APs.
+     */
+    public int apCount() {
+        return apCount;
+    }
+
+    /**
+     * Generates a radio map and writes it as a JSON file.
+     *
+     * @param args The number of fingerprints (10000 by default), the number of APs (500 by default), the output
+     *             file (synthetic_radio_map.json by default), the seed (1 by default) and the noise in dB (3 by
+     *             default).
+     * @throws IOException If the file cannot be written.
+     */
+    public static void main(String[] args) throws IOException {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int apCount = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        Path output = Paths.get(args.length > 2 ? args[2] : "synthetic_radio_map.json");
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+        double noiseDb = args.length > 4 ? Double.parseDouble(args[4]) : 3;
+
+        long start = System.nanoTime();
+        SyntheticRadioMapGenerator generator = new SyntheticRadioMapGenerator(apCount, noiseDb, seed);
+        List<Fingerprint> fingerprints = generator.generate(size);
+        long entries = 0;
+        for (Fingerprint fingerprint : fingerprints) {
+            entries += fingerprint.instance.macsAndValues.size();
+        }
+        write(fingerprints, output);
+        System.out.printf(Locale.ROOT, "Wrote %d fingerprints hearing %.1f of %d APs on average, on %.0f x %.0f m, to %s in %.1f s%n",
+                size, (double) entries / size, apCount, generator.width(), generator.height(), output,
+                (System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,105 @@
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+public class BinaryRadioMapTests {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testGetLocationMatchesFingerprintList() throws IOException {
+        Random random = new Random(3);
+        List<Fingerprint> fingerprintsDataSet = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            fingerprintsDataSet.add(RadioMapFixtures.randomFingerprint(random, "binary-test-", 25, -94, -40, 1 + random.nextInt(10)));
+        }
+
+        Path path = folder.newFile("radio_map.bin").toPath();
+        BinaryRadioMap.write(fingerprintsDataSet, path);
+        BinaryRadioMap radioMap = BinaryRadioMap.open(path);
+        assertEquals(fingerprintsDataSet.size(), radioMap.size());
+        assertEquals(fingerprintsDataSet.get(5).center.x, radioMap.x(5), 0.0);
+        assertEquals(fingerprintsDataSet.get(5).center.y, radioMap.y(5), 0.0);
+
+        Locator locator = new Locator();
+        for (int i = 0; i < 100; i++) {
+            // Queries may contain APs that are not in the map at all
+            Fingerprint query = RadioMapFixtures.randomFingerprint(random, "binary-test-", 25, -94, -40, random.nextInt(10));
+            query.instance.macsAndValues.add(new MacAndValue("binary-test-unknown-" + i, -60));
+
+            // The binary map goes through the same weighting, so the neighbour limit applies to it too
+            locator.setMaxNeighbours(i % 2 * 2);
+            PointF expected = locator.getLocation(fingerprintsDataSet, query);
+            PointF actual = locator.getLocation(radioMap, query);
+            assertEquals(Double.doubleToLongBits(expected.getX()), Double.doubleToLongBits(actual.getX()));
+            assertEquals(Double.doubleToLongBits(expected.getY()), Double.doubleToLongBits(actual.getY()));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsOtherFiles() throws IOException {
+        Path path = folder.newFile("radio_map.json").toPath();
+        Files.write(path, "[]".getBytes());
+        BinaryRadioMap.open(path);
+    }
+
+    @Test
+    public void testRejectsCorruptFilesWithIOException() throws IOException {
+        Random random = new Random(4);
+        List<Fingerprint> fingerprintsDataSet = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            fingerprintsDataSet.add(RadioMapFixtures.randomFingerprint(random, "binary-test-", 25, -94, -40, 1 + random.nextInt(10)));
+        }
+        Path path = folder.newFile("corrupt.bin").toPath();
+        BinaryRadioMap.write(fingerprintsDataSet, path);
+        byte[] original = Files.readAllBytes(path);
+
+        // Negative and huge counts in the header, a changed threshold and a changed dictionary fail to open
+        int[][] headerCorruptions = {{8, 0xFF}, {12, 0xFF}, {13, 0x7F}, {16, 0xFF}, {20, 0x00}, {24, 0xFF}, {30, 0x21}};
+        for (int[] corruption : headerCorruptions) {
+            byte[] bytes = original.clone();
+            bytes[corruption[0]] = (byte) corruption[1];
+            Files.write(path, bytes);
+            try {
+                BinaryRadioMap.open(path);
+                fail("Opened a map corrupted at byte " + corruption[0]);
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+
+        // Corrupt columns, offsets and entries are mostly only found by validate, but never break a query
+        for (int position = original.length - 4 * 200; position < original.length; position += 3) {
+            byte[] bytes = original.clone();
+            bytes[position] = (byte) 0xFF;
+            Files.write(path, bytes);
+            BinaryRadioMap radioMap;
+            try {
+                radioMap = BinaryRadioMap.open(path);
+            } catch (IOException e) {
+                // Expected for a corrupt first offset
+                continue;
+            }
+            try {
+                radioMap.validate();
+            } catch (IOException e) {
+                // Expected for everything but the coordinates
+            }
+            try {
+                new Locator().getLocation(radioMap, fingerprintsDataSet.get(0));
+            } catch (UncheckedIOException e) {
+                // Expected for corrupt offsets and AP ids
+            }
+        }
+
+        Files.write(path, original);
+        BinaryRadioMap.open(path).validate();
+    }
+}
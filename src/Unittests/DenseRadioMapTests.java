@@ -0,0 +1,78 @@
+import static org.junit.Assert.*;
+import org.junit.Assume;
+import org.junit.Test;
+import java.util.*;
+
+public class DenseRadioMapTests {
+
+    @Test
+    public void testDistancesMatchLocator() {
+        Random random = new Random(12);
+        List<Fingerprint> radioMap = RadioMapFixtures.randomRadioMap(random, "dense-test-", 30, -99, -40, 50);
+        radioMap.add(new Fingerprint());
+        DenseRadioMap dense = new DenseRadioMap(radioMap);
+
+        // Queries from the map, and queries hearing APs the map has never heard
+        List<Fingerprint> queries = new ArrayList<>(radioMap);
+        queries.addAll(RadioMapFixtures.randomRadioMap(random, "dense-test-", 40, -99, -40, 20));
+        int[] distancesSq = new int[radioMap.size()];
+        for (Fingerprint query : queries) {
+            dense.distancesSq(query, 0, radioMap.size(), distancesSq);
+            for (int i = 0; i < radioMap.size(); i++) {
+                assertEquals(Locator.distanceSq(radioMap.get(i), query, Integer.MAX_VALUE), distancesSq[i]);
+                assertEquals(Locator.dissimilarity(radioMap.get(i), query), dense.dissimilarity(query, i), 0.0f);
+            }
+        }
+
+        int[] positions = {7, 3, 50};
+        dense.distancesSq(queries.get(60), positions, positions.length, distancesSq);
+        for (int i = 0; i < positions.length; i++) {
+            assertEquals(Locator.distanceSq(radioMap.get(positions[i]), queries.get(60), Integer.MAX_VALUE), distancesSq[i]);
+        }
+    }
+
+    @Test
+    public void testVectorKernelMatchesScalarKernel() {
+        DistanceKernel vector = DistanceKernel.vector();
+        Assume.assumeNotNull(vector);
+        DistanceKernel scalar = DistanceKernel.scalar();
+        Random random = new Random(14);
+        // Rows shorter than a vector, rows of whole vectors and rows with a tail, at every offset of a matrix
+        for (int columns = 0; columns <= 67; columns++) {
+            int[] values = new int[columns * 3];
+            int[] query = new int[columns];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = random.nextBoolean() ? 0 : 10 + random.nextInt(90);
+            }
+            for (int i = 0; i < columns; i++) {
+                query[i] = random.nextBoolean() ? 0 : 10 + random.nextInt(90);
+            }
+            for (int row = 0; row < 3; row++) {
+                assertEquals(scalar.distanceSq(values, row * columns, query), vector.distanceSq(values, row * columns, query));
+            }
+        }
+
+        List<Fingerprint> radioMap = RadioMapFixtures.randomRadioMap(random, "dense-test-", 200, -99, -40, 50);
+        DenseRadioMap scalarMap = new DenseRadioMap(radioMap, scalar);
+        DenseRadioMap vectorMap = new DenseRadioMap(radioMap, vector);
+        int[] scalarDistancesSq = new int[radioMap.size()];
+        int[] vectorDistancesSq = new int[radioMap.size()];
+        for (Fingerprint query : radioMap) {
+            scalarMap.distancesSq(query, 0, radioMap.size(), scalarDistancesSq);
+            vectorMap.distancesSq(query, 0, radioMap.size(), vectorDistancesSq);
+            assertArrayEquals(scalarDistancesSq, vectorDistancesSq);
+        }
+    }
+
+    @Test
+    public void testPairwiseMatrixWithDenseKernel() {
+        List<Fingerprint> radioMap = RadioMapFixtures.randomRadioMap(new Random(13), "dense-test-", 20, -99, -40, 40);
+        assertTrue(DenseRadioMap.isDenseEnough(radioMap));
+        PairwiseMatrix matrix = PairwiseMatrix.build(radioMap, 1);
+        for (int i = 0; i < radioMap.size(); i++) {
+            for (int j = 0; j < radioMap.size(); j++) {
+                assertEquals(Locator.dissimilarity(radioMap.get(i), radioMap.get(j)), matrix.dissimilarity(i, j), 0.0f);
+            }
+        }
+    }
+}
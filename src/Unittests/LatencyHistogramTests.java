@@ -0,0 +1,65 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.util.*;
+
+public class LatencyHistogramTests {
+
+    @Test
+    public void testStatisticsMatchSortedValues() {
+        Random random = new Random(40);
+        LatencyHistogram histogram = new LatencyHistogram();
+        List<Long> values = new ArrayList<>();
+        // Values around the end of the exact buckets and the first powers of two, and spread over many magnitudes
+        for (long value : new long[]{0, 1, 126, 127, 128, 129, 130, 255, 256, 257, 258, 511, 512, 513, 1023, 1024}) {
+            values.add(value);
+        }
+        for (int i = 0; i < 2000; i++) {
+            values.add((long) Math.pow(10, random.nextDouble() * 12));
+        }
+        long sum = 0;
+        for (long value : values) {
+            histogram.record(value);
+            sum += value;
+        }
+        Collections.sort(values);
+
+        assertEquals(values.size(), histogram.count());
+        assertEquals((double) sum / values.size(), histogram.mean(), 1e-6);
+        assertEquals((long) values.get(values.size() - 1), histogram.max());
+        for (double percentile = 0; percentile <= 100; percentile += 0.5) {
+            long expected = values.get(Math.max(1, (int) Math.ceil(percentile / 100 * values.size())) - 1);
+            long actual = histogram.percentile(percentile);
+            // The upper bound of the bucket, which is exact below 128 and within 1/64 above
+            assertTrue(percentile + ": " + actual + " < " + expected, actual >= expected);
+            assertTrue(percentile + ": " + actual + " > " + expected, actual <= expected + expected / 64);
+        }
+    }
+
+    @Test
+    public void testExactBelowLinearLimit() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 0; value < 128; value++) {
+            histogram.record(value);
+        }
+        for (int value = 0; value < 128; value++) {
+            assertEquals(value, histogram.percentile(100.0 * (value + 1) / 128));
+        }
+        // The first logarithmic buckets hold two values each
+        histogram.reset();
+        histogram.record(128);
+        histogram.record(129);
+        histogram.record(1_000_000);
+        assertEquals(129, histogram.percentile(1));
+        assertEquals(1_000_000, histogram.percentile(100));
+    }
+
+    @Test
+    public void testEmptyAndNegative() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentile(50));
+        assertEquals(0, histogram.mean(), 0.0);
+        histogram.record(-5);
+        assertEquals(0, histogram.max());
+        assertEquals(0, histogram.percentile(100));
+    }
+}
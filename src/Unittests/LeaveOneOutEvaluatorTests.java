@@ -0,0 +1,54 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.util.*;
+
+public class LeaveOneOutEvaluatorTests {
+
+    @Test
+    public void testEvaluateLeavesEachFingerprintOut() {
+        List<Fingerprint> radioMap = RadioMapFixtures.randomRadioMap(new Random(41), "loo-test-", 20, -94, -40, 80);
+        radioMap.add(new Fingerprint());
+        LeaveOneOutEvaluator.Report sequential = new LeaveOneOutEvaluator(radioMap).evaluate(1);
+        LeaveOneOutEvaluator.Report parallel = new LeaveOneOutEvaluator(radioMap).evaluate(4);
+
+        assertArrayEquals(sequential.errors, parallel.errors, 0.0);
+        assertEquals(sequential.failures(), parallel.failures());
+        assertTrue(sequential.failures() >= 1);
+        assertEquals(sequential.meanError(), parallel.meanError(), 0.0);
+        for (double percentile : new double[]{0, 50, 90, 99, 100}) {
+            assertEquals(sequential.errorPercentile(percentile), parallel.errorPercentile(percentile), 0.0);
+        }
+        assertEquals(radioMap.size(), sequential.latencies.count());
+        assertEquals(radioMap.size(), parallel.latencies.count());
+
+        Locator locator = new Locator();
+        for (int i = 0; i < radioMap.size(); i += 9) {
+            List<Fingerprint> others = new ArrayList<>(radioMap);
+            Fingerprint left = others.remove(i);
+            PointF point = locator.getLocation(others, left);
+            assertEquals(Main.calculateDistance(point.getX(), point.getY(), left.center.x, left.center.y), sequential.errors[i], 0.0);
+        }
+    }
+
+    @Test
+    public void testReportStatistics() {
+        double nan = Double.NaN;
+        LeaveOneOutEvaluator.Report report = new LeaveOneOutEvaluator.Report(new double[]{3, 1, nan, 2, 4, nan},
+                new LatencyHistogram(), 1_000_000);
+        assertEquals(2, report.failures());
+        assertEquals(2.5, report.meanError(), 0.0);
+        assertEquals(1, report.errorPercentile(0), 0.0);
+        assertEquals(1, report.errorPercentile(25), 0.0);
+        assertEquals(2, report.errorPercentile(50), 0.0);
+        assertEquals(3, report.errorPercentile(75), 0.0);
+        assertEquals(4, report.errorPercentile(76), 0.0);
+        assertEquals(4, report.errorPercentile(100), 0.0);
+        assertEquals(6000, report.throughput(), 1e-9);
+
+        LeaveOneOutEvaluator.Report failed = new LeaveOneOutEvaluator.Report(new double[]{nan, nan},
+                new LatencyHistogram(), 1);
+        assertEquals(2, failed.failures());
+        assertTrue(Double.isNaN(failed.meanError()));
+        assertTrue(Double.isNaN(failed.errorPercentile(50)));
+    }
+}
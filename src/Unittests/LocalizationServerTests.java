@@ -0,0 +1,144 @@
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class LocalizationServerTests {
+    private List<Fingerprint> radioMap;
+    private LocalizationServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        radioMap = RadioMapFixtures.randomRadioMap(new Random(10), "server-test-", 15, -94, -40, 50);
+        server = new LocalizationServer(radioMap, new Locator(), new InetSocketAddress("localhost", 0), 200, 16);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void testLocateMatchesLocator() throws IOException {
+        Locator locator = new Locator();
+        for (Fingerprint original : radioMap.subList(0, 10)) {
+            // A scan identical to a radio map fingerprint has no finite location, so shift every signal a little
+            Fingerprint fingerprint = new Fingerprint();
+            for (MacAndValue macAndValue : original.instance.macsAndValues) {
+                fingerprint.instance.macsAndValues.add(new MacAndValue(macAndValue.mac, macAndValue.signal - 1));
+            }
+            PointF expected = locator.getLocation(radioMap, fingerprint);
+            String response = post(LoadTestClient.toJson(fingerprint), 200);
+            assertEquals("{\"x\": " + json(expected.getX()) + ", \"y\": " + json(expected.getY()) + "}", response);
+        }
+        assertEquals("{\"x\": null, \"y\": null}", post("{\"server-test-unknown\": -50}", 200));
+    }
+
+    @Test
+    public void testRepeatedScansAreCached() throws IOException {
+        LocationCache cache = new LocationCache(100, 0, TimeUnit.SECONDS, 1);
+        server.setLocationCache(cache);
+        String scan = "{\"server-test-1\": -51, \"server-test-2\": -62, \"server-test-3\": -73}";
+        String first = post(scan, 200);
+        assertEquals(first, post(scan, 200));
+        assertEquals(first, post("{\"server-test-3\": -73, \"server-test-1\": -51, \"server-test-2\": -62}", 200));
+        assertEquals(2, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+
+    @Test
+    public void testRejectsInvalidScans() throws IOException {
+        post("{\"server-test-1\": ", 400);
+        post("[1, 2]", 400);
+        post("{\"server-test-1\": 500}", 400);
+
+        StringBuilder large = new StringBuilder("{");
+        for (int i = 0; large.length() <= LocalizationServer.MAX_SCAN_BYTES; i++) {
+            large.append("\"server-test-large-").append(i).append("\": -50, ");
+        }
+        post(large.append("\"server-test-1\": -50}").toString(), 413);
+    }
+
+    @Test
+    public void testFailingScanOnlyFailsItsOwnRequest() throws Exception {
+        // A Locator that fails on one signal, and batches of two with a window long enough to always fill them
+        Locator failing = new Locator() {
+            @Override
+            public PointF getLocation(RadioMapIndex index, Fingerprint fingerprint) {
+                if (fingerprint.get("server-test-2") == -99)
+                    throw new IllegalStateException("poisoned scan");
+                return super.getLocation(index, fingerprint);
+            }
+        };
+        server.stop();
+        server = new LocalizationServer(radioMap, failing, new InetSocketAddress("localhost", 0), 30_000_000, 2);
+        server.start();
+
+        ExecutorService clients = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> valid = clients.submit(() -> post("{\"server-test-1\": -51, \"server-test-2\": -62}", 200));
+            Future<String> poisoned = clients.submit(() -> post("{\"server-test-1\": -51, \"server-test-2\": -99}", 500));
+            assertNotNull(valid.get());
+            poisoned.get();
+        } finally {
+            clients.shutdown();
+        }
+        assertEquals("Both scans should have been located in one batch", 1, server.batchSizes().count());
+    }
+
+    @Test
+    public void testSlowLocationTimesOut() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Locator slow = new Locator() {
+            @Override
+            public PointF getLocation(RadioMapIndex index, Fingerprint fingerprint) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.getLocation(index, fingerprint);
+            }
+        };
+        server.stop();
+        server = new LocalizationServer(radioMap, slow, new InetSocketAddress("localhost", 0), 200, 16);
+        server.setRequestTimeout(100, TimeUnit.MILLISECONDS);
+        server.start();
+        try {
+            post("{\"server-test-1\": -51}", 503);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    private static String json(double value) {
+        return Double.isFinite(value) ? Double.toString(value) : "null";
+    }
+
+    private String post(String body, int expectedStatus) throws IOException {
+        URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/locate");
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        assertEquals(expectedStatus, connection.getResponseCode());
+        if (expectedStatus != 200)
+            return null;
+        return new String(connection.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,103 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+public class LocationCacheTests {
+
+    @Test
+    public void testSignatureIgnoresOrderAndQuantizesSignals() {
+        RadioMapSnapshot snapshot = new RadioMapSnapshot(radioMap(), 1, null);
+        LocationCache cache = new LocationCache(100, 0, TimeUnit.SECONDS, 4);
+        Locator locator = new Locator();
+
+        PointF location = cache.getLocation(locator, snapshot, scan("cache-test-1", -61, "cache-test-2", -70));
+        PointF expected = snapshot.getLocation(locator, scan("cache-test-1", -61, "cache-test-2", -70));
+        assertEquals(expected.getX(), location.getX(), 0.0);
+        assertEquals(expected.getY(), location.getY(), 0.0);
+
+        // Same buckets of 4 dB in another order: -61 and -62 are in [-64, -61], -70 and -69 in [-72, -69]
+        PointF cached = cache.get(snapshot, scan("cache-test-2", -69, "cache-test-1", -62));
+        assertNotNull(cached);
+        assertEquals(location.getX(), cached.getX(), 0.0);
+        assertNull(cache.get(snapshot, scan("cache-test-1", -60, "cache-test-2", -70)));
+        assertNull(cache.get(snapshot, scan("cache-test-1", -61)));
+        assertEquals(1, cache.hits());
+        assertEquals(3, cache.misses());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testEvictionAndExpiry() {
+        RadioMapSnapshot snapshot = new RadioMapSnapshot(radioMap(), 1, null);
+        long[] now = {0};
+        LocationCache cache = new LocationCache(1, 10, TimeUnit.NANOSECONDS, 1, () -> now[0]);
+
+        cache.put(snapshot, scan("cache-test-1", -50), new PointF());
+        cache.put(snapshot, scan("cache-test-2", -50), new PointF());
+        assertEquals(1, cache.evictions());
+        assertNull(cache.get(snapshot, scan("cache-test-1", -50)));
+        assertNotNull(cache.get(snapshot, scan("cache-test-2", -50)));
+
+        now[0] = 10;
+        assertNull(cache.get(snapshot, scan("cache-test-2", -50)));
+        assertEquals(1, cache.expirations());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testNewSnapshotInvalidates() {
+        RadioMapSnapshot first = new RadioMapSnapshot(radioMap(), 1, null);
+        RadioMapSnapshot second = new RadioMapSnapshot(radioMap(), 2, null);
+        LocationCache cache = new LocationCache(100, 0, TimeUnit.SECONDS, 1);
+        Fingerprint scan = scan("cache-test-1", -50);
+
+        cache.put(first, scan, new PointF());
+        assertNotNull(cache.get(first, scan));
+        assertNull(cache.get(second, scan));
+        assertEquals(1, cache.invalidations());
+        assertEquals(0, cache.size());
+
+        // A location calculated on the old snapshot after the new one was seen is not kept
+        cache.put(first, scan, new PointF());
+        assertEquals(0, cache.size());
+        assertNull(cache.get(first, scan));
+    }
+
+    @Test
+    public void testSnapshotOfSameVersionReplacesTheCurrentOne() {
+        RadioMapSnapshot first = new RadioMapSnapshot(radioMap(), 1, null);
+        RadioMapSnapshot other = new RadioMapSnapshot(radioMap(), 1, null);
+        LocationCache cache = new LocationCache(100, 0, TimeUnit.SECONDS, 1);
+        Fingerprint scan = scan("cache-test-1", -50);
+
+        cache.put(first, scan, new PointF());
+        assertNull(cache.get(other, scan));
+        assertEquals(1, cache.invalidations());
+
+        // The other snapshot is now the current one, so its locations are cached and found
+        cache.put(other, scan, new PointF());
+        assertNotNull(cache.get(other, scan));
+        assertNull(cache.get(first, scan));
+        assertEquals(2, cache.invalidations());
+    }
+
+    private static List<Fingerprint> radioMap() {
+        List<Fingerprint> radioMap = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Fingerprint fingerprint = scan("cache-test-1", -50 - 5 * i, "cache-test-2", -80 + 5 * i);
+            fingerprint.center.x = i;
+            fingerprint.center.y = 2 * i;
+            radioMap.add(fingerprint);
+        }
+        return radioMap;
+    }
+
+    private static Fingerprint scan(Object... macsAndSignals) {
+        Fingerprint fingerprint = new Fingerprint();
+        for (int i = 0; i < macsAndSignals.length; i += 2) {
+            fingerprint.instance.macsAndValues.add(new MacAndValue((String) macsAndSignals[i], (Integer) macsAndSignals[i + 1]));
+        }
+        return fingerprint;
+    }
+}
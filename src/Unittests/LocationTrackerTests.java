@@ -0,0 +1,81 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.util.*;
+
+public class LocationTrackerTests {
+
+    @Test
+    public void testFirstScanIsFullSearch() {
+        List<Fingerprint> radioMap = lineRadioMap(50);
+        Locator locator = new Locator();
+        LocationTracker tracker = new LocationTracker(radioMap, locator, 5);
+
+        Fingerprint scan = shifted(radioMap.get(20));
+        PointF expected = locator.getLocation(new RadioMapIndex(radioMap), scan);
+        PointF actual = tracker.update("device", scan, 0);
+        assertEquals(expected.getX(), actual.getX(), 0.0);
+        assertEquals(expected.getY(), actual.getY(), 0.0);
+        assertEquals(1, tracker.fullSearches());
+        assertEquals(0, tracker.localSearches());
+    }
+
+    @Test
+    public void testWalkingDeviceIsSearchedLocally() {
+        List<Fingerprint> radioMap = lineRadioMap(50);
+        LocationTracker tracker = new LocationTracker(radioMap, new Locator(), 5);
+
+        for (int i = 10; i < 30; i++) {
+            PointF location = tracker.update("device", shifted(radioMap.get(i)), i * 1000L);
+            assertEquals(i, location.getX(), 3.0);
+        }
+        assertEquals(1, tracker.fullSearches());
+        assertEquals(19, tracker.localSearches());
+
+        // A jump out of the search radius is found by a full search
+        tracker.update("device", shifted(radioMap.get(45)), 30000);
+        assertEquals(2, tracker.fullSearches());
+    }
+
+    @Test
+    public void testForgetAndEvictIdle() {
+        List<Fingerprint> radioMap = lineRadioMap(20);
+        LocationTracker tracker = new LocationTracker(radioMap, new Locator(), 5);
+        tracker.update("a", shifted(radioMap.get(3)), 1000);
+        tracker.update("b", shifted(radioMap.get(8)), 5000);
+        assertEquals(2, tracker.deviceCount());
+        assertNotNull(tracker.lastLocation("a"));
+
+        assertEquals(1, tracker.evictIdle(7000, 3000));
+        assertNull(tracker.lastLocation("a"));
+        tracker.forget("b");
+        assertEquals(0, tracker.deviceCount());
+    }
+
+    /**
+     * Creates fingerprints one unit apart along a corridor, each hearing the APs within three units of it.
+     */
+    private static List<Fingerprint> lineRadioMap(int size) {
+        List<Fingerprint> radioMap = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            Fingerprint fingerprint = new Fingerprint();
+            for (int ap = Math.max(0, i - 3); ap <= Math.min(size - 1, i + 3); ap++) {
+                fingerprint.instance.macsAndValues.add(new MacAndValue("tracker-test-" + ap, -40 - 10 * Math.abs(ap - i)));
+            }
+            fingerprint.center.x = i;
+            fingerprint.center.y = 0;
+            radioMap.add(fingerprint);
+        }
+        return radioMap;
+    }
+
+    /**
+     * Copies the signals of a fingerprint one dBm weaker, so the copy is not identical to any fingerprint.
+     */
+    private static Fingerprint shifted(Fingerprint fingerprint) {
+        Fingerprint scan = new Fingerprint();
+        for (MacAndValue macAndValue : fingerprint.instance.macsAndValues) {
+            scan.instance.macsAndValues.add(new MacAndValue(macAndValue.mac, macAndValue.signal - 1));
+        }
+        return scan;
+    }
+}
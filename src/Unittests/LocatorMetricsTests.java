@@ -0,0 +1,65 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+public class LocatorMetricsTests {
+
+    @Test
+    public void testMetricsDoNotChangeLocations() {
+        List<Fingerprint> radioMap = RadioMapFixtures.randomRadioMap(new Random(10), "metrics-test-", 25, -94, -40, 60);
+        RadioMapIndex index = new RadioMapIndex(radioMap);
+        Locator locator = new Locator();
+        Locator measuredLocator = new Locator();
+        LocatorMetrics metrics = new LocatorMetrics();
+        metrics.setAllocationTracking(true);
+        measuredLocator.setMetrics(metrics);
+
+        for (int i = 0; i < radioMap.size(); i++) {
+            PointF expected = locator.getLocation(index, radioMap.get(i), i);
+            PointF actual = measuredLocator.getLocation(index, radioMap.get(i), i);
+            assertEquals(Double.doubleToLongBits(expected.getX()), Double.doubleToLongBits(actual.getX()));
+            assertEquals(Double.doubleToLongBits(expected.getY()), Double.doubleToLongBits(actual.getY()));
+        }
+
+        // A fingerprint without APs has no neighbours, and one identical to a neighbour has a degenerate weight
+        measuredLocator.getLocation(radioMap, new Fingerprint());
+        measuredLocator.getLocation(radioMap, radioMap.get(0));
+
+        assertEquals(radioMap.size() + 2, metrics.getQueryCount());
+        assertEquals(radioMap.size() + 2, metrics.bucketSizes().count());
+        assertTrue(metrics.getEmptyBuckets() >= 1);
+        assertTrue(metrics.getDegenerateWeights() >= 1);
+        long scored = 0;
+        for (int score = Locator.NEIGHBOUR_MIN_SCORE; score <= 128; score++) {
+            scored += metrics.bestScoreCount(score);
+        }
+        assertEquals(radioMap.size() + 2 - metrics.getEmptyBuckets(), scored);
+        if (metrics.isAllocationTracking())
+            assertTrue(metrics.getMeanAllocatedBytes() > 0);
+
+        metrics.reset();
+        assertEquals(0, metrics.getQueryCount());
+        assertEquals(0, metrics.getEmptyBuckets());
+    }
+
+    @Test
+    public void testRegisterWithJmx() throws JMException {
+        Locator locator = new Locator();
+        LocatorMetrics metrics = new LocatorMetrics();
+        locator.setMetrics(metrics);
+        List<Fingerprint> radioMap = RadioMapFixtures.randomRadioMap(new Random(11), "metrics-test-", 25, -94, -40, 20);
+        locator.getLocation(radioMap, radioMap.get(1));
+
+        ObjectName name = metrics.register("test");
+        try {
+            assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "QueryCount"));
+            assertTrue(ManagementFactory.getPlatformMBeanServer().invoke(name, "dump", null, null).toString().contains("Search us:"));
+        } finally {
+            metrics.unregister();
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+}
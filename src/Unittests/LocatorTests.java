@@ -1,6 +1,9 @@
 import static org.junit.Assert.*;
+import com.sun.management.ThreadMXBean;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
+import java.lang.management.ManagementFactory;
 import java.util.*;
 
 public class LocatorTests {
@@ -39,7 +42,7 @@ public class LocatorTests {
 
     @Test
     public void testGetLocation() {
-        Locator.PointF location = locator.getLocation(fingerprintsDataSet, testFingerprint);
+        PointF location = locator.getLocation(fingerprintsDataSet, testFingerprint);
         assertNotNull("Computed location should not be null", location);
         assertEquals("Check X coordinate", 10.0, location.getX(), 0.1);
         assertEquals("Check Y coordinate", 20.0, location.getY(), 0.1);
@@ -64,10 +67,136 @@ public class LocatorTests {
         assertTrue("Score should be non-negative", score >= 0);
     }
 
+    @Test
+    public void testScoreMatchesStrongApSetsForFarApartAps() {
+        // APs interned far apart are stored as sorted ids, close ones as a bitset; both must score alike
+        for (int mac = 0; mac < 12; mac++) {
+            ApDictionary.intern("score-test-near-" + mac);
+        }
+        for (int mac = 0; mac < 12; mac++) {
+            for (int filler = 0; filler < 100; filler++) {
+                ApDictionary.intern("score-test-filler-" + mac + "-" + filler);
+            }
+            ApDictionary.intern("score-test-far-" + mac);
+        }
+
+        // Unlike RadioMapFixtures, mix near and far APs within a fingerprint and draw them with repeats, so the
+        // duplicate MACs of a scan are scored too
+        Random random = new Random(31);
+        List<Fingerprint> fingerprints = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            Fingerprint fingerprint = new Fingerprint();
+            int apCount = 1 + random.nextInt(8);
+            for (int ap = 0; ap < apCount; ap++) {
+                String mac = (i % 3 == 0 || i % 3 == 1 && random.nextBoolean() ? "score-test-near-" : "score-test-far-") + random.nextInt(12);
+                fingerprint.instance.macsAndValues.add(new MacAndValue(mac, -40 - random.nextInt(60)));
+            }
+            fingerprints.add(fingerprint);
+        }
+        for (Fingerprint a : fingerprints) {
+            for (Fingerprint b : fingerprints) {
+                Set<String> aAps = Locator.getApsWithMinRSS(a, -75);
+                Set<String> bAps = Locator.getApsWithMinRSS(b, -75);
+                Set<String> common = new HashSet<>(aAps);
+                common.retainAll(bAps);
+                assertEquals(4 * common.size() - aAps.size() - bAps.size(), Locator.score(a, b));
+            }
+        }
+    }
+
     @Test
     public void testGetApsWithMinRSS() {
         Set<String> aps = Locator.getApsWithMinRSS(testFingerprint, -75);
         assertNotNull("Access points set should not be null", aps);
         assertFalse("Access points set should not be empty", aps.isEmpty());
     }
+
+    @Test
+    public void testGetLocationsMatchesGetLocation() {
+        List<Fingerprint> queries = new ArrayList<>(fingerprintsDataSet);
+        queries.add(testFingerprint);
+        queries.add(new Fingerprint());
+
+        List<PointF> locations = locator.getLocations(new RadioMapIndex(fingerprintsDataSet), queries, 4);
+        assertEquals("Every query should have a location", queries.size(), locations.size());
+        for (int i = 0; i < queries.size(); i++) {
+            PointF expected = locator.getLocation(fingerprintsDataSet, queries.get(i));
+            assertEquals("Batch X should match a single call", Double.doubleToLongBits(expected.getX()), Double.doubleToLongBits(locations.get(i).getX()));
+            assertEquals("Batch Y should match a single call", Double.doubleToLongBits(expected.getY()), Double.doubleToLongBits(locations.get(i).getY()));
+        }
+    }
+
+    @Test
+    public void testMaxNeighboursKeepsNearestWithTiesToEarlier() {
+        // Both neighbours are at the same dissimilarity, so the earlier one is kept
+        locator.setMaxNeighbours(1);
+        PointF location = locator.getLocation(fingerprintsDataSet, testFingerprint);
+        assertEquals("Check X coordinate", 10.5, location.getX(), 0.0);
+        assertEquals("Check Y coordinate", 20.5, location.getY(), 0.0);
+    }
+
+    @Test
+    public void testMaxNeighboursMatchesSortedSelection() {
+        // Every fingerprint hears the same four APs, so they all share the best score bucket
+        Random random = new Random(9);
+        List<Fingerprint> dataSet = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            dataSet.add(RadioMapFixtures.randomFingerprint(random, "knn-test-", 4, -69, -40, 4));
+        }
+
+        for (int k = 1; k <= 8; k++) {
+            locator.setMaxNeighbours(k);
+            PointF location = locator.getLocation(dataSet, testFingerprint);
+
+            // All fingerprints share the same APs, so the whole data set is the best score bucket
+            List<Fingerprint> sorted = new ArrayList<>(dataSet);
+            sorted.sort(Comparator.comparingDouble(f -> Locator.dissimilarity(testFingerprint, f)));
+            List<Fingerprint> nearest = new ArrayList<>(sorted.subList(0, k));
+            nearest.sort(Comparator.comparingInt(dataSet::indexOf));
+
+            Locator unlimited = new Locator();
+            PointF expected = unlimited.getLocation(nearest, testFingerprint);
+            assertEquals("X with K = " + k, expected.getX(), location.getX(), 0.0);
+            assertEquals("Y with K = " + k, expected.getY(), location.getY(), 0.0);
+        }
+    }
+
+    @Test
+    public void testGetLocationWithContextMatchesAndDoesNotAllocate() {
+        List<Fingerprint> dataSet = RadioMapFixtures.randomRadioMap(new Random(14), "context-test-", 20, -89, -40, 200);
+        dataSet.add(new Fingerprint());
+        RadioMapIndex index = new RadioMapIndex(dataSet);
+        LocatorContext context = new LocatorContext();
+        PointF location = new PointF();
+
+        for (int k : new int[]{0, 2}) {
+            locator.setMaxNeighbours(k);
+            for (int i = 0; i < dataSet.size(); i++) {
+                PointF expected = locator.getLocation(index, dataSet.get(i), i);
+                locator.getLocation(index, dataSet.get(i), i, context, location);
+                assertEquals(Double.doubleToLongBits(expected.getX()), Double.doubleToLongBits(location.getX()));
+                assertEquals(Double.doubleToLongBits(expected.getY()), Double.doubleToLongBits(location.getY()));
+            }
+        }
+
+        // In steady state a query allocates nothing
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof ThreadMXBean);
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < dataSet.size(); i++) {
+                locator.getLocation(index, dataSet.get(i), i, context, location);
+            }
+        }
+        // What reading the counter allocates itself
+        long first = threads.getCurrentThreadAllocatedBytes();
+        long second = threads.getCurrentThreadAllocatedBytes();
+        long overhead = second - first;
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < dataSet.size(); i++) {
+            locator.getLocation(index, dataSet.get(i), i, context, location);
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before - overhead;
+        assertEquals("Bytes allocated by " + dataSet.size() + " queries", 0, allocated);
+    }
 }
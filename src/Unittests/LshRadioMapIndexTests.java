@@ -0,0 +1,53 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.util.*;
+
+public class LshRadioMapIndexTests {
+
+    @Test
+    public void testFingerprintsOfTheMapFindTheirExactNeighbours() {
+        // A fingerprint of the map gets its own minimums, so it always finds itself and every fingerprint with the
+        // same strong APs, which together are its exact best neighbours
+        List<Fingerprint> radioMap = RadioMapFixtures.randomRadioMap(new Random(31), "lsh-test-", 30, -89, -40, 200);
+        RadioMapIndex exact = new RadioMapIndex(radioMap);
+        LshRadioMapIndex index = new LshRadioMapIndex(radioMap, 4, 3, 9);
+        Locator locator = new Locator();
+        for (Fingerprint fingerprint : radioMap) {
+            assertEquals(Locator.getMarksWithSameAps2(exact, fingerprint), Locator.getMarksWithSameAps2(index, fingerprint));
+        }
+
+        // Leaving a fingerprint out only returns fingerprints of the exact best bucket, or a worse one if none of
+        // them was retrieved
+        for (int i = 0; i < radioMap.size(); i++) {
+            List<Fingerprint> expected = Locator.getMarksWithSameAps2(exact, radioMap.get(i), i);
+            List<Fingerprint> actual = Locator.getMarksWithSameAps2(index, radioMap.get(i), i);
+            assertFalse(actual.contains(radioMap.get(i)));
+            if (!actual.isEmpty() && !expected.isEmpty()
+                    && Locator.score(radioMap.get(i), actual.get(0)) == Locator.score(radioMap.get(i), expected.get(0)))
+                assertTrue(expected.containsAll(actual));
+        }
+        PointF location = locator.getLocation(index, radioMap.get(0), 0);
+        assertFalse(Double.isInfinite(location.getX()));
+    }
+
+    @Test
+    public void testCandidatesAreSortedAndUnique() {
+        Random random = new Random(32);
+        List<Fingerprint> radioMap = RadioMapFixtures.randomRadioMap(random, "lsh-test-", 12, -89, -40, 300);
+        LshRadioMapIndex index = new LshRadioMapIndex(radioMap, 16, 1, 5);
+        for (Fingerprint query : RadioMapFixtures.randomRadioMap(random, "lsh-test-", 12, -89, -40, 50)) {
+            int[] candidates = index.candidatePositions(query);
+            for (int i = 1; i < candidates.length; i++) {
+                assertTrue(candidates[i - 1] < candidates[i]);
+            }
+        }
+
+        // A scan without APs can only have fingerprints without APs as its best neighbours
+        Fingerprint empty = new Fingerprint();
+        List<Fingerprint> withEmpty = new ArrayList<>(radioMap);
+        withEmpty.add(5, new Fingerprint());
+        LshRadioMapIndex withEmptyIndex = new LshRadioMapIndex(withEmpty, 16, 1, 5);
+        assertArrayEquals(new int[]{5}, withEmptyIndex.candidatePositions(empty));
+        assertEquals(Locator.getMarksWithSameAps2(withEmpty, empty), Locator.getMarksWithSameAps2(withEmptyIndex, empty));
+    }
+}
@@ -0,0 +1,64 @@
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+import java.util.*;
+
+public class MapReductionRunnerTests {
+
+    private Locator locator;
+    private List<Fingerprint> fingerprintsDataSet;
+
+    @Before
+    public void setUp() {
+        locator = new Locator();
+        fingerprintsDataSet = RadioMapFixtures.randomRadioMap(new Random(11), "reduction-test-", 15, -94, -40, 80);
+    }
+
+    @Test
+    public void testLocationsMatchGetLocationOnReducedMap() {
+        RemovalOrder[] orders = {RemovalOrder.byIndex(), RemovalOrder.random(5), RemovalOrder.farthestFirst(), RemovalOrder.apCoverage()};
+        MapReductionRunner runner = new MapReductionRunner(fingerprintsDataSet);
+
+        for (RemovalOrder order : orders) {
+            int[] removalOrder = order.order(fingerprintsDataSet);
+            for (int q = 0; q < 5; q++) {
+                Fingerprint query = fingerprintsDataSet.get(q * 7);
+                double[] locations = runner.locations(query, order);
+
+                List<Fingerprint> remaining = new ArrayList<>(fingerprintsDataSet);
+                for (int step = 0; step < fingerprintsDataSet.size(); step++) {
+                    if (step > 0)
+                        remaining.remove(fingerprintsDataSet.get(removalOrder[step - 1]));
+
+                    // The query itself is left out of its own search
+                    List<Fingerprint> neighbours = new ArrayList<>(remaining);
+                    neighbours.remove(query);
+                    PointF expected = locator.getLocation(neighbours, query);
+                    assertEquals("X at step " + step, Double.doubleToLongBits(expected.getX()), Double.doubleToLongBits(locations[2 * step]));
+                    assertEquals("Y at step " + step, Double.doubleToLongBits(expected.getY()), Double.doubleToLongBits(locations[2 * step + 1]));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testOrdersArePermutations() {
+        RemovalOrder[] orders = {RemovalOrder.byIndex(), RemovalOrder.random(5), RemovalOrder.farthestFirst(), RemovalOrder.apCoverage()};
+        for (RemovalOrder order : orders) {
+            int[] removalOrder = order.order(fingerprintsDataSet).clone();
+            Arrays.sort(removalOrder);
+            for (int i = 0; i < removalOrder.length; i++) {
+                assertEquals("Every fingerprint should be removed exactly once", i, removalOrder[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testCurveDoesNotDependOnParallelism() {
+        MapReductionRunner runner = new MapReductionRunner(fingerprintsDataSet);
+        MapReductionRunner.Curve sequential = runner.run(fingerprintsDataSet, RemovalOrder.random(3), 1);
+        MapReductionRunner.Curve parallel = runner.run(fingerprintsDataSet, RemovalOrder.random(3), 4);
+        assertArrayEquals(sequential.meanErrors, parallel.meanErrors, 0.0);
+        assertArrayEquals(sequential.failures, parallel.failures);
+    }
+}
@@ -0,0 +1,63 @@
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+public class PairwiseMatrixTests {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testMatrixMatchesLocator() throws IOException {
+        List<Fingerprint> radioMap = RadioMapFixtures.randomRadioMap(new Random(5), "matrix-test-", 25, -94, -40, 60);
+        PairwiseMatrix built = PairwiseMatrix.build(radioMap, 2);
+        Path path = folder.newFile("matrix.bin").toPath();
+        built.save(path);
+        PairwiseMatrix loaded = PairwiseMatrix.load(path, radioMap);
+        PairwiseMatrix mapped = PairwiseMatrix.build(radioMap, 2, folder.newFile("mapped.bin").toPath());
+
+        for (PairwiseMatrix matrix : new PairwiseMatrix[]{built, loaded, mapped}) {
+            assertEquals(radioMap.size(), matrix.size());
+            for (int i = 0; i < radioMap.size(); i++) {
+                assertEquals(i, matrix.indexOf(radioMap.get(i)));
+                for (int j = 0; j < radioMap.size(); j++) {
+                    assertEquals(Locator.score(radioMap.get(i), radioMap.get(j)), matrix.score(i, j));
+                    assertEquals(Locator.dissimilarity(radioMap.get(i), radioMap.get(j)), matrix.dissimilarity(i, j), 0.0f);
+                }
+            }
+            assertEquals(-1, matrix.indexOf(new Fingerprint()));
+        }
+    }
+
+    @Test
+    public void testLocatorWithMatrixMatchesLocator() {
+        Random random = new Random(6);
+        List<Fingerprint> radioMap = RadioMapFixtures.randomRadioMap(random, "matrix-test-", 25, -94, -40, 80);
+        Locator locator = new Locator();
+        Locator matrixLocator = new Locator();
+        matrixLocator.setPairwiseMatrix(PairwiseMatrix.build(radioMap, 1));
+
+        List<Fingerprint> queries = new ArrayList<>(radioMap.subList(0, 20));
+        queries.addAll(RadioMapFixtures.randomRadioMap(random, "matrix-test-", 25, -94, -40, 20));
+        for (Fingerprint query : queries) {
+            PointF expected = locator.getLocation(radioMap, query);
+            PointF actual = matrixLocator.getLocation(radioMap, query);
+            assertEquals(Double.doubleToLongBits(expected.getX()), Double.doubleToLongBits(actual.getX()));
+            assertEquals(Double.doubleToLongBits(expected.getY()), Double.doubleToLongBits(actual.getY()));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testLoadRejectsChangedRadioMap() throws IOException {
+        List<Fingerprint> radioMap = RadioMapFixtures.randomRadioMap(new Random(7), "matrix-test-", 25, -94, -40, 30);
+        Path path = folder.newFile("matrix.bin").toPath();
+        PairwiseMatrix.build(radioMap, 1).save(path);
+
+        radioMap.get(3).center.x += 1;
+        PairwiseMatrix.load(path, radioMap);
+    }
+}
@@ -0,0 +1,83 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.util.*;
+
+public class RadioMapClusteringTests {
+
+    @Test
+    public void testClustersPartitionRadioMap() {
+        List<Fingerprint> radioMap = RadioMapFixtures.randomRadioMap(new Random(21), "clustering-test-", 25, -99, -40, 120);
+        RadioMapClustering clustering = new RadioMapClustering(radioMap, 10, 1, 7);
+        assertEquals(10, clustering.clusterCount());
+
+        int total = 0;
+        for (int cluster = 0; cluster < clustering.clusterCount(); cluster++) {
+            int[] members = clustering.members(cluster);
+            assertTrue(members.length > 0);
+            for (int i = 0; i < members.length; i++) {
+                assertEquals(cluster, clustering.clusterOf(members[i]));
+                if (i > 0)
+                    assertTrue(members[i - 1] < members[i]);
+            }
+            assertEquals(cluster, clustering.clusterOf(clustering.medoid(cluster)));
+            total += members.length;
+        }
+        assertEquals(radioMap.size(), total);
+
+        // The same seed builds the same clusters
+        RadioMapClustering again = new RadioMapClustering(radioMap, 10, 1, 7);
+        for (int i = 0; i < radioMap.size(); i++) {
+            assertEquals(clustering.clusterOf(i), again.clusterOf(i));
+        }
+    }
+
+    @Test
+    public void testProbingAllClustersMatchesFullSearch() {
+        Random random = new Random(22);
+        List<Fingerprint> radioMap = RadioMapFixtures.randomRadioMap(random, "clustering-test-", 20, -99, -40, 80);
+        RadioMapClustering clustering = new RadioMapClustering(radioMap, 6, 0.5, 3);
+        Locator locator = new Locator();
+
+        for (Fingerprint query : RadioMapFixtures.randomRadioMap(random, "clustering-test-", 25, -99, -40, 30)) {
+            PointF expected = locator.getLocation(radioMap, query);
+            PointF actual = locator.getLocation(clustering, query, clustering.clusterCount());
+            assertEquals(expected.getX(), actual.getX(), 0.0f);
+            assertEquals(expected.getY(), actual.getY(), 0.0f);
+        }
+
+        List<Fingerprint> withoutFirst = radioMap.subList(1, radioMap.size());
+        PointF expected = locator.getLocation(withoutFirst, radioMap.get(0));
+        PointF actual = locator.getLocation(clustering, radioMap.get(0), clustering.clusterCount(), 0);
+        assertEquals(expected.getX(), actual.getX(), 0.0f);
+        assertEquals(expected.getY(), actual.getY(), 0.0f);
+    }
+
+    @Test
+    public void testSingleProbeFindsOwnArea() {
+        // Two rooms far apart, each hearing its own APs
+        List<Fingerprint> radioMap = new ArrayList<>();
+        Random random = new Random(23);
+        for (int i = 0; i < 40; i++) {
+            int room = i % 2;
+            Fingerprint fingerprint = new Fingerprint();
+            for (int mac = 0; mac < 4; mac++) {
+                fingerprint.instance.macsAndValues.add(new MacAndValue("room-" + room + "-" + mac, -50 - random.nextInt(20)));
+            }
+            fingerprint.center.x = room * 100 + random.nextDouble() * 10;
+            fingerprint.center.y = random.nextDouble() * 10;
+            radioMap.add(fingerprint);
+        }
+        RadioMapClustering clustering = new RadioMapClustering(radioMap, 2, 1, 5);
+        assertNotEquals(clustering.clusterOf(0), clustering.clusterOf(1));
+
+        Fingerprint query = new Fingerprint();
+        for (int mac = 0; mac < 4; mac++) {
+            query.instance.macsAndValues.add(new MacAndValue("room-1-" + mac, -60));
+        }
+        List<Fingerprint> marks = Locator.getMarksWithSameAps2(clustering, query, 1);
+        assertEquals(20, marks.size());
+        for (Fingerprint mark : marks) {
+            assertTrue(mark.center.x >= 100);
+        }
+    }
+}
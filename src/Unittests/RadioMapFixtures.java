@@ -0,0 +1,57 @@
+import java.util.*;
+
+/**
+ * Random fingerprints and radio maps for the tests, seeded by the caller so every run builds the same maps.
+ */
+final class RadioMapFixtures {
+
+    private RadioMapFixtures() {
+    }
+
+    /**
+     * Creates a radio map whose fingerprints hear 1 to 10 random APs each, centered anywhere in a 100 by 100 area.
+     *
+     * @param random The source of randomness.
+     * @param macPrefix The prefix of the MAC addresses, which keeps the APs of different tests apart.
+     * @param apUniverse The number of APs to choose from; the MAC addresses are the prefix followed by 0 to
+     *                   apUniverse - 1.
+     * @param minRss The weakest signal, inclusive.
+     * @param maxRss The strongest signal, inclusive.
+     * @param size The number of fingerprints.
+     * @return The radio map.
+     */
+    static List<Fingerprint> randomRadioMap(Random random, String macPrefix, int apUniverse, int minRss, int maxRss,
+                                            int size) {
+        List<Fingerprint> radioMap = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            radioMap.add(randomFingerprint(random, macPrefix, apUniverse, minRss, maxRss, 1 + random.nextInt(10)));
+        }
+        return radioMap;
+    }
+
+    /**
+     * Creates a fingerprint hearing the given number of distinct random APs, centered anywhere in a 100 by 100 area.
+     *
+     * @param random The source of randomness.
+     * @param macPrefix The prefix of the MAC addresses.
+     * @param apUniverse The number of APs to choose from, at least apCount.
+     * @param minRss The weakest signal, inclusive.
+     * @param maxRss The strongest signal, inclusive.
+     * @param apCount The number of APs the fingerprint hears.
+     * @return The fingerprint.
+     */
+    static Fingerprint randomFingerprint(Random random, String macPrefix, int apUniverse, int minRss, int maxRss,
+                                         int apCount) {
+        Fingerprint fingerprint = new Fingerprint();
+        Set<Integer> macs = new HashSet<>();
+        while (macs.size() < apCount) {
+            macs.add(random.nextInt(apUniverse));
+        }
+        for (int mac : macs) {
+            fingerprint.instance.macsAndValues.add(new MacAndValue(macPrefix + mac, maxRss - random.nextInt(maxRss - minRss + 1)));
+        }
+        fingerprint.center.x = random.nextDouble() * 100;
+        fingerprint.center.y = random.nextDouble() * 100;
+        return fingerprint;
+    }
+}
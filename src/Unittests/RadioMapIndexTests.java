@@ -0,0 +1,55 @@
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+import java.util.*;
+
+public class RadioMapIndexTests {
+
+    private List<Fingerprint> fingerprintsDataSet;
+    private RadioMapIndex index;
+
+    @Before
+    public void setUp() {
+        Random random = new Random(42);
+        fingerprintsDataSet = new ArrayList<>();
+
+        // Random fingerprints over a small AP universe, so scores collide and buckets have several members
+        for (int i = 0; i < 300; i++) {
+            fingerprintsDataSet.add(RadioMapFixtures.randomFingerprint(random, "index-test-", 20, -94, -40, 1 + random.nextInt(11)));
+        }
+        // Fingerprints without any AP only match queries without any AP
+        fingerprintsDataSet.add(new Fingerprint());
+        fingerprintsDataSet.add(new Fingerprint());
+
+        index = new RadioMapIndex(fingerprintsDataSet);
+    }
+
+    @Test
+    public void testMatchesLinearScan() {
+        Random random = new Random(7);
+        for (int i = 0; i < 200; i++) {
+            Fingerprint query = RadioMapFixtures.randomFingerprint(random, "index-test-", 20, -94, -40, random.nextInt(12));
+            assertEquals("Indexed and linear neighbours should be identical",
+                    Locator.getMarksWithSameAps2(fingerprintsDataSet, query),
+                    Locator.getMarksWithSameAps2(index, query));
+        }
+    }
+
+    @Test
+    public void testMatchesLinearScanWithoutExcludedFingerprint() {
+        for (int i = 0; i < fingerprintsDataSet.size(); i++) {
+            List<Fingerprint> remaining = new ArrayList<>(fingerprintsDataSet);
+            Fingerprint query = remaining.remove(i);
+            assertEquals("Leaving a fingerprint out should match removing it from the list",
+                    Locator.getMarksWithSameAps2(remaining, query),
+                    Locator.getMarksWithSameAps2(index, query, i));
+        }
+    }
+
+    @Test
+    public void testQueryWithoutAps() {
+        List<Fingerprint> neighbours = Locator.getMarksWithSameAps2(index, new Fingerprint());
+        assertEquals("Only fingerprints without APs should match an empty query", 2, neighbours.size());
+        assertEquals(Locator.getMarksWithSameAps2(fingerprintsDataSet, new Fingerprint()), neighbours);
+    }
+}
@@ -0,0 +1,144 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.*;
+
+public class RadioMapLoaderTests {
+
+    private static final String RADIO_MAP = "[\n"
+            + "  {\n"
+            + "    \"CLASSNAME\": \"Fingerprint\",\n"
+            + "    \"INSTANCE\": {\n"
+            + "      \"mWiFiFingerprint\": { \"aa:bb:cc:dd:ee:01\": -70, \"aa:bb:cc:dd:ee:02\": -55 },\n"
+            + "      \"mCenter\": { \"x\": 184.78235, \"y\": -3.5e1 },\n"
+            + "      \"mRadius\": 2.5,\n"
+            + "      \"mColor\": -16776961,\n"
+            + "      \"mColor4f\": [0, 0, 255, 255],\n"
+            + "      \"mIsRemoved\": true,\n"
+            + "      \"mUnknown\": { \"nested\": [1, \"two\", null, {\"x\": false}] }\n"
+            + "    }\n"
+            + "  },\n"
+            + "  { \"CLASSNAME\": \"Fingerprint\", \"INSTANCE\": { \"mWiFiFingerprint\": {}, \"mCenter\": { \"x\": 1, \"y\": 2 } } }\n"
+            + "]\n";
+
+    @Test
+    public void testLoad() throws IOException {
+        List<Fingerprint> fingerprints = RadioMapLoader.load(new StringReader(RADIO_MAP));
+        assertEquals("Both fingerprints should be loaded", 2, fingerprints.size());
+
+        Fingerprint fingerprint = fingerprints.get(0);
+        assertEquals(-70, fingerprint.get("aa:bb:cc:dd:ee:01"));
+        assertEquals(-55, fingerprint.get("aa:bb:cc:dd:ee:02"));
+        assertEquals(184.78235, fingerprint.center.x, 0.0);
+        assertEquals(-35.0, fingerprint.center.y, 0.0);
+        assertEquals(2.5, fingerprint.radius, 0.0);
+        assertEquals(-16776961, fingerprint.color);
+        assertEquals(Arrays.asList(0, 0, 255, 255), fingerprint.color4f);
+        assertTrue(fingerprint.isRemoved);
+
+        assertTrue("Second fingerprint has no signals", fingerprints.get(1).instance.macsAndValues.isEmpty());
+        assertEquals(2.0, fingerprints.get(1).center.y, 0.0);
+    }
+
+    @Test
+    public void testStreamsToConsumer() throws IOException {
+        List<Double> xs = new ArrayList<>();
+        RadioMapLoader.load(new StringReader(RADIO_MAP), fingerprint -> xs.add(fingerprint.center.x));
+        assertEquals(Arrays.asList(184.78235, 1.0), xs);
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsTruncatedInput() throws IOException {
+        RadioMapLoader.load(new StringReader(RADIO_MAP.substring(0, RADIO_MAP.length() / 2)));
+    }
+
+    @Test
+    public void testRejectsSignalsOutOfRange() {
+        for (String json : Arrays.asList(RADIO_MAP.replace("-70", "500"), "[" + RADIO_MAP.substring(RADIO_MAP.indexOf("{ \"CLASSNAME"))
+                .replace("\"mWiFiFingerprint\": {}", "\"mWiFiFingerprint\": {\"aa:bb\": -129}"))) {
+            try {
+                RadioMapLoader.load(new StringReader(json));
+                fail("Signal out of range should be rejected");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("out of range"));
+            }
+        }
+        try {
+            RadioMapLoader.loadScan(new StringReader("{\"aa:bb\": 500}"), false);
+            fail("Signal out of range should be rejected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("out of range"));
+        }
+        try {
+            new MacAndValue("aa:bb", 128);
+            fail("Signal out of range should be rejected");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testRejectsIntegerOverflowAndDeepNesting() {
+        String deep = new String(new char[JsonPullParser.MAX_DEPTH]).replace("\0", "{\"a\": ");
+        for (String json : Arrays.asList("{\"aa:bb\": 4294967226}", "{\"aa:bb\": -3e10}", "{\"x\": " + deep)) {
+            try {
+                RadioMapLoader.loadScan(new StringReader(json), false);
+                fail("Should be rejected: " + json);
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("out of range") || e.getMessage().contains("Nesting"));
+            }
+        }
+    }
+
+    @Test
+    public void testRejectsMisplacedCommas() {
+        String entry = "{ \"CLASSNAME\": \"Fingerprint\", \"INSTANCE\": { \"mCenter\": { \"x\": 1, \"y\": 2 } } }";
+        List<String> radioMaps = Arrays.asList("[" + entry + " " + entry + "]", "[, " + entry + "]",
+                "[" + entry + ",]", "[" + entry + ",, " + entry + "]", RADIO_MAP.replace("[0, 0, 255, 255]", "[0 0, 255, 255]"),
+                RADIO_MAP.replace("{\"x\": false}", "{\"x\": false,}"));
+        for (String json : radioMaps) {
+            try {
+                RadioMapLoader.load(new StringReader(json));
+                fail("Should be rejected: " + json);
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+        for (String json : Arrays.asList("{\"aa:bb\": -50,}", "{,\"aa:bb\": -50}", "{\"aa:bb\": -50 \"aa:cc\": -60}")) {
+            try {
+                RadioMapLoader.loadScan(new StringReader(json), false);
+                fail("Should be rejected: " + json);
+            } catch (IOException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testLoadScan() throws IOException {
+        Fingerprint bare = RadioMapLoader.loadScan(new StringReader("{\"aa:bb:cc:dd:ee:01\": -70, \"aa:bb:cc:dd:ee:02\": -55}"), true);
+        Fingerprint wrapped = RadioMapLoader.loadScan(new StringReader("{\"mWiFiFingerprint\": {\"aa:bb:cc:dd:ee:01\": -70, \"aa:bb:cc:dd:ee:02\": -55}}"), true);
+        Fingerprint entry = RadioMapLoader.load(new StringReader(RADIO_MAP)).get(0);
+        Fingerprint instance = RadioMapLoader.loadScan(new StringReader(RADIO_MAP.substring(RADIO_MAP.indexOf('{'), RADIO_MAP.indexOf("},\n  {") + 1)), true);
+        for (Fingerprint scan : Arrays.asList(bare, wrapped, instance)) {
+            assertArrayEquals(entry.apIds(), scan.apIds());
+            assertArrayEquals(entry.rss(), scan.rss());
+        }
+    }
+
+    @Test
+    public void testLoadScanKeepsNewApsOutOfDictionary() throws IOException {
+        String scan = "{\"aa:bb:cc:dd:ee:01\": -70, \"scan-test-new-1\": -50, \"scan-test-new-2\": -80, \"scan-test-new-1\": -60}";
+        Fingerprint interned = RadioMapLoader.loadScan(new StringReader(scan.replace("new", "interned")), true);
+        Fingerprint placeholders = RadioMapLoader.loadScan(new StringReader(scan), false);
+        assertEquals(-1, ApDictionary.lookup("scan-test-new-1"));
+        assertEquals(-1, ApDictionary.lookup("scan-test-new-2"));
+
+        // Unknown APs only matter through their number and signal strengths
+        Fingerprint reference = RadioMapLoader.load(new StringReader(RADIO_MAP)).get(0);
+        assertEquals(interned.apIds().length, placeholders.apIds().length);
+        assertEquals(Locator.score(interned, reference), Locator.score(placeholders, reference));
+        assertEquals(Locator.dissimilarity(interned, reference), Locator.dissimilarity(placeholders, reference), 0.0f);
+    }
+}
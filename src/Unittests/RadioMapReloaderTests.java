@@ -0,0 +1,79 @@
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class RadioMapReloaderTests {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReloadPublishesNewSnapshot() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("radio_map.json");
+        Files.writeString(file, radioMap(1, 2));
+        List<RadioMapSnapshot> published = new CopyOnWriteArrayList<>();
+        try (RadioMapReloader reloader = new RadioMapReloader(file, 0)) {
+            reloader.addListener(published::add);
+            RadioMapSnapshot first = reloader.current();
+            assertEquals(1, first.version());
+            assertEquals(2, first.size());
+
+            // An unchanged file is not published again
+            assertFalse(reloader.reload());
+
+            Files.writeString(file, radioMap(1, 3));
+            assertTrue(reloader.reload());
+            assertEquals(2, reloader.current().version());
+            assertEquals(3, reloader.current().size());
+            assertEquals(Collections.singletonList(reloader.current()), published);
+            assertEquals("Queries holding the old snapshot keep it", 2, first.size());
+
+            // A broken file keeps the current snapshot
+            Files.writeString(file, radioMap(1, 4).substring(0, 100));
+            assertFalse(reloader.reload());
+            assertEquals(1, reloader.failures());
+            assertNotNull(reloader.lastFailure());
+            assertEquals(3, reloader.current().size());
+        }
+    }
+
+    @Test
+    public void testWatchedFileIsReloaded() throws IOException, InterruptedException {
+        Path file = folder.getRoot().toPath().resolve("radio_map.json");
+        Files.writeString(file, radioMap(1, 2));
+        try (RadioMapReloader reloader = new RadioMapReloader(file, 20)) {
+            reloader.start();
+            Path temporary = folder.getRoot().toPath().resolve("radio_map.json.tmp");
+            Files.writeString(temporary, radioMap(2, 5));
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            // Watch services may poll, so allow them plenty of time
+            for (int wait = 0; wait < 300 && reloader.current().version() == 1; wait++) {
+                Thread.sleep(100);
+            }
+            assertEquals(2, reloader.current().version());
+            assertEquals(5, reloader.current().size());
+        }
+    }
+
+    /**
+     * Writes a radio map of fingerprints along a line, each hearing two APs.
+     */
+    private static String radioMap(int seed, int size) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"CLASSNAME\": \"Fingerprint\", \"INSTANCE\": {\"mWiFiFingerprint\": {")
+                    .append("\"reloader-test-").append(i).append("\": ").append(-40 - seed).append(", ")
+                    .append("\"reloader-test-").append(i + 1).append("\": ").append(-60 - seed).append("}, ")
+                    .append("\"mCenter\": {\"x\": ").append(i).append(", \"y\": ").append(seed).append("}}}");
+        }
+        return json.append("]").toString();
+    }
+}
@@ -0,0 +1,55 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.util.*;
+
+public class ShardedRadioMapTests {
+
+    @Test
+    public void testGetLocationMatchesIndex() {
+        Random random = new Random(8);
+        List<Fingerprint> radioMap = campus(random, 300);
+        RadioMapIndex index = new RadioMapIndex(radioMap);
+        ShardedRadioMap sharded = new ShardedRadioMap(radioMap, 25);
+        assertTrue(sharded.zoneCount() > 2);
+
+        Locator locator = new Locator();
+        List<Fingerprint> queries = campus(random, 100);
+        queries.add(new Fingerprint());
+        for (Fingerprint query : queries) {
+            assertEquals(Locator.getMarksWithSameAps2(index, query), Locator.getMarksWithSameAps2(sharded, query));
+        }
+        for (int i = 0; i < radioMap.size(); i++) {
+            PointF expected = locator.getLocation(index, radioMap.get(i), i);
+            PointF actual = locator.getLocation(sharded, radioMap.get(i), i);
+            assertEquals(Double.doubleToLongBits(expected.getX()), Double.doubleToLongBits(actual.getX()));
+            assertEquals(Double.doubleToLongBits(expected.getY()), Double.doubleToLongBits(actual.getY()));
+        }
+    }
+
+    @Test
+    public void testBuildingsAreSeparateZones() {
+        List<Fingerprint> radioMap = campus(new Random(9), 100);
+        ShardedRadioMap sharded = new ShardedRadioMap(radioMap, Double.POSITIVE_INFINITY, 1);
+        assertEquals(3, sharded.zoneCount());
+
+        // A single zone per query is enough when a query only hears the APs of one building
+        for (int i = 0; i < radioMap.size(); i++) {
+            for (Fingerprint neighbour : Locator.getMarksWithSameAps2(sharded, radioMap.get(i))) {
+                assertEquals(sharded.zoneOf(i), sharded.zoneOf(radioMap.indexOf(neighbour)));
+            }
+        }
+    }
+
+    /**
+     * Creates fingerprints spread over two buildings that hear different APs, plus a few without any AP.
+     */
+    private static List<Fingerprint> campus(Random random, int size) {
+        List<Fingerprint> radioMap = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            int building = random.nextInt(2);
+            int apCount = i % 20 != 19 ? 1 + random.nextInt(10) : 0;
+            radioMap.add(RadioMapFixtures.randomFingerprint(random, "sharded-test-" + building + "-", 25, -94, -40, apCount));
+        }
+        return radioMap;
+    }
+}
@@ -0,0 +1,82 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+public class SyntheticRadioMapGeneratorTests {
+
+    @Test
+    public void testSameSeedGeneratesSameMap() {
+        List<Fingerprint> radioMap = new SyntheticRadioMapGenerator(100, 3, 11).generate(300);
+        List<Fingerprint> again = new SyntheticRadioMapGenerator(100, 3, 11).generate(300);
+        List<Fingerprint> smaller = new SyntheticRadioMapGenerator(100, 3, 11).generate(50);
+        List<Fingerprint> otherSeed = new SyntheticRadioMapGenerator(100, 3, 12).generate(300);
+
+        int heard = 0;
+        for (int i = 0; i < radioMap.size(); i++) {
+            assertSameFingerprint(radioMap.get(i), again.get(i));
+            if (i < smaller.size())
+                assertSameFingerprint(radioMap.get(i), smaller.get(i));
+            heard += radioMap.get(i).instance.macsAndValues.size();
+        }
+        assertNotEquals(radioMap.get(0).center.x, otherSeed.get(0).center.x, 0.0);
+        assertTrue("Scans should hear several APs", heard > 5 * radioMap.size());
+    }
+
+    @Test
+    public void testQueriesAreLocatedNearTheirPositions() {
+        SyntheticRadioMapGenerator generator = new SyntheticRadioMapGenerator(50, 2, 5);
+        RadioMapIndex index = new RadioMapIndex(generator.generate(2000));
+        Locator locator = new Locator();
+
+        double errorSum = 0;
+        List<Fingerprint> queries = generator.queries(50, 5);
+        for (Fingerprint query : queries) {
+            assertTrue(query.center.x >= 0 && query.center.x <= generator.width());
+            assertTrue(query.center.y >= 0 && query.center.y <= generator.height());
+            PointF location = locator.getLocation(index, query);
+            errorSum += Math.hypot(location.getX() - query.center.x, location.getY() - query.center.y);
+        }
+        assertTrue("Mean error should be a few meters", errorSum / queries.size() < 10);
+    }
+
+    @Test
+    public void testWrittenMapLoads() throws IOException {
+        List<Fingerprint> radioMap = new SyntheticRadioMapGenerator(30, 3, 7).generate(20);
+        Path file = Files.createTempFile("synthetic_radio_map", ".json");
+        try {
+            SyntheticRadioMapGenerator.write(radioMap, file);
+
+            List<Fingerprint> loaded = RadioMapLoader.load(file);
+            List<Fingerprint> parsed = new ArrayList<>();
+            Main.jsonParseFingerprints(parsed, file.toString());
+            assertEquals(radioMap.size(), loaded.size());
+            assertEquals(radioMap.size(), parsed.size());
+            for (int i = 0; i < radioMap.size(); i++) {
+                Fingerprint expected = radioMap.get(i);
+                for (Fingerprint actual : Arrays.asList(loaded.get(i), parsed.get(i))) {
+                    assertEquals(expected.center.x, actual.center.x, 1e-3);
+                    assertEquals(expected.center.y, actual.center.y, 1e-3);
+                    assertEquals(expected.instance.macsAndValues.size(), actual.instance.macsAndValues.size());
+                    for (MacAndValue macAndValue : expected.instance.macsAndValues) {
+                        assertEquals(macAndValue.signal, actual.get(macAndValue.mac));
+                    }
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static void assertSameFingerprint(Fingerprint expected, Fingerprint actual) {
+        assertEquals(expected.center.x, actual.center.x, 0.0);
+        assertEquals(expected.center.y, actual.center.y, 0.0);
+        assertEquals(expected.instance.macsAndValues.size(), actual.instance.macsAndValues.size());
+        for (int i = 0; i < expected.instance.macsAndValues.size(); i++) {
+            assertEquals(expected.instance.macsAndValues.get(i).mac, actual.instance.macsAndValues.get(i).mac);
+            assertEquals(expected.instance.macsAndValues.get(i).signal, actual.instance.macsAndValues.get(i).signal);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The {@link DistanceKernel} written with the Vector API: it subtracts, squares and adds whole vectors of the
+ * preferred width of the processor, and finishes the columns that do not fill a vector with the scalar loop.
+ * Integer addition wraps around in any order, so the lanes summed separately give exactly the scalar result.
+ *
+ * <p>Only loaded by {@link DistanceKernel#vector()}, and only when the JVM runs with
+ * {@code --add-modules jdk.incubator.vector}.
+ */
+final class VectorDistanceKernel implements DistanceKernel {
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    @Override
+    public int distanceSq(int[] values, int offset, int[] query) {
+        int bound = SPECIES.loopBound(query.length);
+        IntVector sums = IntVector.zero(SPECIES);
+        int column = 0;
+        for (; column < bound; column += SPECIES.length()) {
+            IntVector difference = IntVector.fromArray(SPECIES, values, offset + column)
+                    .sub(IntVector.fromArray(SPECIES, query, column));
+            sums = sums.add(difference.mul(difference));
+        }
+        int distanceSq = sums.reduceLanes(VectorOperators.ADD);
+        for (; column < query.length; column++) {
+            int difference = values[offset + column] - query[column];
+            distanceSq += difference * difference;
+        }
+        return distanceSq;
+    }
+}
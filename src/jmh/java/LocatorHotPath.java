@@ -0,0 +1,154 @@
+import benchmarks.HotPath;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The default package side of {@link HotPath}: holds the radio maps and search structures of a benchmark and makes
+ * the Locator calls it measures.
+ */
+public class LocatorHotPath implements HotPath {
+    private String radioMapPath;
+    private List<Fingerprint> bundled;
+    private List<Fingerprint> radioMap;
+    private RadioMapIndex index;
+    private DenseRadioMap dense;
+    private DenseRadioMap scalarDense;
+    private int[] distancesSq;
+    private final Locator locator = new Locator();
+    private final Locator measuredLocator = new Locator();
+    private final Locator allocationMeasuredLocator = new Locator();
+    private final LocatorContext context = new LocatorContext();
+    private final PointF location = new PointF();
+
+    @Override
+    public void setUp(String radioMapPath, int size) throws IOException {
+        this.radioMapPath = radioMapPath;
+        bundled = RadioMapLoader.load(Paths.get(radioMapPath));
+        radioMap = size == 0 ? bundled : scaledRadioMap(bundled, size, size);
+        index = new RadioMapIndex(radioMap);
+        dense = new DenseRadioMap(radioMap);
+        scalarDense = new DenseRadioMap(radioMap, DistanceKernel.scalar());
+        distancesSq = new int[radioMap.size()];
+
+        measuredLocator.setMetrics(new LocatorMetrics());
+        allocationMeasuredLocator.setMetrics(new LocatorMetrics());
+        allocationMeasuredLocator.getMetrics().setAllocationTracking(true);
+    }
+
+    @Override
+    public int queryCount() {
+        return bundled.size();
+    }
+
+    @Override
+    public int bundledSize() {
+        return bundled.size();
+    }
+
+    @Override
+    public int jsonParseFingerprints() {
+        List<Fingerprint> fingerprints = new ArrayList<>();
+        Main.jsonParseFingerprints(fingerprints, radioMapPath);
+        return fingerprints.size();
+    }
+
+    @Override
+    public int radioMapLoaderLoad() throws IOException {
+        return RadioMapLoader.load(Paths.get(radioMapPath)).size();
+    }
+
+    @Override
+    public float dissimilarity(int fingerprint) {
+        return Locator.dissimilarity(bundled.get(fingerprint), bundled.get(fingerprint + 1));
+    }
+
+    @Override
+    public int score(int fingerprint) {
+        return Locator.score(bundled.get(fingerprint), bundled.get(fingerprint + 1));
+    }
+
+    @Override
+    public int getApsWithMinRSS(int fingerprint) {
+        return Locator.getApsWithMinRSS(bundled.get(fingerprint), -75).size();
+    }
+
+    @Override
+    public int distanceSq(int query, int fingerprint) {
+        return Locator.distanceSq(radioMap.get(fingerprint), bundled.get(query), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int denseDistancesSq(int query) {
+        dense.distancesSq(bundled.get(query), 0, radioMap.size(), distancesSq);
+        return distancesSq[query];
+    }
+
+    @Override
+    public int denseDistancesSqScalar(int query) {
+        scalarDense.distancesSq(bundled.get(query), 0, radioMap.size(), distancesSq);
+        return distancesSq[query];
+    }
+
+    @Override
+    public double getLocation(int query) {
+        return locator.getLocation(radioMap, bundled.get(query)).getX();
+    }
+
+    @Override
+    public double getLocationIndexed(int query) {
+        return locator.getLocation(index, bundled.get(query)).getX();
+    }
+
+    @Override
+    public double getLocationWithContext(int query) {
+        return locator.getLocation(index, bundled.get(query), context, location).getX();
+    }
+
+    @Override
+    public double getLocationWithMetrics(int query) {
+        return measuredLocator.getLocation(index, bundled.get(query)).getX();
+    }
+
+    @Override
+    public double getLocationWithAllocationMetrics(int query) {
+        return allocationMeasuredLocator.getLocation(index, bundled.get(query)).getX();
+    }
+
+    /**
+     * Builds a larger radio map from a base map. The base fingerprints come first; every further fingerprint is a copy
+     * of a base fingerprint with its center moved by up to a meter and its signals changed by up to 3 dB,
+     * which gives a denser survey of the same area with realistic ties between neighbours.
+     *
+     * @param base The radio map to scale.
+     * @param size The number of fingerprints in the scaled map.
+     * @param seed The seed of the random changes, so the same map can be built again.
+     * @return The scaled radio map.
+     */
+    static List<Fingerprint> scaledRadioMap(List<Fingerprint> base, int size, long seed) {
+        Random random = new Random(seed);
+        List<Fingerprint> scaled = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Fingerprint original = base.get(i % base.size());
+            if (i < base.size()) {
+                scaled.add(original);
+                continue;
+            }
+
+            Fingerprint copy = new Fingerprint();
+            copy.center.x = original.center.x + random.nextDouble() * 2 - 1;
+            copy.center.y = original.center.y + random.nextDouble() * 2 - 1;
+            copy.radius = original.radius;
+            copy.color = original.color;
+            for (MacAndValue macAndValue : original.instance.macsAndValues) {
+                int signal = Math.max(-100, Math.min(-30, macAndValue.signal + random.nextInt(7) - 3));
+                copy.instance.macsAndValues.add(new MacAndValue(macAndValue.mac, signal));
+            }
+            scaled.add(copy);
+        }
+        return scaled;
+    }
+}
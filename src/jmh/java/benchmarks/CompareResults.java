@@ -0,0 +1,72 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two JMH result files written with {@code -rf csv}, so a new Locator build can be gated before it is
+ * deployed.
+ *
+ * <p>Usage: {@code java -cp target/benchmarks.jar benchmarks.CompareResults baseline.csv current.csv [tolerance]}
+ *
+ * <p>Every benchmark, and every bytes per operation row of the gc profiler, that is worse than the baseline by more
+ * than the tolerance (0.25 by default) is printed, and the program exits with status 1 if there is any.
+ * Allocations get a slack of a few bytes on top, since the profiler's own noise can show up as fractions of a byte.
+ */
+public class CompareResults {
+    private static final double ALLOCATION_SLACK_BYTES = 8;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2)
+            throw new IllegalArgumentException("Usage: CompareResults baseline.csv current.csv [tolerance]");
+        double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : 0.25;
+
+        Map<String, Double> baseline = read(Paths.get(args[0]));
+        Map<String, Double> current = read(Paths.get(args[1]));
+        boolean passed = true;
+        for (Map.Entry<String, Double> result : current.entrySet()) {
+            Double previous = baseline.get(result.getKey());
+            if (previous == null)
+                continue;
+
+            double slack = result.getKey().endsWith(" B/op") ? ALLOCATION_SLACK_BYTES : 0;
+            if (result.getValue() > previous * (1 + tolerance) + slack) {
+                System.out.printf("REGRESSION %s: %.3f, baseline %.3f%n", result.getKey(), result.getValue(), previous);
+                passed = false;
+            }
+        }
+        if (!passed)
+            System.exit(1);
+        System.out.println("No regressions against " + args[0]);
+    }
+
+    /**
+     * Reads the scores per operation of a result file, keyed on the benchmark, its parameters and the unit.
+     * Rows that are not per operation, such as the gc count and time, are skipped.
+     */
+    static Map<String, Double> read(Path path) throws IOException {
+        Map<String, Double> scores = new LinkedHashMap<>();
+        List<String> lines = Files.readAllLines(path);
+        for (String line : lines.subList(1, lines.size())) {
+            String[] columns = line.split(",");
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = columns[i].replace("\"", "");
+            }
+            String unit = columns[6];
+            if (!unit.endsWith("/op"))
+                continue;
+
+            StringBuilder key = new StringBuilder(columns[0]);
+            for (int i = 7; i < columns.length; i++) {
+                key.append(' ').append(columns[i]);
+            }
+            scores.put(key.append(' ').append(unit).toString(), Double.parseDouble(columns[4]));
+        }
+        return scores;
+    }
+}
@@ -0,0 +1,68 @@
+package benchmarks;
+
+import java.io.IOException;
+
+/**
+ * The localization hot path as seen by the JMH benchmarks.
+ * JMH only accepts benchmarks in a named package, while the Locator lives in the default package, which a named
+ * package cannot import; the benchmarks therefore reach it through this interface, implemented by the default
+ * package class LocatorHotPath and loaded by name. Only one implementation is ever loaded, so the JIT compiler
+ * inlines the calls.
+ */
+public interface HotPath {
+
+    /**
+     * Loads the bundled radio map and scales it to the given number of fingerprints.
+     *
+     * @param radioMapPath The path to the bundled radio map.
+     * @param size The number of fingerprints of the scaled map, or 0 for the bundled map itself.
+     */
+    void setUp(String radioMapPath, int size) throws IOException;
+
+    /**
+     * Returns the number of queries, which are the fingerprints of the bundled map.
+     */
+    int queryCount();
+
+    /**
+     * Returns the number of fingerprints of the bundled map.
+     */
+    int bundledSize();
+
+    int jsonParseFingerprints();
+
+    int radioMapLoaderLoad() throws IOException;
+
+    float dissimilarity(int fingerprint);
+
+    int score(int fingerprint);
+
+    int getApsWithMinRSS(int fingerprint);
+
+    int distanceSq(int query, int fingerprint);
+
+    int denseDistancesSq(int query);
+
+    int denseDistancesSqScalar(int query);
+
+    double getLocation(int query);
+
+    double getLocationIndexed(int query);
+
+    double getLocationWithContext(int query);
+
+    double getLocationWithMetrics(int query);
+
+    double getLocationWithAllocationMetrics(int query);
+
+    /**
+     * Creates the implementation in the default package.
+     */
+    static HotPath create() {
+        try {
+            return (HotPath) Class.forName("LocatorHotPath").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("LocatorHotPath is not on the class path", e);
+        }
+    }
+}
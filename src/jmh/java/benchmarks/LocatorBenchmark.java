@@ -0,0 +1,118 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks locating the fingerprints of the bundled radio map, in turn, on the bundled map (size 0) and on maps
+ * scaled to 10,000, 100,000 and 1,000,000 fingerprints, through every search path of the Locator.
+ *
+ * <p>Run with the gc profiler to get the bytes allocated per operation next to the time, and save the results for
+ * {@link CompareResults}:
+ * <pre>
+ * java -jar target/benchmarks.jar -prof gc -rf csv -rff jmh-result.csv
+ * java -jar target/benchmarks.jar LocatorBenchmark -p size=0,10000 -prof gc
+ * </pre>
+ * Every size runs in fresh forks, so the JIT profile of one map never carries over to the next. The 1,000,000
+ * fingerprint map needs a heap of several GB. The forks add the jdk.incubator.vector module, so the dense kernel
+ * is measured both with the Vector API and with the scalar loop.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xmx6g", "--add-modules=jdk.incubator.vector"})
+public class LocatorBenchmark {
+    static final String RADIO_MAP = "radio_map.json";
+
+    @Param({"0", "10000", "100000", "1000000"})
+    public int size;
+
+    private HotPath hotPath;
+    private int query;
+    private int queries;
+    private int fingerprint;
+    private int fingerprints;
+
+    @Setup
+    public void setUp() throws IOException {
+        hotPath = HotPath.create();
+        hotPath.setUp(RADIO_MAP, size);
+        queries = hotPath.queryCount();
+        fingerprints = size == 0 ? queries : size;
+    }
+
+    private int nextQuery() {
+        int current = query;
+        query = current + 1 == queries ? 0 : current + 1;
+        return current;
+    }
+
+    /**
+     * The merge of sorted APs between a query and one fingerprint, walking the whole map with each query in turn.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int distanceSq() {
+        int current = fingerprint;
+        fingerprint = current + 1 == fingerprints ? 0 : current + 1;
+        return hotPath.distanceSq(fingerprint == 0 ? nextQuery() : query, current);
+    }
+
+    /**
+     * The dense kernel from one query to every fingerprint of the map, with the Vector API.
+     */
+    @Benchmark
+    public int denseDistancesSq() {
+        return hotPath.denseDistancesSq(nextQuery());
+    }
+
+    /**
+     * The same with the scalar loop, to check the Vector API kernel still pays off.
+     */
+    @Benchmark
+    public int denseDistancesSqScalar() {
+        return hotPath.denseDistancesSqScalar(nextQuery());
+    }
+
+    @Benchmark
+    public double getLocation() {
+        return hotPath.getLocation(nextQuery());
+    }
+
+    @Benchmark
+    public double getLocationIndexed() {
+        return hotPath.getLocationIndexed(nextQuery());
+    }
+
+    @Benchmark
+    public double getLocationWithContext() {
+        return hotPath.getLocationWithContext(nextQuery());
+    }
+
+    /**
+     * The indexed path with metrics, to keep the cost of the instrumentation visible.
+     */
+    @Benchmark
+    public double getLocationWithMetrics() {
+        return hotPath.getLocationWithMetrics(nextQuery());
+    }
+
+    @Benchmark
+    public double getLocationWithAllocationMetrics() {
+        return hotPath.getLocationWithAllocationMetrics(nextQuery());
+    }
+}
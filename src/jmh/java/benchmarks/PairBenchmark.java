@@ -0,0 +1,71 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks loading the bundled radio map and the single pair operations of the Locator, over every consecutive
+ * pair of fingerprints of the bundled map in turn.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PairBenchmark {
+    private HotPath hotPath;
+    private int fingerprint;
+    private int pairs;
+
+    @Setup
+    public void setUp() throws IOException {
+        hotPath = HotPath.create();
+        hotPath.setUp(LocatorBenchmark.RADIO_MAP, 0);
+        pairs = hotPath.bundledSize() - 1;
+    }
+
+    private int nextPair() {
+        int current = fingerprint;
+        fingerprint = current + 1 == pairs ? 0 : current + 1;
+        return current;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int jsonParseFingerprints() {
+        return hotPath.jsonParseFingerprints();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int radioMapLoaderLoad() throws IOException {
+        return hotPath.radioMapLoaderLoad();
+    }
+
+    @Benchmark
+    public float dissimilarity() {
+        return hotPath.dissimilarity(nextPair());
+    }
+
+    @Benchmark
+    public int score() {
+        return hotPath.score(nextPair());
+    }
+
+    @Benchmark
+    public int getApsWithMinRSS() {
+        return hotPath.getApsWithMinRSS(nextPair());
+    }
+}